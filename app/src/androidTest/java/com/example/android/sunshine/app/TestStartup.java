@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.v7.widget.RecyclerView;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/*
+    Startup benchmark: measures the time from launching MainActivity until the forecast list
+    shows its first row, with and without the forecast snapshot.  The timings are written to the
+    log; the test only fails if the list never shows anything.
+ */
+public class TestStartup extends ActivityInstrumentationTestCase2<MainActivity> {
+    private static final String LOG_TAG = TestStartup.class.getSimpleName();
+
+    private static final int TEST_DAYS = 14;
+    private static final long FIRST_ROW_TIMEOUT = 10000;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private ContentValues[] mDays;
+
+    public TestStartup() {
+        super(MainActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Context context = getInstrumentation().getTargetContext();
+        String location = Utility.getPreferredLocation(context);
+
+        // Both runs need the same rows in the database so only the snapshot differs.
+        context.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        context.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, location);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "Mountain View");
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 37.3861);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -122.0839);
+        Uri locationUri = context.getContentResolver()
+                .insert(WeatherContract.LocationEntry.CONTENT_URI, locationValues);
+        long locationId = ContentUris.parseId(locationUri);
+
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        mDays = new ContentValues[TEST_DAYS];
+        for (int i = 0; i < TEST_DAYS; i++) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    WeatherContract.normalizeDate(today + i * DAY_IN_MILLIS));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 1.1);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1.3);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 20 + i);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 10 - i);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800);
+            mDays[i] = weatherValues;
+        }
+        context.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, mDays);
+    }
+
+    public void testTimeToFirstRowWithSnapshot() {
+        Context context = getInstrumentation().getTargetContext();
+        ForecastSnapshot.write(context, Utility.getPreferredLocation(context),
+                37.3861, -122.0839, mDays);
+        long elapsed = measureTimeToFirstRow();
+        Log.i(LOG_TAG, "Time to first forecast row with snapshot: " + elapsed + "ms");
+    }
+
+    public void testTimeToFirstRowWithoutSnapshot() {
+        ForecastSnapshot.clear(getInstrumentation().getTargetContext());
+        long elapsed = measureTimeToFirstRow();
+        Log.i(LOG_TAG, "Time to first forecast row without snapshot: " + elapsed + "ms");
+    }
+
+    private long measureTimeToFirstRow() {
+        long start = SystemClock.uptimeMillis();
+        MainActivity activity = getActivity();
+        RecyclerView recyclerView =
+                (RecyclerView) activity.findViewById(R.id.recyclerview_forecast);
+        // Poll tightly rather than through PollingCheck; its 50ms slices are too coarse here.
+        while (recyclerView.getChildCount() == 0) {
+            long elapsed = SystemClock.uptimeMillis() - start;
+            assertTrue("Error: the forecast list never showed a row", elapsed < FIRST_ROW_TIMEOUT);
+            SystemClock.sleep(2);
+        }
+        return SystemClock.uptimeMillis() - start;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.text.SimpleDateFormat;
+
+/*
+    Checks the cached formatting in SunshineFormatter against the uncached code it replaced.
+ */
+public class TestSunshineFormatter extends AndroidTestCase {
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int TEST_DAYS = 20;
+
+    private String mSavedUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Imperial conversions land on values like 36.499999..., where rounding depends on how
+        // the formatter expands the double; compare in Celsius, where x.5 is exact.
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getContext());
+        String unitsKey = getContext().getString(R.string.pref_units_key);
+        mSavedUnits = prefs.getString(unitsKey, getContext().getString(R.string.pref_units_metric));
+        prefs.edit().putString(unitsKey, getContext().getString(R.string.pref_units_metric)).commit();
+        SunshineSettings.refresh(getContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        PreferenceManager.getDefaultSharedPreferences(getContext()).edit()
+                .putString(getContext().getString(R.string.pref_units_key), mSavedUnits)
+                .commit();
+        SunshineSettings.refresh(getContext());
+        super.tearDown();
+    }
+
+    public void testTemperatureMatchesLegacy() {
+        Context context = getContext();
+        // Twice over, so the second pass is served from the cache.
+        for (int pass = 0; pass < 2; pass++) {
+            for (int tenths = -600; tenths <= 600; tenths++) {
+                double temperature = tenths / 10.0;
+                String expected = legacyFormatTemperature(context, temperature);
+                if (expected.startsWith("-0")) {
+                    // The old code showed small negative values as "-0°".
+                    expected = expected.substring(1);
+                }
+                assertEquals("Error: temperature formatted differently for " + temperature,
+                        expected, Utility.formatTemperature(context, temperature));
+            }
+        }
+    }
+
+    public void testDayStringsMatchLegacy() {
+        Context context = getContext();
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        for (int pass = 0; pass < 2; pass++) {
+            for (int day = -1; day < TEST_DAYS; day++) {
+                long date = WeatherContract.normalizeDate(today + day * DAY_IN_MILLIS);
+                assertEquals("Error: friendly day string differs for day " + day,
+                        legacyFriendlyDayString(context, date, false),
+                        Utility.getFriendlyDayString(context, date, false));
+                assertEquals("Error: long friendly day string differs for day " + day,
+                        legacyFriendlyDayString(context, date, true),
+                        Utility.getFriendlyDayString(context, date, true));
+                assertEquals("Error: full friendly day string differs for day " + day,
+                        context.getString(R.string.format_full_friendly_date,
+                                legacyDayName(context, date),
+                                new SimpleDateFormat("MMMM dd").format(date)),
+                        Utility.getFullFriendlyDayString(context, date));
+            }
+        }
+    }
+
+    // The formatting as it was before SunshineFormatter, for comparison.
+
+    private static String legacyFormatTemperature(Context context, double temperature) {
+        return String.format(context.getString(R.string.format_temperature), temperature);
+    }
+
+    private static String legacyFriendlyDayString(Context context, long dateInMillis,
+                                                  boolean displayLongToday) {
+        Time time = new Time();
+        time.setToNow();
+        long currentTime = System.currentTimeMillis();
+        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
+        int currentJulianDay = Time.getJulianDay(currentTime, time.gmtoff);
+
+        if (displayLongToday && julianDay == currentJulianDay) {
+            return context.getString(R.string.format_full_friendly_date,
+                    context.getString(R.string.today),
+                    new SimpleDateFormat("MMMM dd").format(dateInMillis));
+        } else if ( julianDay < currentJulianDay + 7 ) {
+            return legacyDayName(context, dateInMillis);
+        } else {
+            return new SimpleDateFormat("EEE MMM dd").format(dateInMillis);
+        }
+    }
+
+    private static String legacyDayName(Context context, long dateInMillis) {
+        Time t = new Time();
+        t.setToNow();
+        int julianDay = Time.getJulianDay(dateInMillis, t.gmtoff);
+        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), t.gmtoff);
+        if (julianDay == currentJulianDay) {
+            return context.getString(R.string.today);
+        } else if ( julianDay == currentJulianDay +1 ) {
+            return context.getString(R.string.tomorrow);
+        } else {
+            return new SimpleDateFormat("EEEE").format(dateInMillis);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.Locale;
+
+public class TestSunshineSettings extends AndroidTestCase {
+    private static final String LOG_TAG = TestSunshineSettings.class.getSimpleName();
+
+    private static final int BENCHMARK_WARMUP_BINDS = 500;
+    private static final int BENCHMARK_BINDS = 5000;
+    private static final int TEST_WEATHER_ID = 501;
+
+    private String mSavedUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getContext());
+        mSavedUnits = prefs.getString(getContext().getString(R.string.pref_units_key),
+                getContext().getString(R.string.pref_units_metric));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        PreferenceManager.getDefaultSharedPreferences(getContext()).edit()
+                .putString(getContext().getString(R.string.pref_units_key), mSavedUnits)
+                .commit();
+        SunshineSettings.refresh(getContext());
+        super.tearDown();
+    }
+
+    public void testSnapshotFollowsPreferences() {
+        Context context = getContext();
+        String unitsKey = context.getString(R.string.pref_units_key);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+
+        prefs.edit().putString(unitsKey, context.getString(R.string.pref_units_imperial)).commit();
+        SunshineSettings.refresh(context);
+        assertFalse("Error: snapshot still metric after switching to imperial",
+                Utility.isMetric(context));
+
+        prefs.edit().putString(unitsKey, context.getString(R.string.pref_units_metric)).commit();
+        SunshineSettings.refresh(context);
+        assertTrue("Error: snapshot still imperial after switching to metric",
+                Utility.isMetric(context));
+
+        assertEquals("Error: snapshot location doesn't match the preference",
+                prefs.getString(context.getString(R.string.pref_location_key),
+                        context.getString(R.string.pref_location_default)),
+                Utility.getPreferredLocation(context));
+    }
+
+    /*
+        A write that isn't followed by a refresh still reaches the snapshot, through the change
+        listener, even when the first thing to touch the settings was a refresh.
+     */
+    public void testSnapshotFollowsWritesAfterRefresh() {
+        final Context context = getContext();
+        String unitsKey = context.getString(R.string.pref_units_key);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        final boolean metric = Utility.isMetric(context);
+        SunshineSettings.refresh(context);
+
+        prefs.edit().putString(unitsKey, context.getString(metric
+                ? R.string.pref_units_imperial : R.string.pref_units_metric)).commit();
+        // The listener is called on the main thread, which this test doesn't run on.
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return Utility.isMetric(context) != metric;
+            }
+        }.run();
+    }
+
+    /*
+        Logs the cost of the settings reads a forecast row bind makes, reading SharedPreferences
+        directly the way Utility used to versus reading the snapshot.
+     */
+    public void testBindSettingsCost() {
+        Context context = getContext();
+        int checksum = 0;
+        for (int i = 0; i < BENCHMARK_WARMUP_BINDS; i++) {
+            checksum += legacyBind(context).length() + snapshotBind(context).length();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_BINDS; i++) {
+            checksum += legacyBind(context).length();
+        }
+        long legacyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_BINDS; i++) {
+            checksum += snapshotBind(context).length();
+        }
+        long snapshotNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "Settings reads per bind: SharedPreferences %.2fus, snapshot %.2fus (checksum %d)",
+                legacyNanos / 1000.0 / BENCHMARK_BINDS, snapshotNanos / 1000.0 / BENCHMARK_BINDS,
+                checksum));
+    }
+
+    // What a bind used to read: the location, units and art pack, each from SharedPreferences.
+    private static String legacyBind(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String location = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+        prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        boolean metric = prefs.getString(context.getString(R.string.pref_units_key),
+                context.getString(R.string.pref_units_metric))
+                .equals(context.getString(R.string.pref_units_metric));
+        prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        String artPack = prefs.getString(context.getString(R.string.pref_art_pack_key),
+                sunshineArtPack);
+        boolean local = artPack.equals(sunshineArtPack);
+        return location + metric + local
+                + String.format(Locale.US, artPack, TEST_WEATHER_ID);
+    }
+
+    private static String snapshotBind(Context context) {
+        return Utility.getPreferredLocation(context) + Utility.isMetric(context)
+                + Utility.usingLocalGraphics(context)
+                + String.format(Locale.US, SunshineSettings.get(context).artPackFormat,
+                TEST_WEATHER_ID);
+    }
+}
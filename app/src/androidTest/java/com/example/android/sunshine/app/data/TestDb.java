@@ -55,6 +55,8 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HourlyEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.ArchiveEntry.TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -91,6 +93,8 @@ public class TestDb extends AndroidTestCase {
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_VERSION);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LAST_SYNC);
 
         int columnNameIndex = c.getColumnIndex("name");
         do {
@@ -105,6 +109,89 @@ public class TestDb extends AndroidTestCase {
         db.close();
     }
 
+    /*
+        Upgrading from version 5 adds the archive and the weather index, and keeps everything
+        that was already stored.
+     */
+    public void testUpgradeKeepsData() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long locationRowId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                TestUtilities.createWeatherValues(locationRowId));
+
+        // What a version 5 database looks like.
+        db.execSQL("DROP TABLE " + WeatherContract.ArchiveEntry.TABLE_NAME);
+        db.execSQL("DROP INDEX " + WeatherContract.WeatherEntry.INDEX_LOCATION_DATE);
+        dbHelper.onUpgrade(db, 5, 8);
+
+        Cursor c = db.query(WeatherContract.LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals("Error: the upgrade lost the locations", 1, c.getCount());
+        c.close();
+        c = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals("Error: the upgrade lost the weather", 1, c.getCount());
+        c.close();
+        c = db.query(WeatherContract.ArchiveEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals("Error: the upgrade didn't create an empty archive", 0, c.getCount());
+        c.close();
+        c = db.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND name = ?",
+                new String[]{WeatherContract.WeatherEntry.INDEX_LOCATION_DATE});
+        assertEquals("Error: the upgrade didn't create the weather index", 1, c.getCount());
+        c.close();
+        db.close();
+    }
+
+    /*
+        Upgrading from version 7 adds the averages of the lows and highs to the archive, filled
+        in from what each row has.
+     */
+    public void testUpgradeAddsArchiveAverages() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long locationRowId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+
+        // What a version 7 archive looks like, with one folded week in it.
+        db.execSQL("DROP TABLE " + WeatherContract.ArchiveEntry.TABLE_NAME);
+        db.execSQL("CREATE TABLE " + WeatherContract.ArchiveEntry.TABLE_NAME + " (" +
+                WeatherContract.ArchiveEntry._ID + " INTEGER PRIMARY KEY," +
+                WeatherContract.ArchiveEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherContract.ArchiveEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherContract.ArchiveEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+                WeatherContract.ArchiveEntry.COLUMN_SAMPLES + " INTEGER NOT NULL, " +
+                WeatherContract.ArchiveEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                WeatherContract.ArchiveEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                WeatherContract.ArchiveEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                WeatherContract.ArchiveEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                WeatherContract.ArchiveEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                WeatherContract.ArchiveEntry.COLUMN_WIND_SPEED + " REAL NOT NULL);");
+        ContentValues week = new ContentValues();
+        week.put(WeatherContract.ArchiveEntry.COLUMN_LOC_KEY, locationRowId);
+        week.put(WeatherContract.ArchiveEntry.COLUMN_DATE, TestUtilities.TEST_DATE);
+        week.put(WeatherContract.ArchiveEntry.COLUMN_DAYS, WeatherContract.ArchiveEntry.WEEK_DAYS);
+        week.put(WeatherContract.ArchiveEntry.COLUMN_SAMPLES,
+                WeatherContract.ArchiveEntry.WEEK_DAYS);
+        week.put(WeatherContract.ArchiveEntry.COLUMN_WEATHER_ID, 800);
+        week.put(WeatherContract.ArchiveEntry.COLUMN_MIN_TEMP, -5.0);
+        week.put(WeatherContract.ArchiveEntry.COLUMN_MAX_TEMP, 12.5);
+        week.put(WeatherContract.ArchiveEntry.COLUMN_HUMIDITY, 50.0);
+        week.put(WeatherContract.ArchiveEntry.COLUMN_PRESSURE, 1013.0);
+        week.put(WeatherContract.ArchiveEntry.COLUMN_WIND_SPEED, 5.5);
+        assertTrue(db.insert(WeatherContract.ArchiveEntry.TABLE_NAME, null, week) > 0);
+        dbHelper.onUpgrade(db, 7, 8);
+
+        Cursor c = db.query(WeatherContract.ArchiveEntry.TABLE_NAME,
+                new String[]{WeatherContract.ArchiveEntry.COLUMN_AVG_MIN_TEMP,
+                        WeatherContract.ArchiveEntry.COLUMN_AVG_MAX_TEMP},
+                null, null, null, null, null);
+        assertTrue("Error: the upgrade lost the archive", c.moveToFirst());
+        assertEquals(-5.0, c.getDouble(0), 1e-9);
+        assertEquals(12.5, c.getDouble(1), 1e-9);
+        c.close();
+        db.close();
+    }
+
     /*
         Students:  Here is where you will build code to test that we can insert and query the
         location database.  We've done a lot of work for you.  You'll want to look in TestUtilities
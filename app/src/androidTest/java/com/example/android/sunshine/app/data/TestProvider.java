@@ -16,6 +16,8 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
@@ -30,6 +32,8 @@ import android.util.Log;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -51,16 +55,7 @@ public class TestProvider extends AndroidTestCase {
        the delete functionality in the ContentProvider.
      */
     public void deleteAllRecordsFromProvider() {
-        mContext.getContentResolver().delete(
-                WeatherEntry.CONTENT_URI,
-                null,
-                null
-        );
-        mContext.getContentResolver().delete(
-                LocationEntry.CONTENT_URI,
-                null,
-                null
-        );
+        TestUtilities.deleteAllRecords(mContext);
 
         Cursor cursor = mContext.getContentResolver().query(
                 WeatherEntry.CONTENT_URI,
@@ -160,6 +155,53 @@ public class TestProvider extends AndroidTestCase {
         // vnd.android.cursor.dir/com.example.android.sunshine.app/location
         assertEquals("Error: the LocationEntry CONTENT_URI should return LocationEntry.CONTENT_TYPE",
                 LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/diagnostics/
+        type = mContext.getContentResolver().getType(WeatherContract.DiagnosticsEntry.CONTENT_URI);
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/diagnostics
+        assertEquals("Error: the DiagnosticsEntry CONTENT_URI should return DiagnosticsEntry.CONTENT_TYPE",
+                WeatherContract.DiagnosticsEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/diagnostics/cache
+        type = mContext.getContentResolver().getType(WeatherContract.DiagnosticsEntry.CACHE_URI);
+        // vnd.android.cursor.item/com.example.android.sunshine.app/diagnostics/cache
+        assertEquals("Error: the DiagnosticsEntry CACHE_URI should return DiagnosticsEntry.CACHE_CONTENT_TYPE",
+                WeatherContract.DiagnosticsEntry.CACHE_CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/weather_hourly/94074
+        type = mContext.getContentResolver().getType(
+                WeatherContract.HourlyEntry.buildHourlyLocation(testLocation));
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/weather_hourly
+        assertEquals("Error: the HourlyEntry CONTENT_URI with location should return HourlyEntry.CONTENT_TYPE",
+                WeatherContract.HourlyEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/weather_hourly/94074/1419120000
+        type = mContext.getContentResolver().getType(
+                WeatherContract.HourlyEntry.buildHourlyLocationWithTime(testLocation, testDate));
+        // vnd.android.cursor.item/com.example.android.sunshine.app/weather_hourly/1419120000
+        assertEquals("Error: the HourlyEntry CONTENT_URI with location and time should return HourlyEntry.CONTENT_ITEM_TYPE",
+                WeatherContract.HourlyEntry.CONTENT_ITEM_TYPE, type);
+
+        // content://com.example.android.sunshine.app/archive/94074
+        type = mContext.getContentResolver().getType(
+                WeatherContract.ArchiveEntry.buildArchiveLocation(testLocation));
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/archive
+        assertEquals("Error: the ArchiveEntry CONTENT_URI with location should return ArchiveEntry.CONTENT_TYPE",
+                WeatherContract.ArchiveEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/weather/94074/stats?from=0&to=1419120000
+        type = mContext.getContentResolver().getType(
+                WeatherContract.StatsEntry.buildWeatherStats(testLocation, 0, testDate));
+        // vnd.android.cursor.item/com.example.android.sunshine.app/stats
+        assertEquals("Error: the weather stats uri should return StatsEntry.CONTENT_TYPE",
+                WeatherContract.StatsEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/archive/94074/conditions?from=0&to=1419120000
+        type = mContext.getContentResolver().getType(
+                WeatherContract.StatsEntry.buildArchiveConditions(testLocation, 0, testDate));
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/conditions
+        assertEquals("Error: the archive conditions uri should return StatsEntry.CONDITIONS_CONTENT_TYPE",
+                WeatherContract.StatsEntry.CONDITIONS_CONTENT_TYPE, type);
     }
 
 
@@ -512,4 +554,188 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        The sync writes a forecast as one batch: the location, the days referring back to it, and
+        the pruning of old days.  Applying the same batch twice should leave the database as it
+        was after the first time, with the location keeping its row.
+     */
+    public void testApplyBatchIsIdempotent() throws Exception {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(0);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(locationValues)
+                .build());
+        for (ContentValues values : weatherValues) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        // Prunes nothing: all the test days are after this.
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " <= ?", new String[]{"0"})
+                .build());
+
+        TestUtilities.TestContentObserver observer = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, observer);
+        ContentProviderResult[] first = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        observer.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(observer);
+
+        ContentProviderResult[] second = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        assertEquals("Error: applying the batch again gave the location a new row",
+                ContentUris.parseId(first[0].uri), ContentUris.parseId(second[0].uri));
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: applying the batch twice duplicated the location",
+                1, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: applying the batch twice duplicated the weather",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            assertEquals("Error: weather row " + i + " doesn't refer to the location",
+                    ContentUris.parseId(first[0].uri),
+                    cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_LOC_KEY)));
+        }
+        cursor.close();
+    }
+
+    static private final int HOURLY_RECORDS_TO_INSERT = 40;
+    static private final long MILLIS_IN_3_HOURS = 1000 * 60 * 60 * 3;
+    static ContentValues[] createHourlyValues(long start, int temp) {
+        ContentValues[] returnContentValues = new ContentValues[HOURLY_RECORDS_TO_INSERT];
+        for (int i = 0; i < HOURLY_RECORDS_TO_INSERT; i++) {
+            ContentValues hourlyValues = new ContentValues();
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_TIME, start + i * MILLIS_IN_3_HOURS);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_TEMP,
+                    WeatherContract.HourlyEntry.scaleTemperature(temp + 0.1 * i));
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID, 321);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY, 50 + i);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED,
+                    WeatherContract.HourlyEntry.scaleWindSpeed(5.5));
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_DEGREES, 90);
+            returnContentValues[i] = hourlyValues;
+        }
+        return returnContentValues;
+    }
+
+    /*
+        Hourly steps are written for a location as a whole: a bulk insert replaces whatever the
+        location had, and a window query returns the steps in it, oldest first.
+     */
+    public void testHourlyBulkInsertAndWindow() {
+        Uri hourlyUri = WeatherContract.HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION);
+
+        // No location yet, nothing to attach the steps to.
+        assertEquals(0, mContext.getContentResolver().bulkInsert(hourlyUri,
+                createHourlyValues(TestUtilities.TEST_DATE, 10)));
+
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+
+        TestUtilities.TestContentObserver hourlyObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherContract.HourlyEntry.CONTENT_URI, true, hourlyObserver);
+        assertEquals(HOURLY_RECORDS_TO_INSERT, mContext.getContentResolver().bulkInsert(
+                hourlyUri, createHourlyValues(TestUtilities.TEST_DATE, 10)));
+        hourlyObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(hourlyObserver);
+
+        // Writing the forecast again replaces it instead of adding to it.
+        ContentValues[] newer = createHourlyValues(TestUtilities.TEST_DATE, 20);
+        assertEquals(HOURLY_RECORDS_TO_INSERT,
+                mContext.getContentResolver().bulkInsert(hourlyUri, newer));
+        Cursor cursor = mContext.getContentResolver().query(hourlyUri, null, null, null, null);
+        assertEquals("Error: writing the steps again duplicated them",
+                HOURLY_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+
+        // The first day: 8 steps.
+        long end = TestUtilities.TEST_DATE + 8 * MILLIS_IN_3_HOURS;
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.HourlyEntry.buildHourlyLocationWithWindow(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE, end),
+                null, null, null, null);
+        assertEquals("Error: the window returned the wrong number of steps", 8, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < 8; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testHourlyBulkInsertAndWindow.  Error validating step " + i,
+                    cursor, newer[i]);
+        }
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.HourlyEntry.buildHourlyLocationWithTime(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE + MILLIS_IN_3_HOURS),
+                null, null, null, null);
+        assertTrue("Error: no step at the time asked for", cursor.moveToFirst());
+        TestUtilities.validateCurrentRecord("testHourlyBulkInsertAndWindow.  Error validating one step",
+                cursor, newer[1]);
+        cursor.close();
+    }
+
+    /*
+        The stats of a range of days come back as one row computed in SQL, and the conditions as
+        one row per weather id.
+     */
+    public void testWeatherStats() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        // Make one day stand out in the histogram.
+        bulkInsertContentValues[0].put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.StatsEntry.buildWeatherStats(TestUtilities.TEST_LOCATION,
+                        0, Long.MAX_VALUE),
+                null, null, null, null);
+        assertEquals("Error: stats should be exactly one row", 1, cursor.getCount());
+        cursor.moveToFirst();
+        // Highs are 75 + i and lows 65 - i over 10 days.
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT,
+                cursor.getInt(cursor.getColumnIndex(WeatherContract.StatsEntry.COLUMN_DAYS)));
+        assertEquals(56.0,
+                cursor.getDouble(cursor.getColumnIndex(WeatherContract.StatsEntry.COLUMN_MIN_TEMP)), 1e-9);
+        assertEquals(84.0,
+                cursor.getDouble(cursor.getColumnIndex(WeatherContract.StatsEntry.COLUMN_MAX_TEMP)), 1e-9);
+        assertEquals(60.5,
+                cursor.getDouble(cursor.getColumnIndex(WeatherContract.StatsEntry.COLUMN_AVG_MIN_TEMP)), 1e-9);
+        assertEquals(79.5,
+                cursor.getDouble(cursor.getColumnIndex(WeatherContract.StatsEntry.COLUMN_AVG_MAX_TEMP)), 1e-9);
+        assertEquals(1.245,
+                cursor.getDouble(cursor.getColumnIndex(WeatherContract.StatsEntry.COLUMN_AVG_HUMIDITY)), 1e-6);
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.StatsEntry.buildWeatherConditions(TestUtilities.TEST_LOCATION,
+                        0, Long.MAX_VALUE),
+                null, null, null, null);
+        assertEquals("Error: the histogram should have a row per condition", 2, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(321,
+                cursor.getInt(cursor.getColumnIndex(WeatherContract.StatsEntry.COLUMN_WEATHER_ID)));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1,
+                cursor.getInt(cursor.getColumnIndex(WeatherContract.StatsEntry.COLUMN_DAYS)));
+        cursor.close();
+
+        // A range with nothing in it still has its row.
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.StatsEntry.buildWeatherStats(TestUtilities.TEST_LOCATION, 0, 1),
+                null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(0, cursor.getInt(cursor.getColumnIndex(WeatherContract.StatsEntry.COLUMN_DAYS)));
+        assertTrue(cursor.isNull(cursor.getColumnIndex(WeatherContract.StatsEntry.COLUMN_MIN_TEMP)));
+        cursor.close();
+    }
 }
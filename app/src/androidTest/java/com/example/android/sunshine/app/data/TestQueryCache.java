@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.DiagnosticsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks the provider's query cache: a repeated query is answered from it, a write drops what
+    it could have changed and nothing else, and the counters say so.
+ */
+public class TestQueryCache extends AndroidTestCase {
+
+    private static final String OTHER_LOCATION = "94043";
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        mLocationRowId = insertLocation(TestUtilities.createNorthPoleLocationValues());
+        ContentValues otherValues = TestUtilities.createNorthPoleLocationValues();
+        otherValues.put(LocationEntry.COLUMN_LOCATION_SETTING, OTHER_LOCATION);
+        insertLocation(otherValues);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testRepeatedQueryIsAHit() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(mLocationRowId));
+        Uri weatherUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+
+        long[] before = queryCounters();
+        assertEquals(1, countRows(weatherUri));
+        assertEquals(1, countRows(weatherUri));
+        long[] after = queryCounters();
+        assertEquals("Error: the first query wasn't a miss", 1, after[1] - before[1]);
+        assertEquals("Error: the second query wasn't a hit", 1, after[0] - before[0]);
+
+        // A different projection is a different query.
+        Cursor cursor = mContext.getContentResolver().query(weatherUri,
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+        assertEquals(1, cursor.getColumnCount());
+        cursor.close();
+        assertEquals(2, queryCounters()[1] - before[1]);
+    }
+
+    public void testWritesInvalidate() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        Uri weatherUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        assertEquals(0, countRows(weatherUri));
+
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(mLocationRowId));
+        assertEquals("Error: an insert didn't invalidate", 1, countRows(weatherUri));
+
+        ContentValues nextDay = TestUtilities.createWeatherValues(mLocationRowId);
+        nextDay.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + 2 * DAY_IN_MILLIS);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{nextDay});
+        assertEquals("Error: a bulk insert didn't invalidate", 2, countRows(weatherUri));
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(TestUtilities.TEST_DATE + DAY_IN_MILLIS)});
+        assertEquals("Error: a delete didn't invalidate", 1, countRows(weatherUri));
+
+        ContentValues humidity = new ContentValues();
+        humidity.put(WeatherEntry.COLUMN_HUMIDITY, 99);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, humidity, null, null);
+        Cursor cursor = mContext.getContentResolver().query(weatherUri,
+                new String[]{WeatherEntry.COLUMN_HUMIDITY}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: an update didn't invalidate", 99, cursor.getInt(0));
+        cursor.close();
+    }
+
+    public void testOtherLocationsStayCached() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        Uri hourlyUri = HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION);
+        mContext.getContentResolver().bulkInsert(hourlyUri,
+                TestProvider.createHourlyValues(TestUtilities.TEST_DATE, 10));
+        int steps = countRows(hourlyUri);
+
+        // Replacing another location's steps leaves this one's result alone...
+        long[] before = queryCounters();
+        mContext.getContentResolver().bulkInsert(HourlyEntry.buildHourlyLocation(OTHER_LOCATION),
+                TestProvider.createHourlyValues(TestUtilities.TEST_DATE, 20));
+        assertEquals(steps, countRows(hourlyUri));
+        long[] after = queryCounters();
+        assertEquals("Error: a write to another location invalidated", 1, after[0] - before[0]);
+
+        // ...while replacing its own drops it.
+        mContext.getContentResolver().bulkInsert(hourlyUri,
+                TestProvider.createHourlyValues(TestUtilities.TEST_DATE + 1, 10));
+        assertEquals(steps, countRows(hourlyUri));
+        long[] replaced = queryCounters();
+        assertEquals("Error: a write to the location didn't invalidate", 0,
+                replaced[0] - after[0]);
+        assertTrue(replaced[3] > after[3]);
+    }
+
+    // hits, misses, evictions, invalidations
+    private long[] queryCounters() {
+        Cursor cursor = mContext.getContentResolver().query(DiagnosticsEntry.CACHE_URI,
+                new String[]{DiagnosticsEntry.COLUMN_CACHE_HITS,
+                        DiagnosticsEntry.COLUMN_CACHE_MISSES,
+                        DiagnosticsEntry.COLUMN_CACHE_EVICTIONS,
+                        DiagnosticsEntry.COLUMN_CACHE_INVALIDATIONS},
+                null, null, null);
+        assertTrue(cursor.moveToFirst());
+        long[] counters = {cursor.getLong(0), cursor.getLong(1), cursor.getLong(2),
+                cursor.getLong(3)};
+        cursor.close();
+        return counters;
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private long insertLocation(ContentValues values) {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+        return ContentUris.parseId(locationUri);
+    }
+}
@@ -36,6 +36,24 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/diagnostics"
+    private static final Uri TEST_DIAGNOSTICS_DIR = WeatherContract.DiagnosticsEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/diagnostics/cache"
+    private static final Uri TEST_DIAGNOSTICS_CACHE = WeatherContract.DiagnosticsEntry.CACHE_URI;
+    // content://com.example.android.sunshine.app/weather_hourly"
+    private static final Uri TEST_HOURLY_DIR = WeatherContract.HourlyEntry.CONTENT_URI;
+    private static final Uri TEST_HOURLY_WITH_LOCATION_DIR = WeatherContract.HourlyEntry.buildHourlyLocation(LOCATION_QUERY);
+    private static final Uri TEST_HOURLY_WITH_LOCATION_AND_TIME_DIR = WeatherContract.HourlyEntry.buildHourlyLocationWithTime(LOCATION_QUERY, TEST_DATE);
+    // content://com.example.android.sunshine.app/archive"
+    private static final Uri TEST_ARCHIVE_DIR = WeatherContract.ArchiveEntry.CONTENT_URI;
+    private static final Uri TEST_ARCHIVE_WITH_LOCATION_DIR = WeatherContract.ArchiveEntry.buildArchiveLocationWithRange(LOCATION_QUERY, 0, TEST_DATE);
+    // content://com.example.android.sunshine.app/archive/compact?compact_at=1419033600&limit=4"
+    private static final Uri TEST_ARCHIVE_COMPACT = WeatherContract.ArchiveEntry.buildCompactionUri(TEST_DATE, 4);
+    // content://com.example.android.sunshine.app/weather/London%2C%20UK/stats?from=0&to=1419033600"
+    private static final Uri TEST_WEATHER_STATS = WeatherContract.StatsEntry.buildWeatherStats(LOCATION_QUERY, 0, TEST_DATE);
+    private static final Uri TEST_WEATHER_CONDITIONS_DIR = WeatherContract.StatsEntry.buildWeatherConditions(LOCATION_QUERY, 0, TEST_DATE);
+    private static final Uri TEST_ARCHIVE_STATS = WeatherContract.StatsEntry.buildArchiveStats(LOCATION_QUERY, 0, TEST_DATE);
+    private static final Uri TEST_ARCHIVE_CONDITIONS_DIR = WeatherContract.StatsEntry.buildArchiveConditions(LOCATION_QUERY, 0, TEST_DATE);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -53,5 +71,29 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The DIAGNOSTICS URI was matched incorrectly.",
+                testMatcher.match(TEST_DIAGNOSTICS_DIR), WeatherProvider.DIAGNOSTICS);
+        assertEquals("Error: The DIAGNOSTICS CACHE URI was matched incorrectly.",
+                testMatcher.match(TEST_DIAGNOSTICS_CACHE), WeatherProvider.DIAGNOSTICS_CACHE);
+        assertEquals("Error: The HOURLY URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_DIR), WeatherProvider.HOURLY);
+        assertEquals("Error: The HOURLY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_WITH_LOCATION_DIR), WeatherProvider.HOURLY_WITH_LOCATION);
+        assertEquals("Error: The HOURLY WITH LOCATION AND TIME URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_WITH_LOCATION_AND_TIME_DIR), WeatherProvider.HOURLY_WITH_LOCATION_AND_TIME);
+        assertEquals("Error: The ARCHIVE URI was matched incorrectly.",
+                testMatcher.match(TEST_ARCHIVE_DIR), WeatherProvider.ARCHIVE);
+        assertEquals("Error: The ARCHIVE WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_ARCHIVE_WITH_LOCATION_DIR), WeatherProvider.ARCHIVE_WITH_LOCATION);
+        assertEquals("Error: The ARCHIVE COMPACT URI was matched incorrectly.",
+                testMatcher.match(TEST_ARCHIVE_COMPACT), WeatherProvider.ARCHIVE_COMPACT);
+        assertEquals("Error: The WEATHER STATS URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_STATS), WeatherProvider.WEATHER_STATS);
+        assertEquals("Error: The WEATHER CONDITIONS URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_CONDITIONS_DIR), WeatherProvider.WEATHER_CONDITIONS);
+        assertEquals("Error: The ARCHIVE STATS URI was matched incorrectly.",
+                testMatcher.match(TEST_ARCHIVE_STATS), WeatherProvider.ARCHIVE_STATS);
+        assertEquals("Error: The ARCHIVE CONDITIONS URI was matched incorrectly.",
+                testMatcher.match(TEST_ARCHIVE_CONDITIONS_DIR), WeatherProvider.ARCHIVE_CONDITIONS);
     }
 }
@@ -111,6 +111,17 @@ public class TestUtilities extends AndroidTestCase {
         return locationRowId;
     }
 
+    /*
+        Clears every table through the provider: the hourly steps and the weather first, then the
+        archive the weather's past days were copied into, and the locations last.
+     */
+    public static void deleteAllRecords(Context context) {
+        context.getContentResolver().delete(WeatherContract.HourlyEntry.CONTENT_URI, null, null);
+        context.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        context.getContentResolver().delete(WeatherContract.ArchiveEntry.CONTENT_URI, null, null);
+        context.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
     /*
         Students: The functions we provide inside of TestProvider use this utility class to test
         the ContentObserver callbacks using the PollingCheck class that we grabbed from the Android
@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.SparseIntArray;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.TimeZone;
+
+/*
+    Checks the archive through the provider: days are archived as they are pruned, compaction
+    folds old days into weeks without losing what they averaged, drops what is past retention,
+    and does no more than a batch at a time.
+ */
+public class TestWeatherArchive extends AndroidTestCase {
+
+    private static final String[] STATS_COLUMNS = {
+            WeatherContract.StatsEntry.COLUMN_DAYS,
+            WeatherContract.StatsEntry.COLUMN_MIN_TEMP,
+            WeatherContract.StatsEntry.COLUMN_MAX_TEMP,
+            WeatherContract.StatsEntry.COLUMN_AVG_MIN_TEMP,
+            WeatherContract.StatsEntry.COLUMN_AVG_MAX_TEMP,
+            WeatherContract.StatsEntry.COLUMN_AVG_HUMIDITY,
+            WeatherContract.StatsEntry.COLUMN_AVG_PRESSURE
+    };
+
+    private TimeZone mTimeZone;
+    private long mNow;
+    private int mJulianToday;
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        mTimeZone = TimeZone.getDefault();
+        mNow = System.currentTimeMillis();
+        mJulianToday = WeatherContract.getJulianDay(mNow, mTimeZone);
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mLocationRowId = ContentUris.parseId(locationUri);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testPastDaysAreArchivedOnDelete() {
+        insertDay(1, 10);
+        insertDay(-1, 20);
+
+        // The sync's pruning: everything up to yesterday.
+        int deleted = mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(daysAgo(1))});
+        assertEquals(1, deleted);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                ArchiveEntry.buildArchiveLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertTrue("Error: yesterday wasn't archived", cursor.moveToFirst());
+        assertEquals(1, cursor.getCount());
+        assertEquals(daysAgo(1), cursor.getLong(cursor.getColumnIndex(ArchiveEntry.COLUMN_DATE)));
+        assertEquals(1, cursor.getInt(cursor.getColumnIndex(ArchiveEntry.COLUMN_DAYS)));
+        assertEquals(1, cursor.getInt(cursor.getColumnIndex(ArchiveEntry.COLUMN_SAMPLES)));
+        assertEquals(10.0, cursor.getDouble(cursor.getColumnIndex(ArchiveEntry.COLUMN_HUMIDITY)),
+                1e-9);
+        cursor.close();
+
+        // Deleting days still to come archives nothing.
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        assertEquals(1, countArchive(null));
+    }
+
+    public void testCompactionFoldsOldWeeks() {
+        // Three weeks of days, all past daily retention, then two recent ones.
+        double humidityTotal = 0;
+        for (int day = 60; day > 39; day--) {
+            insertDay(day, day);
+            humidityTotal += day;
+        }
+        insertDay(2, 2);
+        insertDay(1, 1);
+        humidityTotal += 3;
+        archiveAll();
+        assertEquals(23, countArchive(null));
+
+        int compacted = compact(100);
+        assertTrue("Error: nothing was compacted", compacted > 0);
+        assertEquals("Error: a second compaction found more to do", 0, compact(100));
+
+        long foldBefore = WeatherContract.getStartOfJulianDay(
+                WeatherArchive.getStartOfWeek(mJulianToday - ArchiveEntry.DAILY_RETENTION_DAYS),
+                mTimeZone);
+        assertEquals("Error: days past retention were left on their own", 0,
+                countArchive(ArchiveEntry.COLUMN_DAYS + " = 1 AND " +
+                        ArchiveEntry.COLUMN_DATE + " < " + foldBefore));
+        assertEquals("Error: recent days were folded", 2,
+                countArchive(ArchiveEntry.COLUMN_DATE + " >= " + daysAgo(2)));
+
+        // Folding keeps every day's share of the averages.
+        Cursor cursor = mContext.getContentResolver().query(ArchiveEntry.CONTENT_URI,
+                new String[]{ArchiveEntry.COLUMN_SAMPLES, ArchiveEntry.COLUMN_HUMIDITY},
+                null, null, null);
+        int samples = 0;
+        double humidity = 0;
+        while (cursor.moveToNext()) {
+            samples += cursor.getInt(0);
+            humidity += cursor.getInt(0) * cursor.getDouble(1);
+        }
+        cursor.close();
+        assertEquals(23, samples);
+        assertEquals(humidityTotal, humidity, 1e-6);
+    }
+
+    /*
+        The stats of the archive are the same before and after compaction, with temperatures and
+        conditions varying from day to day.  The conditions aren't: each folded week counts all
+        its days for the condition seen on most of them.
+     */
+    public void testStatsSurviveCompaction() {
+        // What folding the days below week by week leaves of their conditions.
+        SparseIntArray expectedConditions = new SparseIntArray();
+        for (int week = getWeekOfDaysAgo(60); week <= getWeekOfDaysAgo(40);
+             week += ArchiveEntry.WEEK_DAYS) {
+            SparseIntArray weekConditions = new SparseIntArray();
+            int weekDays = 0;
+            for (int day = 60; day > 39; day--) {
+                if (getWeekOfDaysAgo(day) == week) {
+                    int weatherId = getWeatherId(day);
+                    weekConditions.put(weatherId, weekConditions.get(weatherId) + 1);
+                    weekDays++;
+                }
+            }
+            // The most frequent, ties going to the lower id.
+            int weatherId = weekConditions.keyAt(0);
+            for (int i = 1; i < weekConditions.size(); i++) {
+                if (weekConditions.valueAt(i) > weekConditions.get(weatherId)) {
+                    weatherId = weekConditions.keyAt(i);
+                }
+            }
+            expectedConditions.put(weatherId, expectedConditions.get(weatherId) + weekDays);
+        }
+        // Lows and highs that cycle every 5 and 3 days differ from week to week.
+        for (int day = 60; day > 39; day--) {
+            insertDay(day, day, day % 5 - 3, 10 + day % 3 * 2.5, getWeatherId(day));
+        }
+        archiveAll();
+        Uri statsUri = WeatherContract.StatsEntry.buildArchiveStats(TestUtilities.TEST_LOCATION,
+                0, Long.MAX_VALUE);
+        double[] before = queryStats(statsUri);
+        SparseIntArray conditionsBefore = queryConditions();
+        assertEquals("Error: the days vary too little to test anything", 3,
+                conditionsBefore.size());
+
+        compact(100);
+        assertEquals("Error: the days weren't folded", 0,
+                countArchive(ArchiveEntry.COLUMN_DAYS + " = 1"));
+        double[] after = queryStats(statsUri);
+        for (int i = 0; i < STATS_COLUMNS.length; i++) {
+            assertEquals("Error: compaction changed " + STATS_COLUMNS[i], before[i], after[i],
+                    1e-6);
+        }
+
+        SparseIntArray conditionsAfter = queryConditions();
+        assertEquals(expectedConditions.size(), conditionsAfter.size());
+        for (int i = 0; i < expectedConditions.size(); i++) {
+            assertEquals("Error: wrong days of condition " + expectedConditions.keyAt(i),
+                    expectedConditions.valueAt(i),
+                    conditionsAfter.get(expectedConditions.keyAt(i)));
+        }
+    }
+
+    public void testCompactionIsBounded() {
+        for (int day = 70; day > 39; day--) {
+            insertDay(day, day);
+        }
+        archiveAll();
+
+        compact(1);
+        assertEquals("Error: a batch of one week folded more", 1,
+                countArchive(ArchiveEntry.COLUMN_DAYS + " = " + ArchiveEntry.WEEK_DAYS));
+
+        // 31 days span at most 6 weeks, one of which is already done.
+        int batches = 0;
+        while (compact(1) > 0) {
+            batches++;
+            assertTrue("Error: compaction doesn't finish", batches <= 5);
+        }
+    }
+
+    public void testRetention() {
+        for (int day = ArchiveEntry.RETENTION_DAYS + 5; day > ArchiveEntry.RETENTION_DAYS; day--) {
+            insertDay(day, day);
+        }
+        archiveAll();
+        assertEquals(5, countArchive(null));
+
+        Uri compactionUri = ArchiveEntry.buildCompactionUri(mNow, 1);
+        assertEquals(5, mContext.getContentResolver().delete(compactionUri, null, null));
+        assertEquals("Error: rows past retention were kept", 0, countArchive(null));
+        assertEquals("Error: expired rows were counted as folded", 0,
+                mContext.getContentResolver().update(compactionUri, null, null, null));
+    }
+
+    /*
+        Compaction picks its rows from the uri, so it refuses a selection, and a plain delete from
+        the archive only deletes.
+     */
+    public void testCompactionTakesNoSelection() {
+        for (int day = 60; day > 39; day--) {
+            insertDay(day, day);
+        }
+        archiveAll();
+
+        Uri compactionUri = ArchiveEntry.buildCompactionUri(mNow, 100);
+        try {
+            mContext.getContentResolver().delete(compactionUri,
+                    ArchiveEntry.COLUMN_DATE + " < ?", new String[]{Long.toString(daysAgo(50))});
+            fail("Error: compaction took a selection");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            mContext.getContentResolver().update(compactionUri, null,
+                    ArchiveEntry.COLUMN_DATE + " < ?", new String[]{Long.toString(daysAgo(50))});
+            fail("Error: compaction took a selection");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(21, countArchive(null));
+
+        int deleted = mContext.getContentResolver().delete(ArchiveEntry.CONTENT_URI,
+                ArchiveEntry.COLUMN_DATE + " < ?", new String[]{Long.toString(daysAgo(50))});
+        assertEquals(10, deleted);
+        assertEquals("Error: a plain delete folded days", 0,
+                countArchive(ArchiveEntry.COLUMN_DAYS + " = " + ArchiveEntry.WEEK_DAYS));
+    }
+
+    // STATS_COLUMNS, in that order
+    private double[] queryStats(Uri statsUri) {
+        Cursor cursor = mContext.getContentResolver().query(statsUri, STATS_COLUMNS,
+                null, null, null);
+        assertTrue(cursor.moveToFirst());
+        double[] stats = new double[STATS_COLUMNS.length];
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = cursor.getDouble(i);
+        }
+        cursor.close();
+        return stats;
+    }
+
+    // days of each condition over the whole archive
+    private SparseIntArray queryConditions() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.StatsEntry.buildArchiveConditions(TestUtilities.TEST_LOCATION,
+                        0, Long.MAX_VALUE),
+                new String[]{WeatherContract.StatsEntry.COLUMN_WEATHER_ID,
+                        WeatherContract.StatsEntry.COLUMN_DAYS},
+                null, null, null);
+        SparseIntArray conditions = new SparseIntArray();
+        while (cursor.moveToNext()) {
+            conditions.put(cursor.getInt(0), cursor.getInt(1));
+        }
+        cursor.close();
+        return conditions;
+    }
+
+    // Rain every third day, clouds every fourth, clear otherwise.
+    private static int getWeatherId(int daysAgo) {
+        return daysAgo % 3 == 0 ? 500 : daysAgo % 4 == 0 ? 803 : 800;
+    }
+
+    // The Julian day starting the week that daysAgo falls in.
+    private int getWeekOfDaysAgo(int daysAgo) {
+        return WeatherArchive.getStartOfWeek(mJulianToday - daysAgo);
+    }
+
+    private long daysAgo(int days) {
+        return WeatherContract.getStartOfJulianDay(mJulianToday - days, mTimeZone);
+    }
+
+    private void insertDay(int daysAgo, double humidity) {
+        ContentValues weatherValues = TestUtilities.createWeatherValues(mLocationRowId);
+        weatherValues.put(WeatherEntry.COLUMN_DATE, daysAgo(daysAgo));
+        weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, humidity);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+    }
+
+    private void insertDay(int daysAgo, double humidity, double low, double high,
+                           int weatherId) {
+        ContentValues weatherValues = TestUtilities.createWeatherValues(mLocationRowId);
+        weatherValues.put(WeatherEntry.COLUMN_DATE, daysAgo(daysAgo));
+        weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, humidity);
+        weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, low);
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, high);
+        weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+    }
+
+    private void archiveAll() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    // Runs one batch of compaction and returns how many rows it dropped and folded.
+    private int compact(int maxWeeks) {
+        Uri compactionUri = ArchiveEntry.buildCompactionUri(mNow, maxWeeks);
+        return mContext.getContentResolver().delete(compactionUri, null, null)
+                + mContext.getContentResolver().update(compactionUri, null, null, null);
+    }
+
+    private int countArchive(String selection) {
+        Cursor cursor = mContext.getContentResolver().query(ArchiveEntry.CONTENT_URI,
+                null, selection, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+}
@@ -17,6 +17,12 @@ package com.example.android.sunshine.app.data;
 
 import android.net.Uri;
 import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
 
 /*
     Students: This is NOT a complete test for the WeatherContract --- just for the functions
@@ -28,6 +34,28 @@ public class TestWeatherContract extends AndroidTestCase {
     private static final String TEST_WEATHER_LOCATION = "/North Pole";
     private static final long TEST_WEATHER_DATE = 1419033600L;  // December 20th, 2014
 
+    private static final long HOUR_IN_MILLIS = 1000L * 60 * 60;
+    private static final long DAY_IN_MILLIS = HOUR_IN_MILLIS * 24;
+    private static final long QUARTER_HOUR_IN_MILLIS = HOUR_IN_MILLIS / 4;
+
+    // Zones on both sides of UTC, with and without DST, and with odd offsets.  The zones that
+    // change their clocks at midnight itself are checked separately, against Calendar.
+    private static final String[] TEST_TIME_ZONES = {
+            "UTC", "America/Los_Angeles", "America/New_York", "America/St_Johns", "Europe/London",
+            "Europe/Berlin", "Asia/Kolkata", "Asia/Kathmandu", "Australia/Sydney",
+            "Pacific/Auckland"
+    };
+    private static final long TEST_RANGE_START = 631152000000L;  // January 1st, 1990
+    private static final long TEST_RANGE_END = 1893456000000L;   // January 1st, 2030
+    private static final int RANDOM_SAMPLES_PER_ZONE = 5000;
+
+    // Zones that moved their clocks at midnight for years of the test range: forward over it
+    // to start DST, in Sao Paulo and Tehran back over it to end it, and in Havana back to it, so
+    // that midnight came twice.
+    private static final String[] MIDNIGHT_TRANSITION_ZONES = {
+            "America/Sao_Paulo", "America/Havana", "Asia/Tehran"
+    };
+
     /*
         Students: Uncomment this out to test your weather location function.
      */
@@ -42,4 +70,93 @@ public class TestWeatherContract extends AndroidTestCase {
                 locationUri.toString(),
                 "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
     }
+
+    /*
+        Property test: the arithmetic normalizeDate must agree with the Time based version it
+        replaced, for random instants over a wide range and for every half hour around each DST
+        transition in that range.
+     */
+    public void testNormalizeDateMatchesTime() {
+        Random random = new Random(42);
+        for (String zoneId : TEST_TIME_ZONES) {
+            TimeZone timeZone = TimeZone.getTimeZone(zoneId);
+
+            for (int i = 0; i < RANDOM_SAMPLES_PER_ZONE; i++) {
+                long millis = TEST_RANGE_START +
+                        (long) (random.nextDouble() * (TEST_RANGE_END - TEST_RANGE_START));
+                assertNormalizeDateMatchesTime(zoneId, timeZone, millis);
+            }
+
+            for (long day = TEST_RANGE_START; day < TEST_RANGE_END; day += DAY_IN_MILLIS) {
+                if (timeZone.getOffset(day) == timeZone.getOffset(day + DAY_IN_MILLIS)) {
+                    continue;
+                }
+                for (long millis = day - DAY_IN_MILLIS; millis <= day + 2 * DAY_IN_MILLIS;
+                     millis += HOUR_IN_MILLIS / 2) {
+                    assertNormalizeDateMatchesTime(zoneId, timeZone, millis);
+                }
+            }
+        }
+    }
+
+    /*
+        Every day of the test range starts at the first instant whose local date is that day.
+        Where the clocks skipped midnight that is the instant they jumped, which is what
+        Calendar resolves a midnight that doesn't exist to; where midnight came twice it is the
+        first one, while Calendar picks the second.
+     */
+    public void testStartOfDayWhereMidnightIsSkipped() {
+        for (String zoneId : MIDNIGHT_TRANSITION_ZONES) {
+            TimeZone timeZone = TimeZone.getTimeZone(zoneId);
+            Calendar local = new GregorianCalendar(timeZone);
+            Calendar earlier = new GregorianCalendar(timeZone);
+            Calendar utc = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+            utc.setTimeInMillis(TEST_RANGE_START);
+
+            int skippedMidnights = 0;
+            while (utc.getTimeInMillis() < TEST_RANGE_END) {
+                int julianDay = WeatherContract.EPOCH_JULIAN_DAY +
+                        (int) (utc.getTimeInMillis() / DAY_IN_MILLIS);
+                local.clear();
+                local.set(utc.get(Calendar.YEAR), utc.get(Calendar.MONTH),
+                        utc.get(Calendar.DAY_OF_MONTH), 0, 0, 0);
+                long expected = local.getTimeInMillis();
+                if (local.get(Calendar.HOUR_OF_DAY) != 0) {
+                    skippedMidnights++;
+                }
+                // Walk back over a repeated hour; every transition is on a quarter hour.
+                for (long millis = expected - QUARTER_HOUR_IN_MILLIS; ;
+                     millis -= QUARTER_HOUR_IN_MILLIS) {
+                    earlier.setTimeInMillis(millis);
+                    if (earlier.get(Calendar.DAY_OF_MONTH) != utc.get(Calendar.DAY_OF_MONTH)) {
+                        break;
+                    }
+                    expected = millis;
+                }
+
+                assertEquals("Error: wrong start of day " + julianDay + " in " + zoneId,
+                        expected, WeatherContract.getStartOfJulianDay(julianDay, timeZone));
+                assertEquals("Error: the start of day " + julianDay + " in " + zoneId +
+                                " doesn't normalize to itself",
+                        expected, WeatherContract.normalizeDate(expected, timeZone));
+                assertEquals("Error: the instant before day " + julianDay + " in " + zoneId +
+                                " isn't on the day before",
+                        julianDay - 1, WeatherContract.getJulianDay(expected - 1, timeZone));
+
+                utc.add(Calendar.DAY_OF_MONTH, 1);
+            }
+            assertTrue("Error: no midnight was skipped in " + zoneId, skippedMidnights > 0);
+        }
+    }
+
+    private static void assertNormalizeDateMatchesTime(String zoneId, TimeZone timeZone,
+                                                       long millis) {
+        Time time = new Time(zoneId);
+        time.set(millis);
+        int julianDay = Time.getJulianDay(millis, time.gmtoff);
+        assertEquals("Error: Julian day differs in " + zoneId + " for " + millis,
+                julianDay, WeatherContract.getJulianDay(millis, timeZone));
+        assertEquals("Error: normalized date differs in " + zoneId + " for " + millis,
+                time.setJulianDay(julianDay), WeatherContract.normalizeDate(millis, timeZone));
+    }
 }
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.gcm;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.TestUtilities;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.sync.ForecastPublisher;
+import com.example.android.sunshine.app.sync.SyncDiagnostics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Replays streams of forecast deltas, as GCM might deliver them, against the provider and checks
+    that the database ends up holding exactly what a full sync of the last version would have
+    written.  Where a delta can't be applied the test does the full sync the listener would ask
+    for, using the forecast the server had at that version.
+ */
+public class TestForecastDelta extends AndroidTestCase {
+    private static final String TEST_LOCATION = "99705";
+    private static final long TEST_DATE = 1419033600000L;  // December 20th, 2014
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // The server's forecast at each version, indexed by version; 0 is unused.
+    private List<ContentValues[]> mServerForecasts;
+    // The delta bringing the server's forecast to each version, indexed the same way.
+    private List<Bundle> mDeltas;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+
+        mServerForecasts = new ArrayList<ContentValues[]>();
+        mDeltas = new ArrayList<Bundle>();
+        mServerForecasts.add(null);
+        mDeltas.add(null);
+
+        ContentValues[] forecast = new ContentValues[3];
+        for (int i = 0; i < forecast.length; i++) {
+            forecast[i] = createDay(TEST_DATE + i * DAY_IN_MILLIS);
+        }
+        mServerForecasts.add(forecast);
+        mDeltas.add(null);
+
+        ContentValues changes = new ContentValues();
+        changes.put(WeatherEntry.COLUMN_MAX_TEMP, 21.0);
+        addVersion(0, changes);
+
+        changes = new ContentValues();
+        changes.put(WeatherEntry.COLUMN_WEATHER_ID, 500);
+        changes.put(WeatherEntry.COLUMN_SHORT_DESC, "Rain");
+        addVersion(1, changes);
+
+        changes = new ContentValues();
+        changes.put(WeatherEntry.COLUMN_MIN_TEMP, 8.0);
+        changes.put(WeatherEntry.COLUMN_HUMIDITY, 90.0);
+        addVersion(0, changes);
+
+        changes = new ContentValues();
+        changes.put(WeatherEntry.COLUMN_MAX_TEMP, 25.0);
+        changes.put(WeatherEntry.COLUMN_MIN_TEMP, 15.0);
+        addVersion(2, changes);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testInOrderDeltasConverge() throws Exception {
+        fullSync(1);
+        assertReplay(new int[]{2, 3, 4, 5}, new int[]{
+                MyGcmListenerService.DELTA_APPLIED,
+                MyGcmListenerService.DELTA_APPLIED,
+                MyGcmListenerService.DELTA_APPLIED,
+                MyGcmListenerService.DELTA_APPLIED});
+        assertConverged(5);
+    }
+
+    public void testDuplicatesAndLateDeltasAreDropped() throws Exception {
+        fullSync(1);
+        assertReplay(new int[]{2, 2, 3, 2, 4, 3, 5, 5}, new int[]{
+                MyGcmListenerService.DELTA_APPLIED,
+                MyGcmListenerService.DELTA_STALE,
+                MyGcmListenerService.DELTA_APPLIED,
+                MyGcmListenerService.DELTA_STALE,
+                MyGcmListenerService.DELTA_APPLIED,
+                MyGcmListenerService.DELTA_STALE,
+                MyGcmListenerService.DELTA_APPLIED,
+                MyGcmListenerService.DELTA_STALE});
+        assertConverged(5);
+    }
+
+    public void testGapFallsBackToFullSync() throws Exception {
+        fullSync(1);
+        // 3 is delayed: 4 can't apply on top of 2, and 3 is stale once 4 has been synced.
+        assertReplay(new int[]{2, 4, 3, 5}, new int[]{
+                MyGcmListenerService.DELTA_APPLIED,
+                MyGcmListenerService.DELTA_GAP,
+                MyGcmListenerService.DELTA_STALE,
+                MyGcmListenerService.DELTA_APPLIED});
+        assertConverged(5);
+    }
+
+    public void testDeltaWithoutStoredForecastNeedsFullSync() throws Exception {
+        assertReplay(new int[]{3, 4, 5}, new int[]{
+                MyGcmListenerService.DELTA_GAP,
+                MyGcmListenerService.DELTA_APPLIED,
+                MyGcmListenerService.DELTA_APPLIED});
+        assertConverged(5);
+    }
+
+    /*
+        An applied delta is published from what is stored, so the snapshot, the widgets and
+        today's notification see the changed day just as they would after a sync.
+     */
+    public void testAppliedDeltaIsPublished() throws Exception {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        mServerForecasts.set(1, new ContentValues[]{
+                createDay(today), createDay(today + DAY_IN_MILLIS)});
+        fullSync(1);
+
+        // Version 2 raises the high of the first day.
+        Bundle delta = new Bundle(mDeltas.get(2));
+        delta.putString(WeatherPushMessage.EXTRA_DATE, Long.toString(today));
+        assertEquals(MyGcmListenerService.DELTA_APPLIED,
+                MyGcmListenerService.applyDelta(mContext, WeatherPushMessage.fromBundle(delta)));
+
+        final List<ContentValues[]> published = new ArrayList<ContentValues[]>();
+        new ForecastPublisher() {
+            @Override
+            public void publish(Context context, String locationSetting, double lat, double lon,
+                                ContentValues[] days, SyncDiagnostics.Recorder recorder) {
+                assertEquals(TEST_LOCATION, locationSetting);
+                assertEquals(64.7488, lat, 1e-9);
+                assertEquals(-147.353, lon, 1e-9);
+                published.add(days);
+            }
+        }.publishStored(mContext, TEST_LOCATION);
+
+        assertEquals("Error: the stored forecast wasn't published", 1, published.size());
+        ContentValues[] days = published.get(0);
+        assertEquals(2, days.length);
+        assertEquals(today, (long) days[0].getAsLong(WeatherEntry.COLUMN_DATE));
+        assertEquals("Error: the published forecast doesn't have the delta",
+                21.0, days[0].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP), 1e-9);
+        assertEquals(20.0, days[1].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP), 1e-9);
+    }
+
+    public void testParsesDelta() {
+        WeatherPushMessage push = WeatherPushMessage.fromBundle(mDeltas.get(3));
+        assertNotNull(push);
+        assertTrue(push.isDelta());
+        assertEquals(2, push.baseVersion);
+        assertEquals(3, push.version);
+        assertEquals(TEST_DATE + DAY_IN_MILLIS, push.date);
+        assertEquals(Integer.valueOf(500), push.changes.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID));
+        assertEquals("Rain", push.changes.getAsString(WeatherEntry.COLUMN_SHORT_DESC));
+
+        // A delta with a field that doesn't parse is dropped as a whole.
+        Bundle bad = new Bundle(mDeltas.get(2));
+        bad.putString(WeatherEntry.COLUMN_MAX_TEMP, "warm");
+        assertNull(WeatherPushMessage.fromBundle(bad));
+
+        // So is one that doesn't move the version forward.
+        bad = new Bundle(mDeltas.get(2));
+        bad.putString(WeatherPushMessage.EXTRA_BASE_VERSION, "2");
+        assertNull(WeatherPushMessage.fromBundle(bad));
+    }
+
+    /*
+        Delivers the deltas for versions in that order, doing a full sync of the delta's version
+        wherever one comes back as a gap, and checks each outcome.
+     */
+    private void assertReplay(int[] versions, int[] expectedOutcomes) throws Exception {
+        for (int i = 0; i < versions.length; i++) {
+            WeatherPushMessage push = WeatherPushMessage.fromBundle(mDeltas.get(versions[i]));
+            int outcome = MyGcmListenerService.applyDelta(mContext, push);
+            assertEquals("Error: wrong outcome for delivery " + i + " (version " + versions[i]
+                    + ")", expectedOutcomes[i], outcome);
+            if (MyGcmListenerService.DELTA_GAP == outcome) {
+                fullSync(versions[i]);
+            }
+        }
+    }
+
+    private void assertConverged(int version) {
+        assertEquals("Error: the stored forecast isn't at the last version",
+                version, MyGcmListenerService.getStoredVersion(mContext, TEST_LOCATION));
+
+        ContentValues[] expected = mServerForecasts.get(version);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TEST_LOCATION), null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        try {
+            assertEquals("Error: wrong number of days stored", expected.length, cursor.getCount());
+            for (int i = 0; i < expected.length; i++) {
+                assertTrue(cursor.moveToNext());
+                for (Map.Entry<String, Object> entry : expected[i].valueSet()) {
+                    String column = entry.getKey();
+                    Object value = WeatherEntry.COLUMN_DATE.equals(column)
+                            ? WeatherContract.normalizeDate((Long) entry.getValue())
+                            : entry.getValue();
+                    assertEquals("Error: day " + i + " differs from the full sync in " + column,
+                            value.toString(), cursor.getString(cursor.getColumnIndex(column)));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Writes the server's forecast at version the way the sync adapter commits one.
+    private void fullSync(int version) throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValue(LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION)
+                .withValue(LocationEntry.COLUMN_CITY_NAME, "North Pole")
+                .withValue(LocationEntry.COLUMN_COORD_LAT, 64.7488)
+                .withValue(LocationEntry.COLUMN_COORD_LONG, -147.353)
+                .withValue(LocationEntry.COLUMN_VERSION, version)
+                .build());
+        for (ContentValues day : mServerForecasts.get(version)) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(day)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+    }
+
+    // Adds the next version of the server's forecast, changing one day of the previous one.
+    private void addVersion(int day, ContentValues changes) {
+        int baseVersion = mServerForecasts.size() - 1;
+        ContentValues[] base = mServerForecasts.get(baseVersion);
+        ContentValues[] forecast = new ContentValues[base.length];
+        for (int i = 0; i < base.length; i++) {
+            forecast[i] = new ContentValues(base[i]);
+        }
+        forecast[day].putAll(changes);
+        mServerForecasts.add(forecast);
+
+        Bundle delta = new Bundle();
+        delta.putString(WeatherPushMessage.EXTRA_LOCATION_SETTING, TEST_LOCATION);
+        delta.putString(WeatherPushMessage.EXTRA_VERSION, Integer.toString(baseVersion + 1));
+        delta.putString(WeatherPushMessage.EXTRA_BASE_VERSION, Integer.toString(baseVersion));
+        delta.putString(WeatherPushMessage.EXTRA_DATE,
+                forecast[day].getAsLong(WeatherEntry.COLUMN_DATE).toString());
+        for (Map.Entry<String, Object> entry : changes.valueSet()) {
+            delta.putString(entry.getKey(), entry.getValue().toString());
+        }
+        mDeltas.add(delta);
+    }
+
+    private static ContentValues createDay(long date) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_DATE, date);
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 20.0);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, 10.0);
+        values.put(WeatherEntry.COLUMN_HUMIDITY, 50.0);
+        values.put(WeatherEntry.COLUMN_PRESSURE, 1013.0);
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        values.put(WeatherEntry.COLUMN_DEGREES, 180.0);
+        return values;
+    }
+}
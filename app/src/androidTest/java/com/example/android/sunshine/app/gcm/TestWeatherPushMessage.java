@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.gcm;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/*
+    Feeds GCM data bundles, as the listener receives them, through the push message handling.
+ */
+public class TestWeatherPushMessage extends AndroidTestCase {
+    private static final String TEST_LOCATION = "99705";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteLocations();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteLocations();
+        super.tearDown();
+    }
+
+    private void deleteLocations() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    public void testParsesChangeAnnouncement() {
+        WeatherPushMessage push = WeatherPushMessage.fromBundle(bundle(TEST_LOCATION, "42"));
+        assertNotNull("Error: a change announcement wasn't recognized", push);
+        assertEquals(TEST_LOCATION, push.locationSetting);
+        assertEquals(42, push.version);
+    }
+
+    public void testIgnoresOtherMessages() {
+        // The alert messages the server already sends carry neither field.
+        Bundle alert = new Bundle();
+        alert.putString("data", "{\"weather\":\"hurricane\",\"location\":\"Miami\"}");
+        assertNull(WeatherPushMessage.fromBundle(alert));
+
+        assertNull(WeatherPushMessage.fromBundle(bundle(TEST_LOCATION, null)));
+        assertNull(WeatherPushMessage.fromBundle(bundle(TEST_LOCATION, "not a number")));
+        assertNull(WeatherPushMessage.fromBundle(bundle(TEST_LOCATION, "0")));
+        assertNull(WeatherPushMessage.fromBundle(bundle("", "42")));
+    }
+
+    public void testDuplicatesAndReorderingAreDropped() {
+        assertEquals("Error: a location with no pushes yet should be at version 0",
+                0, MyGcmListenerService.getStoredVersion(mContext, TEST_LOCATION));
+
+        ContentValues location = new ContentValues();
+        location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION);
+        location.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -147.353);
+        location.put(WeatherContract.LocationEntry.COLUMN_VERSION, 5);
+        mContext.getContentResolver().insert(WeatherContract.LocationEntry.CONTENT_URI, location);
+        long stored = MyGcmListenerService.getStoredVersion(mContext, TEST_LOCATION);
+        assertEquals(5, stored);
+
+        // Replayed in the order GCM might deliver them.
+        String[] versions = {"4", "5", "6", "6", "3"};
+        boolean[] newer = {false, false, true, false, false};
+        for (int i = 0; i < versions.length; i++) {
+            WeatherPushMessage push = WeatherPushMessage.fromBundle(
+                    bundle(TEST_LOCATION, versions[i]));
+            assertEquals("Error: wrong decision for version " + versions[i],
+                    newer[i], push.isNewerThan(stored));
+            if (push.isNewerThan(stored)) {
+                stored = push.version;
+            }
+        }
+    }
+
+    private static Bundle bundle(String locationSetting, String version) {
+        Bundle data = new Bundle();
+        data.putString(WeatherPushMessage.EXTRA_LOCATION_SETTING, locationSetting);
+        if (null != version) {
+            data.putString(WeatherPushMessage.EXTRA_VERSION, version);
+        }
+        return data;
+    }
+}
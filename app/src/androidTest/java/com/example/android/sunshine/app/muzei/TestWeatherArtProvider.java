@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.muzei;
+
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/*
+    Checks that Muzei can read the downloaded art through the provider, and nothing else.
+ */
+public class TestWeatherArtProvider extends AndroidTestCase {
+    private static final String TEST_FILE = "test_art.jpg";
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        File artDirectory = WeatherArtProvider.getArtDirectory(mContext);
+        artDirectory.mkdirs();
+        mFile = new File(artDirectory, TEST_FILE);
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testOpensArt() throws IOException {
+        ParcelFileDescriptor pfd = mContext.getContentResolver().openFileDescriptor(
+                WeatherArtProvider.buildArtUri(TEST_FILE), "r");
+        assertNotNull(pfd);
+        assertEquals(3, pfd.getStatSize());
+        pfd.close();
+    }
+
+    public void testRefusesOutsideArtDirectory() {
+        assertNotOpened(Uri.parse("content://" + WeatherArtProvider.AUTHORITY + "/.."));
+        assertNotOpened(Uri.parse("content://" + WeatherArtProvider.AUTHORITY + "/."));
+        assertNotOpened(Uri.parse("content://" + WeatherArtProvider.AUTHORITY + "/..%2F.."));
+        assertNotOpened(Uri.parse("content://" + WeatherArtProvider.AUTHORITY + "/"));
+        assertNotOpened(WeatherArtProvider.buildArtUri("missing.jpg"));
+    }
+
+    public void testRefusesWrites() throws FileNotFoundException {
+        try {
+            mContext.getContentResolver().openFileDescriptor(
+                    WeatherArtProvider.buildArtUri(TEST_FILE), "w");
+            fail("Error: weather art was opened for writing");
+        } catch (SecurityException expected) {
+        }
+    }
+
+    private void assertNotOpened(Uri uri) {
+        try {
+            ParcelFileDescriptor pfd = mContext.getContentResolver().openFileDescriptor(uri, "r");
+            if (null != pfd) {
+                pfd.close();
+            }
+            fail("Error: opened " + uri);
+        } catch (FileNotFoundException expected) {
+        } catch (IOException e) {
+            fail("Error: opened " + uri);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    A minimal HTTP server on the loopback interface that answers OpenWeatherMap daily and 3-hour
+    forecast requests from fixtures, so OwmForecastSource can be exercised, and timed, with a real connection but
+    no network.  Unknown locations get OpenWeatherMap's "city not found" answer.
+ */
+class LoopbackForecastServer implements Runnable {
+    private static final String LOG_TAG = LoopbackForecastServer.class.getSimpleName();
+
+    private static final String BASE_PATH = "/data/2.5/";
+    private static final String DAILY_PATH = BASE_PATH + "forecast/daily";
+    private static final String HOURLY_PATH = BASE_PATH + "forecast";
+    private static final String NOT_FOUND_JSON = "{\"cod\":\"404\",\"message\":\"city not found\"}";
+
+    private final Map<String, String> mFixtures = new ConcurrentHashMap<String, String>();
+    private final Map<String, String> mHourlyFixtures = new ConcurrentHashMap<String, String>();
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final ServerSocket mServerSocket;
+    private final Thread mThread;
+
+    LoopbackForecastServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mThread = new Thread(this, LOG_TAG);
+        mThread.start();
+    }
+
+    // Without hours, the 3-hour forecast of the location is not found.
+    LoopbackForecastServer put(String locationSetting, String json) {
+        return put(locationSetting, json, null);
+    }
+
+    LoopbackForecastServer put(String locationSetting, String dailyJson, String hourlyJson) {
+        mFixtures.put(locationSetting, dailyJson);
+        if (null == hourlyJson) {
+            mHourlyFixtures.remove(locationSetting);
+        } else {
+            mHourlyFixtures.put(locationSetting, hourlyJson);
+        }
+        return this;
+    }
+
+    // The base url to give OwmForecastSource.
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + BASE_PATH;
+    }
+
+    int getRequestCount() {
+        return mRequests.get();
+    }
+
+    void shutdown() throws InterruptedException {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing the server socket", e);
+        }
+        mThread.join();
+    }
+
+    @Override
+    public void run() {
+        while (!mServerSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                // Closed by shutdown.
+                return;
+            }
+            try {
+                serve(socket);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error answering a request", e);
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing a connection", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        BufferedReader reader =
+                new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+        // "GET /data/2.5/forecast/daily?q=94043&... HTTP/1.1", then headers up to a blank line.
+        String requestLine = reader.readLine();
+        String header;
+        do {
+            header = reader.readLine();
+        } while (null != header && header.length() > 0);
+        if (null == requestLine) {
+            return;
+        }
+        mRequests.incrementAndGet();
+
+        String[] parts = requestLine.split(" ");
+        Uri uri = parts.length > 1 ? Uri.parse("http://127.0.0.1" + parts[1]) : null;
+        String location = null == uri ? null : uri.getQueryParameter("q");
+        Map<String, String> fixtures = null;
+        if (null != uri && DAILY_PATH.equals(uri.getPath())) {
+            fixtures = mFixtures;
+        } else if (null != uri && HOURLY_PATH.equals(uri.getPath())) {
+            fixtures = mHourlyFixtures;
+        }
+        String json = null == location || null == fixtures ? null : fixtures.get(location);
+        byte[] body = (null == json ? NOT_FOUND_JSON : json).getBytes("UTF-8");
+
+        OutputStream out = socket.getOutputStream();
+        out.write(("HTTP/1.1 200 OK\r\n"
+                + "Content-Type: application/json; charset=utf-8\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "Connection: close\r\n"
+                + "\r\n").getBytes("UTF-8"));
+        out.write(body);
+        out.flush();
+    }
+}
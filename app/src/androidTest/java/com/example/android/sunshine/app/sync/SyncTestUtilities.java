@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SunshineSettings;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+    Helpers for tests that run the real sync adapter, so that they leave nothing behind: no
+    notification, widget, Muzei or watch update, and no change to the sync schedule or backoff.
+ */
+class SyncTestUtilities {
+
+    // The preferences onPerformSync writes.
+    private static final int[] SYNC_PREF_KEYS = {
+            R.string.pref_sync_interval,
+            R.string.pref_scheduled_sync_interval,
+            R.string.pref_retry_failures,
+            R.string.pref_retry_next_attempt,
+            R.string.pref_location_status_key
+    };
+
+    /*
+        A publisher that tells nobody about a committed forecast.
+     */
+    static class SilentPublisher extends ForecastPublisher {
+        @Override
+        public void publish(Context context, String locationSetting, double lat, double lon,
+                            ContentValues[] days, SyncDiagnostics.Recorder recorder) {
+        }
+    }
+
+    /*
+        Returns the preferences a sync writes, as they are now, for restoreSyncPrefs.
+     */
+    static Map<String, Object> saveSyncPrefs(Context context) {
+        Map<String, ?> all = PreferenceManager.getDefaultSharedPreferences(context).getAll();
+        Map<String, Object> saved = new HashMap<String, Object>();
+        for (int key : SYNC_PREF_KEYS) {
+            String name = context.getString(key);
+            if (all.containsKey(name)) {
+                saved.put(name, all.get(name));
+            }
+        }
+        return saved;
+    }
+
+    /*
+        Puts back the preferences saveSyncPrefs returned, and the periodic sync if a sync has
+        rescheduled it since.
+     */
+    static void restoreSyncPrefs(Context context, Map<String, Object> saved) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String scheduledKey = context.getString(R.string.pref_scheduled_sync_interval);
+        long scheduled = prefs.getLong(scheduledKey, SunshineSyncAdapter.SYNC_INTERVAL);
+
+        SharedPreferences.Editor editor = prefs.edit();
+        for (int key : SYNC_PREF_KEYS) {
+            String name = context.getString(key);
+            Object value = saved.get(name);
+            if (value instanceof Integer) {
+                editor.putInt(name, (Integer) value);
+            } else if (value instanceof Long) {
+                editor.putLong(name, (Long) value);
+            } else {
+                editor.remove(name);
+            }
+        }
+        editor.commit();
+        SunshineSettings.refresh(context);
+
+        long savedScheduled = prefs.getLong(scheduledKey, SunshineSyncAdapter.SYNC_INTERVAL);
+        if (savedScheduled != scheduled) {
+            SunshineSyncAdapter.configurePeriodicSync(context, (int) savedScheduled,
+                    (int) SyncScheduler.getFlexTime(savedScheduled));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.TimeZone;
+
+/*
+    Checks the forecast sources against each other: a fixture served from memory and the same
+    fixture fetched over HTTP from a loopback server must parse to the same forecast.
+ */
+public class TestForecastSource extends AndroidTestCase {
+    private static final String TEST_LOCATION = "94043";
+    private static final int TEST_DAYS = 14;
+    private static final int TEST_STEPS = 40;
+
+    private String mJson;
+    private String mHourlyJson;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mJson = FixtureForecastSource.generateJson("Mountain View", 37.3861, -122.0839,
+                TEST_DAYS, new Random(42));
+        mHourlyJson = FixtureForecastSource.generateHourlyJson(System.currentTimeMillis(),
+                TEST_STEPS, new Random(42));
+    }
+
+    public void testParsesGeneratedForecast() throws Exception {
+        TimeZone timeZone = TimeZone.getDefault();
+        long now = System.currentTimeMillis();
+        ForecastSource.Forecast forecast = OwmForecastParser.parse(mJson, now, timeZone);
+        assertNotNull(forecast);
+        assertEquals("Mountain View", forecast.cityName);
+        assertEquals(37.3861, forecast.lat, 1e-9);
+        assertEquals(-122.0839, forecast.lon, 1e-9);
+        assertEquals(TEST_DAYS, forecast.days.length);
+
+        // Days start today and follow each other.
+        int today = WeatherContract.getJulianDay(now, timeZone);
+        for (int i = 0; i < TEST_DAYS; i++) {
+            ContentValues day = forecast.days[i];
+            assertEquals(WeatherContract.getStartOfJulianDay(today + i, timeZone),
+                    (long) day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+            assertTrue(day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP)
+                    >= day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
+        }
+    }
+
+    public void testParsesGeneratedHourlyForecast() throws Exception {
+        ContentValues[] steps = OwmForecastParser.parseHourly(mHourlyJson);
+        assertEquals(TEST_STEPS, steps.length);
+        for (int i = 1; i < TEST_STEPS; i++) {
+            assertEquals("Error: steps should be 3 hours apart", 3 * 60 * 60 * 1000,
+                    steps[i].getAsLong(WeatherContract.HourlyEntry.COLUMN_TIME)
+                            - steps[i - 1].getAsLong(WeatherContract.HourlyEntry.COLUMN_TIME));
+        }
+        assertEquals("Error: an unknown city should parse to no steps",
+                0, OwmForecastParser.parseHourly("{\"cod\":\"404\"}").length);
+    }
+
+    public void testGeneratedForecastsRepeatForASeed() {
+        assertEquals(mJson, FixtureForecastSource.generateJson("Mountain View", 37.3861,
+                -122.0839, TEST_DAYS, new Random(42)));
+    }
+
+    public void testServerErrors() throws Exception {
+        TimeZone timeZone = TimeZone.getDefault();
+        long now = System.currentTimeMillis();
+        assertNull("Error: an unknown city should parse to no forecast",
+                OwmForecastParser.parse("{\"cod\":\"404\"}", now, timeZone));
+        try {
+            OwmForecastParser.parse("{\"cod\":\"500\"}", now, timeZone);
+            fail("Error: a server error should be reported as an IOException");
+        } catch (IOException expected) {
+        }
+        try {
+            OwmForecastParser.parse("<html>Bad gateway</html>", now, timeZone);
+            fail("Error: a response that isn't JSON should be reported as a JSONException");
+        } catch (JSONException expected) {
+        }
+    }
+
+    public void testFixtureSource() throws Exception {
+        FixtureForecastSource source =
+                new FixtureForecastSource().put(TEST_LOCATION, mJson, mHourlyJson);
+        ForecastSource.Forecast forecast =
+                source.fetch(TEST_LOCATION, SyncDiagnostics.start(TEST_LOCATION));
+        assertEquals(TEST_DAYS, forecast.days.length);
+        assertEquals(TEST_STEPS, forecast.hours.length);
+        assertNull(source.fetch("00000", SyncDiagnostics.start("00000")));
+    }
+
+    public void testLoopbackMatchesFixture() throws Exception {
+        LoopbackForecastServer server =
+                new LoopbackForecastServer().put(TEST_LOCATION, mJson, mHourlyJson);
+        try {
+            ForecastSource loopback = new OwmForecastSource(server.getBaseUrl(), "test");
+            ForecastSource fixture =
+                    new FixtureForecastSource().put(TEST_LOCATION, mJson, mHourlyJson);
+
+            ForecastSource.Forecast overHttp =
+                    loopback.fetch(TEST_LOCATION, SyncDiagnostics.start(TEST_LOCATION));
+            ForecastSource.Forecast fromMemory =
+                    fixture.fetch(TEST_LOCATION, SyncDiagnostics.start(TEST_LOCATION));
+            assertEquals(fromMemory.cityName, overHttp.cityName);
+            assertEquals(fromMemory.days.length, overHttp.days.length);
+            for (int i = 0; i < fromMemory.days.length; i++) {
+                assertEquals("Error: day " + i + " differs over HTTP",
+                        fromMemory.days[i], overHttp.days[i]);
+            }
+            assertEquals(fromMemory.hours.length, overHttp.hours.length);
+            for (int i = 0; i < fromMemory.hours.length; i++) {
+                assertEquals("Error: step " + i + " differs over HTTP",
+                        fromMemory.hours[i], overHttp.hours[i]);
+            }
+
+            // The daily and the 3-hour forecast.  For an unknown city the 3-hour request may
+            // or may not be out by the time the daily answer is in, so it isn't counted.
+            assertEquals(2, server.getRequestCount());
+            assertNull(loopback.fetch("00000", SyncDiagnostics.start("00000")));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /*
+        A 3-hour forecast that can't be had doesn't cost the daily one: it comes back without
+        hours.
+     */
+    public void testHourlyFailureKeepsDailyForecast() throws Exception {
+        String[] badHourlyJson = {"{\"cod\":\"500\"}", "<html>Bad gateway</html>"};
+        for (String hourlyJson : badHourlyJson) {
+            LoopbackForecastServer server =
+                    new LoopbackForecastServer().put(TEST_LOCATION, mJson, hourlyJson);
+            try {
+                ForecastSource.Forecast forecast =
+                        new OwmForecastSource(server.getBaseUrl(), "test")
+                                .fetch(TEST_LOCATION, SyncDiagnostics.start(TEST_LOCATION));
+                assertNotNull("Error: the daily forecast was lost to " + hourlyJson, forecast);
+                assertEquals(TEST_DAYS, forecast.days.length);
+                assertEquals(0, forecast.hours.length);
+            } finally {
+                server.shutdown();
+            }
+        }
+    }
+}
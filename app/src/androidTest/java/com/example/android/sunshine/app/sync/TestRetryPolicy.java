@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.Random;
+
+/*
+    Drives RetryPolicy through server outages on a fake clock.
+ */
+public class TestRetryPolicy extends AndroidTestCase {
+
+    private static class FakeClock implements RetryPolicy.Clock {
+        long mNow = 1419033600000L;
+
+        @Override
+        public long currentTimeMillis() {
+            return mNow;
+        }
+    }
+
+    private FakeClock mClock;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mClock = new FakeClock();
+    }
+
+    public void testStartsClosed() {
+        RetryPolicy policy = new RetryPolicy(mClock, new Random(0), 0, 0);
+        assertTrue(policy.allowRequest());
+        assertEquals(RetryPolicy.STATE_CLOSED, policy.getState());
+    }
+
+    public void testBackoffDoublesWithJitter() {
+        RetryPolicy policy = new RetryPolicy(mClock, new Random(0), 0, 0);
+        for (int failures = 1; failures < RetryPolicy.FAILURE_THRESHOLD; failures++) {
+            long backoff = RetryPolicy.backoff(failures);
+            assertEquals(RetryPolicy.BASE_BACKOFF_MILLIS << (failures - 1), backoff);
+
+            long delay = policy.onFailure();
+            assertTrue("Error: delay " + delay + " outside the jitter range of " + backoff,
+                    delay >= backoff / 2 && delay <= backoff);
+            assertEquals(RetryPolicy.STATE_CLOSED, policy.getState());
+
+            // Not a moment before the delay is up.
+            mClock.mNow += delay - 1;
+            assertFalse(policy.allowRequest());
+            mClock.mNow += 1;
+            assertTrue(policy.allowRequest());
+        }
+    }
+
+    public void testBackoffIsCapped() {
+        assertEquals(RetryPolicy.MAX_BACKOFF_MILLIS, RetryPolicy.backoff(30));
+        assertEquals(RetryPolicy.MAX_BACKOFF_MILLIS, RetryPolicy.backoff(Integer.MAX_VALUE));
+    }
+
+    public void testJitterSpreadsDevices() {
+        // Devices that failed at the same moment shouldn't all retry at the same moment.
+        long first = new RetryPolicy(mClock, new Random(1), 2, 0).onFailure();
+        boolean spread = false;
+        for (int seed = 2; seed < 10 && !spread; seed++) {
+            spread = new RetryPolicy(mClock, new Random(seed), 2, 0).onFailure() != first;
+        }
+        assertTrue(spread);
+    }
+
+    public void testCircuitOpensThenHalfOpens() {
+        RetryPolicy policy = failRepeatedly(RetryPolicy.FAILURE_THRESHOLD);
+        assertEquals(RetryPolicy.STATE_OPEN, policy.getState());
+        assertFalse(policy.allowRequest());
+
+        mClock.mNow += RetryPolicy.OPEN_MILLIS - 1;
+        assertFalse(policy.allowRequest());
+        mClock.mNow += 1;
+        assertEquals(RetryPolicy.STATE_HALF_OPEN, policy.getState());
+        assertTrue(policy.allowRequest());
+
+        // The trial fails: open for another full period.
+        assertEquals(RetryPolicy.OPEN_MILLIS, policy.onFailure());
+        assertEquals(RetryPolicy.STATE_OPEN, policy.getState());
+
+        // The next trial succeeds.
+        mClock.mNow += RetryPolicy.OPEN_MILLIS;
+        policy.onSuccess();
+        assertEquals(RetryPolicy.STATE_CLOSED, policy.getState());
+        assertEquals(0, policy.getFailures());
+        assertTrue(policy.allowRequest());
+    }
+
+    public void testSuccessResetsBackoff() {
+        RetryPolicy policy = failRepeatedly(RetryPolicy.FAILURE_THRESHOLD - 1);
+        policy.onSuccess();
+        long delay = policy.onFailure();
+        assertTrue(delay <= RetryPolicy.BASE_BACKOFF_MILLIS);
+    }
+
+    public void testStateSurvivesRestore() {
+        RetryPolicy policy = failRepeatedly(RetryPolicy.FAILURE_THRESHOLD);
+        RetryPolicy restored = new RetryPolicy(mClock, new Random(0),
+                policy.getFailures(), policy.getNextAttemptMillis());
+        assertEquals(RetryPolicy.STATE_OPEN, restored.getState());
+        assertEquals(policy.getNextAttemptMillis(), restored.getNextAttemptMillis());
+    }
+
+    public void testOutageCallCount() {
+        // A day-long outage with a sync attempted every minute: the breaker should keep the
+        // server from seeing more than a few dozen of them.
+        RetryPolicy policy = new RetryPolicy(mClock, new Random(0), 0, 0);
+        long end = mClock.mNow + 24 * 60 * 60 * 1000L;
+        int calls = 0;
+        for (; mClock.mNow < end; mClock.mNow += 60 * 1000) {
+            if (policy.allowRequest()) {
+                calls++;
+                policy.onFailure();
+            }
+        }
+        assertTrue("Error: " + calls + " calls during the outage", calls < 30);
+    }
+
+    private RetryPolicy failRepeatedly(int failures) {
+        RetryPolicy policy = new RetryPolicy(mClock, new Random(0), 0, 0);
+        for (int i = 0; i < failures; i++) {
+            mClock.mNow = Math.max(mClock.mNow, policy.getNextAttemptMillis());
+            policy.onFailure();
+        }
+        return policy;
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.TestUtilities;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+
+/*
+    Runs the sync adapter against fixtures to check when it skips a location that was synced
+    recently: only after a sync that wrote a forecast, and never when the sync is forced.  Also
+    checks that a skipped sync, fresh or backing off, leaves the location status set.
+ */
+public class TestSyncFreshness extends AndroidTestCase {
+    private static final int TEST_DAYS = 14;
+
+    private String mLocation;
+    private String mForecast;
+    private Map<String, Object> mSavedPrefs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLocation = Utility.getPreferredLocation(mContext);
+        mSavedPrefs = SyncTestUtilities.saveSyncPrefs(mContext);
+        TestUtilities.deleteAllRecords(mContext);
+        clearBackoff();
+        mForecast = FixtureForecastSource.generateJson("Mountain View", 37.3861, -122.0839,
+                TEST_DAYS, new Random(42));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        SyncTestUtilities.restoreSyncPrefs(mContext, mSavedPrefs);
+        super.tearDown();
+    }
+
+    public void testResyncWithinWindowIsSkipped() {
+        CountingSource source = new CountingSource(
+                new FixtureForecastSource().put(mLocation, mForecast));
+        assertEquals(TEST_DAYS, sync(source, false).stats.numInserts);
+
+        SyncResult syncResult = sync(source, false);
+        assertEquals("Error: a fresh forecast was fetched again", 1, source.mFetches);
+        assertEquals(0, syncResult.stats.numInserts);
+    }
+
+    /*
+        Switching back to a location synced moments ago resets its status and asks for an
+        unforced sync; the skipped sync still has to say the location is fine.
+     */
+    public void testSkippedSyncSetsLocationStatus() {
+        CountingSource source = new CountingSource(
+                new FixtureForecastSource().put(mLocation, mForecast));
+        sync(source, false);
+        Utility.resetLocationStatus(mContext);
+
+        sync(source, false);
+        assertEquals(1, source.mFetches);
+        assertEquals("Error: a skipped sync left the location unvalidated",
+                SunshineSyncAdapter.LOCATION_STATUS_OK, Utility.getLocationStatus(mContext));
+    }
+
+    public void testForceBypassesFreshness() {
+        CountingSource source = new CountingSource(
+                new FixtureForecastSource().put(mLocation, mForecast));
+        sync(source, false);
+
+        SyncResult syncResult = sync(source, true);
+        assertEquals("Error: a forced sync wasn't fetched", 2, source.mFetches);
+        assertEquals(TEST_DAYS, syncResult.stats.numInserts);
+    }
+
+    /*
+        The last sync time is part of the batch that writes the forecast: it is there once the
+        forecast is, and a batch that fails leaves neither behind.
+     */
+    public void testLastSyncIsCommittedWithForecast() {
+        final FixtureForecastSource fixtures =
+                new FixtureForecastSource().put(mLocation, mForecast);
+        ForecastSource broken = new ForecastSource() {
+            @Override
+            public Forecast fetch(String locationSetting, SyncDiagnostics.Recorder recorder)
+                    throws IOException, JSONException {
+                Forecast forecast = fixtures.fetch(locationSetting, recorder);
+                // A day the database won't take fails the whole batch.
+                forecast.days[TEST_DAYS / 2].remove(
+                        WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+                return forecast;
+            }
+        };
+        assertTrue(sync(broken, false).databaseError);
+        assertEquals("Error: a failed batch left the last sync time behind", -1, getLastSync());
+        assertEquals(0, countDays());
+
+        long before = System.currentTimeMillis();
+        CountingSource source = new CountingSource(fixtures);
+        sync(source, false);
+        long after = System.currentTimeMillis();
+        assertEquals("Error: a failed batch counted as fresh", 1, source.mFetches);
+        long lastSync = getLastSync();
+        assertTrue("Error: wrong last sync time " + lastSync,
+                lastSync >= before && lastSync <= after);
+        assertEquals(TEST_DAYS, countDays());
+    }
+
+    public void testFailedSyncIsNotFresh() {
+        ForecastSource down = new ForecastSource() {
+            @Override
+            public Forecast fetch(String locationSetting, SyncDiagnostics.Recorder recorder)
+                    throws IOException {
+                throw new IOException("Server down");
+            }
+        };
+        assertEquals(1, sync(down, false).stats.numIoExceptions);
+        // The failure starts a backoff, which isn't what is tested here.
+        clearBackoff();
+
+        CountingSource source = new CountingSource(
+                new FixtureForecastSource().put(mLocation, mForecast));
+        SyncResult syncResult = sync(source, false);
+        assertEquals("Error: a failed sync counted as fresh", 1, source.mFetches);
+        assertEquals(TEST_DAYS, syncResult.stats.numInserts);
+    }
+
+    /*
+        A location typed in while the server is being backed off from isn't fetched, and the
+        status says why rather than staying unknown.
+     */
+    public void testBackoffSkipSetsLocationStatus() {
+        ForecastSource down = new ForecastSource() {
+            @Override
+            public Forecast fetch(String locationSetting, SyncDiagnostics.Recorder recorder)
+                    throws IOException {
+                throw new IOException("Server down");
+            }
+        };
+        sync(down, false);
+        Utility.resetLocationStatus(mContext);
+
+        CountingSource source = new CountingSource(
+                new FixtureForecastSource().put(mLocation, mForecast));
+        SyncResult syncResult = sync(source, false);
+        assertEquals("Error: the server was called during the backoff", 0, source.mFetches);
+        assertTrue(syncResult.delayUntil > 0);
+        assertEquals("Error: a skipped sync left the location unvalidated",
+                SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                Utility.getLocationStatus(mContext));
+    }
+
+    private SyncResult sync(ForecastSource source, boolean force) {
+        SunshineSyncAdapter adapter = new SunshineSyncAdapter(mContext, false, source,
+                new SyncTestUtilities.SilentPublisher());
+        Bundle extras = new Bundle();
+        if (force) {
+            extras.putBoolean(SunshineSyncAdapter.EXTRA_FORCE, true);
+        }
+        SyncResult syncResult = new SyncResult();
+        adapter.onPerformSync(new Account("test", "test"), extras,
+                WeatherContract.CONTENT_AUTHORITY, null, syncResult);
+        return syncResult;
+    }
+
+    // The last sync time stored for the location, or -1 if it has no row.
+    private long getLastSync() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LAST_SYNC},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{mLocation}, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countDays() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(mLocation), null, null, null,
+                null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void clearBackoff() {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .remove(mContext.getString(R.string.pref_retry_failures))
+                .remove(mContext.getString(R.string.pref_retry_next_attempt))
+                .commit();
+    }
+
+    // Counts the fetches it passes on.
+    private static class CountingSource implements ForecastSource {
+        private final ForecastSource mSource;
+        int mFetches;
+
+        CountingSource(ForecastSource source) {
+            mSource = source;
+        }
+
+        @Override
+        public Forecast fetch(String locationSetting, SyncDiagnostics.Recorder recorder)
+                throws IOException, JSONException {
+            mFetches++;
+            return mSource.fetch(locationSetting, recorder);
+        }
+    }
+}
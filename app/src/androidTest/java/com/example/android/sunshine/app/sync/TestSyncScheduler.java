@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Replays recorded sync histories through SyncScheduler and checks where the interval ends up.
+ */
+public class TestSyncScheduler extends AndroidTestCase {
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int CLEAR = 800;
+    private static final int SCATTERED_CLOUDS = 802;
+    private static final int BROKEN_CLOUDS = 803;
+    private static final int RAIN = 501;
+
+    public void testNewInstallStartsAtBase() {
+        assertEquals(SyncScheduler.BASE_INTERVAL, new SyncScheduler(0).getInterval());
+    }
+
+    public void testUnchangedForecastBacksOffToMax() {
+        List<SyncScheduler.Day> forecast = forecast(20, 10, CLEAR);
+        SyncScheduler scheduler = new SyncScheduler(0);
+        long previous = scheduler.getInterval();
+        for (int i = 0; i < 10; i++) {
+            scheduler.onSync(SyncScheduler.compare(forecast, forecast));
+            assertTrue("Error: interval shrank after an unchanged sync",
+                    scheduler.getInterval() >= previous);
+            previous = scheduler.getInterval();
+        }
+        assertEquals(SyncScheduler.MAX_INTERVAL, scheduler.getInterval());
+    }
+
+    public void testVolatileForecastSpeedsUpToMin() {
+        SyncScheduler scheduler = new SyncScheduler(SyncScheduler.MAX_INTERVAL);
+        // A front moving through: the temperature swings by 5 degrees every sync.
+        List<SyncScheduler.Day> before = forecast(20, 10, CLEAR);
+        for (int i = 0; i < 10; i++) {
+            List<SyncScheduler.Day> after = forecast(i % 2 == 0 ? 15 : 20, 10, CLEAR);
+            SyncScheduler.Change change = SyncScheduler.compare(before, after);
+            assertTrue("Error: a 5 degree swing wasn't volatile", change.isVolatile());
+            scheduler.onSync(change);
+            before = after;
+        }
+        assertEquals(SyncScheduler.MIN_INTERVAL, scheduler.getInterval());
+    }
+
+    public void testConditionChangeIsVolatile() {
+        SyncScheduler.Change change = SyncScheduler.compare(forecast(20, 10, CLEAR),
+                forecast(20, 10, RAIN));
+        assertTrue(change.changed);
+        assertEquals(3, change.conditionChanges);
+        assertTrue(change.isVolatile());
+
+        // Scattered to broken clouds is a different code but not a different kind of weather.
+        change = SyncScheduler.compare(forecast(20, 10, SCATTERED_CLOUDS),
+                forecast(20, 10, BROKEN_CLOUDS));
+        assertTrue(change.changed);
+        assertEquals(0, change.conditionChanges);
+    }
+
+    public void testOrdinaryChangesSettleAtBase() {
+        // Unchanged for a while, then a degree here and there.
+        SyncScheduler scheduler = new SyncScheduler(0);
+        List<SyncScheduler.Day> forecast = forecast(20, 10, CLEAR);
+        for (int i = 0; i < 4; i++) {
+            scheduler.onSync(SyncScheduler.compare(forecast, forecast));
+        }
+        assertTrue(scheduler.getInterval() > SyncScheduler.BASE_INTERVAL);
+        for (int i = 0; i < 10; i++) {
+            List<SyncScheduler.Day> after = forecast(20 + (i % 2), 10, CLEAR);
+            SyncScheduler.Change change = SyncScheduler.compare(forecast, after);
+            assertTrue(change.changed);
+            assertFalse(change.isVolatile());
+            scheduler.onSync(change);
+            forecast = after;
+        }
+        assertEquals(SyncScheduler.BASE_INTERVAL, scheduler.getInterval());
+    }
+
+    public void testNewDaysAreChangesButNotVolatile() {
+        SyncScheduler.Change change = SyncScheduler.compare(
+                new ArrayList<SyncScheduler.Day>(), forecast(20, 10, CLEAR));
+        assertTrue(change.changed);
+        assertFalse(change.isVolatile());
+    }
+
+    public void testDeferredOnMeteredOrLowBattery() {
+        SyncScheduler scheduler = new SyncScheduler(SyncScheduler.BASE_INTERVAL);
+        assertEquals(SyncScheduler.BASE_INTERVAL,
+                scheduler.getScheduledInterval(false, false, false));
+        assertEquals(2 * SyncScheduler.BASE_INTERVAL,
+                scheduler.getScheduledInterval(true, false, false));
+        assertEquals(2 * SyncScheduler.BASE_INTERVAL,
+                scheduler.getScheduledInterval(false, true, false));
+
+        // Never past the maximum, and the stored interval isn't affected.
+        scheduler = new SyncScheduler(SyncScheduler.MAX_INTERVAL);
+        assertEquals(SyncScheduler.MAX_INTERVAL, scheduler.getScheduledInterval(true, true, false));
+        assertEquals(SyncScheduler.MAX_INTERVAL, scheduler.getInterval());
+    }
+
+    public void testPollingStretchedWhilePushesArrive() {
+        long now = 1419033600000L;
+        assertFalse(SyncScheduler.isPushActive(0, now));
+        assertTrue(SyncScheduler.isPushActive(now - DAY_IN_MILLIS, now));
+        assertFalse(SyncScheduler.isPushActive(now - 3 * DAY_IN_MILLIS, now));
+
+        SyncScheduler scheduler = new SyncScheduler(SyncScheduler.MIN_INTERVAL);
+        assertEquals(SyncScheduler.PUSH_INTERVAL,
+                scheduler.getScheduledInterval(false, false, true));
+        assertEquals(SyncScheduler.MIN_INTERVAL, scheduler.getInterval());
+    }
+
+    public void testStoredIntervalIsClamped() {
+        assertEquals(SyncScheduler.MIN_INTERVAL, new SyncScheduler(60).getInterval());
+        assertEquals(SyncScheduler.MAX_INTERVAL,
+                new SyncScheduler(10 * SyncScheduler.MAX_INTERVAL).getInterval());
+    }
+
+    // Three days starting at a fixed date with the same weather.
+    private static List<SyncScheduler.Day> forecast(double high, double low, int weatherId) {
+        long today = 1419033600000L;
+        return Arrays.asList(
+                new SyncScheduler.Day(today, high, low, weatherId),
+                new SyncScheduler.Day(today + DAY_IN_MILLIS, high, low, weatherId),
+                new SyncScheduler.Day(today + 2 * DAY_IN_MILLIS, high, low, weatherId));
+    }
+}
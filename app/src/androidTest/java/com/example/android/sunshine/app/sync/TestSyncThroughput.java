@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.TestUtilities;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/*
+    Sync benchmark: runs the sync from fetch through the database write against forecasts
+    served without the network, both from memory and over a loopback HTTP server.  Nothing is
+    told about the forecasts it writes, so the benchmark posts no notification and updates no
+    widget, Muzei or watch, and the sync schedule it changes is put back afterwards.  Throughput
+    and the average time of each phase are written to the log; the test only fails if a sync
+    doesn't write its forecast.
+ */
+public class TestSyncThroughput extends AndroidTestCase {
+    private static final String LOG_TAG = TestSyncThroughput.class.getSimpleName();
+
+    private static final int SYNCS = 20;
+    private static final int TEST_DAYS = 14;
+    // Five days of 3-hour steps, as OpenWeatherMap sends them.
+    private static final int TEST_STEPS = 40;
+
+    private String mLocation;
+    private String[] mForecasts;
+    private String[] mHourlyForecasts;
+    private Map<String, Object> mSavedPrefs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLocation = Utility.getPreferredLocation(mContext);
+        mSavedPrefs = SyncTestUtilities.saveSyncPrefs(mContext);
+        TestUtilities.deleteAllRecords(mContext);
+
+        // A backoff left by an earlier failure would skip every sync.
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .remove(mContext.getString(R.string.pref_retry_failures))
+                .remove(mContext.getString(R.string.pref_retry_next_attempt))
+                .commit();
+
+        // A different forecast each time, so every sync really writes.
+        Random random = new Random(42);
+        mForecasts = new String[SYNCS];
+        mHourlyForecasts = new String[SYNCS];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < SYNCS; i++) {
+            mForecasts[i] = FixtureForecastSource.generateJson("Mountain View", 37.3861,
+                    -122.0839, TEST_DAYS, random);
+            mHourlyForecasts[i] = FixtureForecastSource.generateHourlyJson(now, TEST_STEPS,
+                    random);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        SyncTestUtilities.restoreSyncPrefs(mContext, mSavedPrefs);
+        super.tearDown();
+    }
+
+    public void testThroughputFromFixtures() {
+        long elapsed = 0;
+        for (int i = 0; i < SYNCS; i++) {
+            FixtureForecastSource source = new FixtureForecastSource()
+                    .put(mLocation, mForecasts[i], mHourlyForecasts[i]);
+            elapsed += sync(source);
+        }
+        report("fixtures", elapsed);
+    }
+
+    public void testThroughputFromLoopbackServer() throws Exception {
+        LoopbackForecastServer server = new LoopbackForecastServer();
+        try {
+            OwmForecastSource source = new OwmForecastSource(server.getBaseUrl(), "test");
+            long elapsed = 0;
+            for (int i = 0; i < SYNCS; i++) {
+                server.put(mLocation, mForecasts[i], mHourlyForecasts[i]);
+                elapsed += sync(source);
+            }
+            // The daily and the 3-hour forecast each time.
+            assertEquals(2 * SYNCS, server.getRequestCount());
+            report("loopback server", elapsed);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    // Runs one forced sync through a fresh adapter and returns how long it took, in milliseconds.
+    private long sync(ForecastSource source) {
+        SunshineSyncAdapter adapter = new SunshineSyncAdapter(mContext, false, source,
+                new SyncTestUtilities.SilentPublisher());
+        Bundle extras = new Bundle();
+        extras.putBoolean(SunshineSyncAdapter.EXTRA_FORCE, true);
+        SyncResult syncResult = new SyncResult();
+
+        long start = SystemClock.elapsedRealtime();
+        adapter.onPerformSync(new Account("benchmark", "benchmark"), extras,
+                WeatherContract.CONTENT_AUTHORITY, null, syncResult);
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        assertFalse("Error: the sync failed: " + syncResult, syncResult.hasError());
+        assertEquals(TEST_DAYS + TEST_STEPS, syncResult.stats.numInserts);
+        return elapsed;
+    }
+
+    private void report(String source, long elapsed) {
+        Log.i(LOG_TAG, String.format(Locale.US, "%d syncs from %s in %dms, %.1f syncs/s",
+                SYNCS, source, elapsed, SYNCS * 1000.0 / Math.max(1, elapsed)));
+
+        // The diagnostics keep the most recent syncs, which are ours.
+        String[] phases = {
+                WeatherContract.DiagnosticsEntry.COLUMN_CONNECT_MILLIS,
+                WeatherContract.DiagnosticsEntry.COLUMN_DOWNLOAD_MILLIS,
+                WeatherContract.DiagnosticsEntry.COLUMN_PARSE_MILLIS,
+                WeatherContract.DiagnosticsEntry.COLUMN_COMMIT_MILLIS
+        };
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.DiagnosticsEntry.CONTENT_URI, phases, null, null, null);
+        assertNotNull(cursor);
+        try {
+            long[] totals = new long[phases.length];
+            int rows = 0;
+            while (rows < SYNCS && cursor.moveToNext()) {
+                for (int i = 0; i < phases.length; i++) {
+                    totals[i] += cursor.getLong(i);
+                }
+                rows++;
+            }
+            StringBuilder averages = new StringBuilder("Average phase times from ")
+                    .append(source).append(':');
+            for (int i = 0; i < phases.length; i++) {
+                averages.append(' ').append(phases[i]).append('=')
+                        .append(totals[i] / Math.max(1, rows));
+            }
+            Log.i(LOG_TAG, averages.toString());
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+/**
+ * An immutable copy of one day's weather row, as needed to show it in the detail view.
+ */
+public class DayForecast {
+    public final long date;
+    public final int weatherId;
+    public final String description;
+    public final double high;
+    public final double low;
+    public final float humidity;
+    public final float pressure;
+    public final float windSpeed;
+    public final float degrees;
+
+    public DayForecast(long date, int weatherId, String description, double high, double low,
+                       float humidity, float pressure, float windSpeed, float degrees) {
+        this.date = date;
+        this.weatherId = weatherId;
+        this.description = description;
+        this.high = high;
+        this.low = low;
+        this.humidity = humidity;
+        this.pressure = pressure;
+        this.windSpeed = windSpeed;
+        this.degrees = degrees;
+    }
+}
@@ -34,6 +34,7 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewParent;
+import android.widget.FrameLayout;
 import android.widget.ImageView;
 import android.widget.TextView;
 
@@ -44,7 +45,8 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 /**
  * A placeholder fragment containing a simple view.
  */
-public class DetailFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor> {
+public class DetailFragment extends Fragment
+        implements LoaderManager.LoaderCallbacks<Cursor>, ForecastRepository.Listener {
 
     private static final String LOG_TAG = DetailFragment.class.getSimpleName();
     static final String DETAIL_URI = "URI";
@@ -87,17 +89,55 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     public static final int COL_WEATHER_DEGREES = 8;
     public static final int COL_WEATHER_CONDITION_ID = 9;
 
-    private ImageView mIconView;
-    private TextView mDateView;
-    private TextView mDescriptionView;
-    private TextView mHighTempView;
-    private TextView mLowTempView;
-    private TextView mHumidityView;
-    private TextView mHumidityLabelView;
-    private TextView mWindView;
-    private TextView mWindLabelView;
-    private TextView mPressureView;
-    private TextView mPressureLabelView;
+    // In two-pane mode the selected day and the days either side of it are kept bound, so
+    // stepping through the list only has to flip which page is visible.
+    private static final int TWO_PANE_PAGE_COUNT = 3;
+
+    private DetailPage[] mPages;
+    private DetailPage mCurrentPage;
+
+    /*
+        The views of one inflated detail layout and the row they are currently showing.
+     */
+    private static class DetailPage {
+        final View mRoot;
+        final ImageView mIconView;
+        final TextView mDateView;
+        final TextView mDescriptionView;
+        final TextView mHighTempView;
+        final TextView mLowTempView;
+        final TextView mHumidityView;
+        final TextView mHumidityLabelView;
+        final TextView mWindView;
+        final TextView mWindLabelView;
+        final TextView mPressureView;
+        final TextView mPressureLabelView;
+
+        DayForecast mForecast;
+        String mShareText;
+
+        DetailPage(View root) {
+            mRoot = root;
+            mIconView = (ImageView) root.findViewById(R.id.detail_icon);
+            mDateView = (TextView) root.findViewById(R.id.detail_date_textview);
+            mDescriptionView = (TextView) root.findViewById(R.id.detail_forecast_textview);
+            mHighTempView = (TextView) root.findViewById(R.id.detail_high_textview);
+            mLowTempView = (TextView) root.findViewById(R.id.detail_low_textview);
+            mHumidityView = (TextView) root.findViewById(R.id.detail_humidity_textview);
+            mHumidityLabelView = (TextView) root.findViewById(R.id.detail_humidity_label_textview);
+            mWindView = (TextView) root.findViewById(R.id.detail_wind_textview);
+            mWindLabelView = (TextView) root.findViewById(R.id.detail_wind_label_textview);
+            mPressureView = (TextView) root.findViewById(R.id.detail_pressure_textview);
+            mPressureLabelView = (TextView) root.findViewById(R.id.detail_pressure_label_textview);
+        }
+    }
+
+    private final Runnable mBindNeighbours = new Runnable() {
+        @Override
+        public void run() {
+            bindNeighbours();
+        }
+    };
 
     public DetailFragment() {
         setHasOptionsMenu(true);
@@ -113,21 +153,39 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             mTransitionAnimation = arguments.getBoolean(DetailFragment.DETAIL_TRANSITION_ANIMATION, false);
         }
 
-        View rootView = inflater.inflate(R.layout.fragment_detail_start, container, false);
-        mIconView = (ImageView) rootView.findViewById(R.id.detail_icon);
-        mDateView = (TextView) rootView.findViewById(R.id.detail_date_textview);
-        mDescriptionView = (TextView) rootView.findViewById(R.id.detail_forecast_textview);
-        mHighTempView = (TextView) rootView.findViewById(R.id.detail_high_textview);
-        mLowTempView = (TextView) rootView.findViewById(R.id.detail_low_textview);
-        mHumidityView = (TextView) rootView.findViewById(R.id.detail_humidity_textview);
-        mHumidityLabelView = (TextView) rootView.findViewById(R.id.detail_humidity_label_textview);
-        mWindView = (TextView) rootView.findViewById(R.id.detail_wind_textview);
-        mWindLabelView = (TextView) rootView.findViewById(R.id.detail_wind_label_textview);
-        mPressureView = (TextView) rootView.findViewById(R.id.detail_pressure_textview);
-        mPressureLabelView = (TextView) rootView.findViewById(R.id.detail_pressure_label_textview);
+        if (savedInstanceState != null && savedInstanceState.containsKey(DETAIL_URI)) {
+            // In two-pane mode the selection may have moved on since the arguments were set.
+            mUri = savedInstanceState.getParcelable(DETAIL_URI);
+        }
+
+        if ( !(getActivity() instanceof MainActivity) ) {
+            View rootView = inflater.inflate(R.layout.fragment_detail_start, container, false);
+            mPages = new DetailPage[] { new DetailPage(rootView) };
+            mCurrentPage = mPages[0];
+            return rootView;
+        }
+
+        FrameLayout rootView = new FrameLayout(getActivity());
+        mPages = new DetailPage[TWO_PANE_PAGE_COUNT];
+        for (int i = 0; i < TWO_PANE_PAGE_COUNT; i++) {
+            View pageView = inflater.inflate(R.layout.fragment_detail_start, rootView, false);
+            // INVISIBLE rather than GONE, so the hidden pages stay measured and laid out.
+            pageView.setVisibility(i == 0 ? View.VISIBLE : View.INVISIBLE);
+            rootView.addView(pageView);
+            mPages[i] = new DetailPage(pageView);
+        }
+        mCurrentPage = mPages[0];
         return rootView;
     }
 
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (null != mUri) {
+            outState.putParcelable(DETAIL_URI, mUri);
+        }
+    }
+
     private void finishCreatingMenu(Menu menu) {
         // Retrieve the share menu item
         MenuItem menuItem = menu.findItem(R.id.action_share);
@@ -153,10 +211,32 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
-        getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+        // The forecast list has usually loaded this row already, in which case we can show it
+        // right away and only go to the provider when it hasn't.
+        if ( !bindFromRepository() ) {
+            getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+        }
+        ForecastRepository.getInstance().addListener(this);
         super.onActivityCreated(savedInstanceState);
     }
 
+    @Override
+    public void onDestroyView() {
+        ForecastRepository.getInstance().removeListener(this);
+        getView().removeCallbacks(mBindNeighbours);
+        super.onDestroyView();
+    }
+
+    /*
+        Switches the two-pane detail view to another day without replacing the fragment.
+     */
+    void showUri(Uri uri) {
+        mUri = uri;
+        if ( !bindFromRepository() ) {
+            getLoaderManager().restartLoader(DETAIL_LOADER, null, this);
+        }
+    }
+
     void onLocationChanged( String newLocation ) {
         // replace the uri, since the location has changed
         Uri uri = mUri;
@@ -164,7 +244,123 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
             Uri updatedUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(newLocation, date);
             mUri = updatedUri;
-            getLoaderManager().restartLoader(DETAIL_LOADER, null, this);
+            if ( !bindFromRepository() ) {
+                getLoaderManager().restartLoader(DETAIL_LOADER, null, this);
+            }
+        }
+    }
+
+    @Override
+    public void onForecastChanged(String locationSetting) {
+        // The list reloaded (new sync, changed units, ...), so rebind from the fresh rows.
+        if ( null != mUri && null != getView() &&
+                locationSetting.equals(WeatherContract.WeatherEntry.getLocationSettingFromUri(mUri)) ) {
+            bindFromRepository();
+        }
+    }
+
+    /*
+        Binds the row for mUri if the ForecastRepository holds it.  Returns false when the
+        caller needs to fall back to querying the provider.
+     */
+    private boolean bindFromRepository() {
+        if ( null == mUri ) {
+            return false;
+        }
+        DayForecast forecast = ForecastRepository.getInstance().get(
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(mUri),
+                WeatherContract.WeatherEntry.getDateFromUri(mUri));
+        if ( null == forecast ) {
+            return false;
+        }
+        // Don't let a loader started for an earlier selection overwrite this one.
+        getLoaderManager().destroyLoader(DETAIL_LOADER);
+        showForecast(forecast);
+        return true;
+    }
+
+    private void showForecast(DayForecast forecast) {
+        DetailPage page = findPage(forecast);
+        if (null == page) {
+            page = choosePage(forecast.date);
+            bindForecast(page, forecast);
+        }
+        for (DetailPage other : mPages) {
+            if (other != page) {
+                other.mRoot.setVisibility(View.INVISIBLE);
+            }
+        }
+        page.mRoot.setVisibility(View.VISIBLE);
+        mCurrentPage = page;
+        mForecast = page.mShareText;
+
+        ViewParent vp = getView().getParent();
+        if ( vp instanceof CardView ) {
+            ((View)vp).setVisibility(View.VISIBLE);
+        }
+        finishBinding();
+
+        if (mPages.length > 1) {
+            // Bind the neighbours once this frame is out of the way.
+            getView().removeCallbacks(mBindNeighbours);
+            getView().post(mBindNeighbours);
+        }
+    }
+
+    /*
+        Returns the page already bound to exactly this row, if any.  The repository hands out new
+        DayForecast objects whenever the list reloads, so identity also tells us the page is current.
+     */
+    private DetailPage findPage(DayForecast forecast) {
+        for (DetailPage page : mPages) {
+            if (page.mForecast == forecast) {
+                return page;
+            }
+        }
+        return null;
+    }
+
+    /*
+        Picks the page to rebind for the given date: an unused one if there is one, otherwise the
+        one showing the day furthest away.
+     */
+    private DetailPage choosePage(long date) {
+        DetailPage chosen = mPages[0];
+        long chosenDistance = -1;
+        for (DetailPage page : mPages) {
+            if (null == page.mForecast) {
+                return page;
+            }
+            long distance = Math.abs(page.mForecast.date - date);
+            if (distance > chosenDistance) {
+                chosen = page;
+                chosenDistance = distance;
+            }
+        }
+        return chosen;
+    }
+
+    private void bindNeighbours() {
+        if ( null == getView() || null == mUri || null == mCurrentPage.mForecast ) {
+            return;
+        }
+        ForecastRepository repository = ForecastRepository.getInstance();
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(mUri);
+        long date = mCurrentPage.mForecast.date;
+        DayForecast previous = repository.getAdjacent(locationSetting, date, -1);
+        DayForecast next = repository.getAdjacent(locationSetting, date, 1);
+
+        for (DayForecast neighbour : new DayForecast[] { previous, next }) {
+            if (null == neighbour || null != findPage(neighbour)) {
+                continue;
+            }
+            for (DetailPage page : mPages) {
+                if (page != mCurrentPage && (null == page.mForecast ||
+                        (page.mForecast != previous && page.mForecast != next))) {
+                    bindForecast(page, neighbour);
+                    break;
+                }
+            }
         }
     }
 
@@ -192,80 +388,91 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
         if (data != null && data.moveToFirst()) {
-            ViewParent vp = getView().getParent();
-            if ( vp instanceof CardView ) {
-                ((View)vp).setVisibility(View.VISIBLE);
-            }
-
-            // Read weather condition ID from cursor
-            int weatherId = data.getInt(COL_WEATHER_CONDITION_ID);
-
-            if ( Utility.usingLocalGraphics(getActivity()) ) {
-                mIconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
-            } else {
-                // Use weather art image
-                Glide.with(this)
-                        .load(Utility.getArtUrlForWeatherCondition(getActivity(), weatherId))
-                        .error(Utility.getArtResourceForWeatherCondition(weatherId))
-                        .crossFade()
-                        .into(mIconView);
-            }
+            showForecast(new DayForecast(
+                    data.getLong(COL_WEATHER_DATE),
+                    data.getInt(COL_WEATHER_CONDITION_ID),
+                    data.getString(COL_WEATHER_DESC),
+                    data.getDouble(COL_WEATHER_MAX_TEMP),
+                    data.getDouble(COL_WEATHER_MIN_TEMP),
+                    data.getFloat(COL_WEATHER_HUMIDITY),
+                    data.getFloat(COL_WEATHER_PRESSURE),
+                    data.getFloat(COL_WEATHER_WIND_SPEED),
+                    data.getFloat(COL_WEATHER_DEGREES)));
+        } else {
+            finishBinding();
+        }
+    }
 
-            // Read date from cursor and update views for day of week and date
-            long date = data.getLong(COL_WEATHER_DATE);
-            String dateText = Utility.getFullFriendlyDayString(getActivity(),date);
-            mDateView.setText(dateText);
-
-            // Get description from weather condition ID
-            String description = Utility.getStringForWeatherCondition(getActivity(), weatherId);
-            mDescriptionView.setText(description);
-            mDescriptionView.setContentDescription(getString(R.string.a11y_forecast, description));
-
-            // For accessibility, add a content description to the icon field. Because the ImageView
-            // is independently focusable, it's better to have a description of the image. Using
-            // null is appropriate when the image is purely decorative or when the image already
-            // has text describing it in the same UI component.
-            mIconView.setContentDescription(getString(R.string.a11y_forecast_icon, description));
-
-            // Read high temperature from cursor and update view
-            boolean isMetric = Utility.isMetric(getActivity());
-
-            double high = data.getDouble(COL_WEATHER_MAX_TEMP);
-            String highString = Utility.formatTemperature(getActivity(), high);
-            mHighTempView.setText(highString);
-            mHighTempView.setContentDescription(getString(R.string.a11y_high_temp, highString));
-
-            // Read low temperature from cursor and update view
-            double low = data.getDouble(COL_WEATHER_MIN_TEMP);
-            String lowString = Utility.formatTemperature(getActivity(), low);
-            mLowTempView.setText(lowString);
-            mLowTempView.setContentDescription(getString(R.string.a11y_low_temp, lowString));
-
-            // Read humidity from cursor and update view
-            float humidity = data.getFloat(COL_WEATHER_HUMIDITY);
-            mHumidityView.setText(getActivity().getString(R.string.format_humidity, humidity));
-            mHumidityView.setContentDescription(getString(R.string.a11y_humidity, mHumidityView.getText()));
-            mHumidityLabelView.setContentDescription(mHumidityView.getContentDescription());
-
-            // Read wind speed and direction from cursor and update view
-            float windSpeedStr = data.getFloat(COL_WEATHER_WIND_SPEED);
-            float windDirStr = data.getFloat(COL_WEATHER_DEGREES);
-            mWindView.setText(Utility.getFormattedWind(getActivity(), windSpeedStr, windDirStr));
-            mWindView.setContentDescription(getString(R.string.a11y_wind, mWindView.getText()));
-            mWindLabelView.setContentDescription(mWindView.getContentDescription());
-
-            // Read pressure from cursor and update view
-            float pressure = data.getFloat(COL_WEATHER_PRESSURE);
-            mPressureView.setText(getString(R.string.format_pressure, pressure));
-            mPressureView.setContentDescription(getString(R.string.a11y_pressure, mPressureView.getText()));
-            mPressureLabelView.setContentDescription(mPressureView.getContentDescription());
-
-            // We still need this for the share intent
-            mForecast = String.format("%s - %s - %s/%s", dateText, description, high, low);
+    private void bindForecast(DetailPage page, DayForecast forecast) {
+        // Read weather condition ID
+        int weatherId = forecast.weatherId;
 
+        if ( Utility.usingLocalGraphics(getActivity()) ) {
+            page.mIconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
+        } else {
+            // Use weather art image
+            Glide.with(this)
+                    .load(Utility.getArtUrlForWeatherCondition(getActivity(), weatherId))
+                    .error(Utility.getArtResourceForWeatherCondition(weatherId))
+                    .crossFade()
+                    .into(page.mIconView);
         }
+
+        // Update views for day of week and date
+        long date = forecast.date;
+        String dateText = Utility.getFullFriendlyDayString(getActivity(),date);
+        page.mDateView.setText(dateText);
+
+        // Get description from weather condition ID
+        String description = Utility.getStringForWeatherCondition(getActivity(), weatherId);
+        page.mDescriptionView.setText(description);
+        page.mDescriptionView.setContentDescription(getString(R.string.a11y_forecast, description));
+
+        // For accessibility, add a content description to the icon field. Because the ImageView
+        // is independently focusable, it's better to have a description of the image. Using
+        // null is appropriate when the image is purely decorative or when the image already
+        // has text describing it in the same UI component.
+        page.mIconView.setContentDescription(getString(R.string.a11y_forecast_icon, description));
+
+        // Update high temperature view
+        double high = forecast.high;
+        String highString = Utility.formatTemperature(getActivity(), high);
+        page.mHighTempView.setText(highString);
+        page.mHighTempView.setContentDescription(getString(R.string.a11y_high_temp, highString));
+
+        // Update low temperature view
+        double low = forecast.low;
+        String lowString = Utility.formatTemperature(getActivity(), low);
+        page.mLowTempView.setText(lowString);
+        page.mLowTempView.setContentDescription(getString(R.string.a11y_low_temp, lowString));
+
+        // Update humidity view
+        float humidity = forecast.humidity;
+        page.mHumidityView.setText(getActivity().getString(R.string.format_humidity, humidity));
+        page.mHumidityView.setContentDescription(getString(R.string.a11y_humidity, page.mHumidityView.getText()));
+        page.mHumidityLabelView.setContentDescription(page.mHumidityView.getContentDescription());
+
+        // Update wind speed and direction view
+        float windSpeedStr = forecast.windSpeed;
+        float windDirStr = forecast.degrees;
+        page.mWindView.setText(Utility.getFormattedWind(getActivity(), windSpeedStr, windDirStr));
+        page.mWindView.setContentDescription(getString(R.string.a11y_wind, page.mWindView.getText()));
+        page.mWindLabelView.setContentDescription(page.mWindView.getContentDescription());
+
+        // Update pressure view
+        float pressure = forecast.pressure;
+        page.mPressureView.setText(getString(R.string.format_pressure, pressure));
+        page.mPressureView.setContentDescription(getString(R.string.a11y_pressure, page.mPressureView.getText()));
+        page.mPressureLabelView.setContentDescription(page.mPressureView.getContentDescription());
+
+        // We still need this for the share intent
+        page.mShareText = String.format("%s - %s - %s/%s", dateText, description, high, low);
+        page.mForecast = forecast;
+    }
+
+    private void finishBinding() {
         AppCompatActivity activity = (AppCompatActivity)getActivity();
-        Toolbar toolbarView = (Toolbar) getView().findViewById(R.id.toolbar);
+        Toolbar toolbarView = (Toolbar) mCurrentPage.mRoot.findViewById(R.id.toolbar);
 
         // We need to start the enter transition after the data has loaded
         if ( mTransitionAnimation ) {
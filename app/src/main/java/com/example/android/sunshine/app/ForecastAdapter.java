@@ -17,6 +17,7 @@ package com.example.android.sunshine.app;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.graphics.Bitmap;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.view.ViewCompat;
@@ -49,6 +50,9 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
     final private ItemChoiceManager mICM;
+    final private WeatherArtCache mArtCache;
+    final private int mTodayArtSize;
+    final private int mListIconSize;
 
     /**
      * Cache of the children views for a forecast list item.
@@ -90,6 +94,9 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mEmptyView = emptyView;
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
+        mArtCache = WeatherArtCache.getInstance();
+        mTodayArtSize = context.getResources().getDimensionPixelSize(R.dimen.today_icon);
+        mListIconSize = context.getResources().getDimensionPixelSize(R.dimen.list_icon);
     }
 
     /*
@@ -142,11 +149,22 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         if ( Utility.usingLocalGraphics(mContext) ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
-            Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
-                    .error(defaultImage)
-                    .crossFade()
-                    .into(forecastAdapterViewHolder.mIconView);
+            String artUrl = Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+            int artSize = getArtSize(getItemViewType(position));
+            Bitmap art = mArtCache.get(artUrl, artSize, artSize);
+            if ( null != art ) {
+                // Already decoded at this size by preloadArt, so skip Glide entirely.  Any
+                // request still attached to the recycled view must not overwrite it later.
+                Glide.clear(forecastAdapterViewHolder.mIconView);
+                forecastAdapterViewHolder.mIconView.setImageBitmap(art);
+            } else {
+                Glide.with(mContext)
+                        .load(artUrl)
+                        .override(artSize, artSize)
+                        .error(defaultImage)
+                        .crossFade()
+                        .into(forecastAdapterViewHolder.mIconView);
+            }
         }
 
         // this enables better animations. even if we lose state due to a device rotation,
@@ -185,6 +203,35 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
     }
 
+    @Override
+    public void onViewRecycled(ForecastAdapterViewHolder holder) {
+        // Don't let a load for the row's old condition finish into its new one.
+        Glide.clear(holder.mIconView);
+        super.onViewRecycled(holder);
+    }
+
+    private int getArtSize(int viewType) {
+        return viewType == VIEW_TYPE_TODAY ? mTodayArtSize : mListIconSize;
+    }
+
+    /*
+        Decodes, once per cursor, each distinct piece of art the cursor will need at the size it
+        will be shown at.  A forecast only has a handful of distinct conditions, so this is a few
+        decodes instead of one for every bind.
+     */
+    private void preloadArt() {
+        if ( null == mCursor || Utility.usingLocalGraphics(mContext) ) {
+            return;
+        }
+        for ( int position = 0; position < mCursor.getCount(); position++ ) {
+            mCursor.moveToPosition(position);
+            int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+            int artSize = getArtSize(getItemViewType(position));
+            mArtCache.preload(mContext, Utility.getArtUrlForWeatherCondition(mContext, weatherId),
+                    artSize, artSize);
+        }
+    }
+
     public void onRestoreInstanceState(Bundle savedInstanceState) {
         mICM.onRestoreInstanceState(savedInstanceState);
     }
@@ -214,6 +261,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     public void swapCursor(Cursor newCursor) {
         mCursor = newCursor;
+        preloadArt();
         notifyDataSetChanged();
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.Cursor;
+import android.support.v4.util.LongSparseArray;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory copy of the rows most recently loaded by {@link ForecastFragment}, keyed by
+ * location setting and date.  {@link DetailFragment} binds from here when it can instead of
+ * running the location join again for a row the list already has.
+ *
+ * All methods are expected to be called on the main thread.
+ */
+public class ForecastRepository {
+
+    /**
+     * Notified whenever the rows for a location are replaced.
+     */
+    public interface Listener {
+        void onForecastChanged(String locationSetting);
+    }
+
+    private static ForecastRepository sInstance;
+
+    private final Map<String, LongSparseArray<DayForecast>> mForecasts =
+            new HashMap<String, LongSparseArray<DayForecast>>();
+    private final List<Listener> mListeners = new ArrayList<Listener>();
+
+    public static ForecastRepository getInstance() {
+        if (null == sInstance) {
+            sInstance = new ForecastRepository();
+        }
+        return sInstance;
+    }
+
+    private ForecastRepository() {
+    }
+
+    /**
+     * @return the row for the given location and (normalized) date, or null if the list hasn't
+     * loaded it.
+     */
+    public DayForecast get(String locationSetting, long date) {
+        LongSparseArray<DayForecast> days = mForecasts.get(locationSetting);
+        return null == days ? null : days.get(date);
+    }
+
+    /**
+     * @return the row offset days away from date in the loaded forecast (-1 for the day before,
+     * 1 for the day after), or null if the list has no such row.
+     */
+    public DayForecast getAdjacent(String locationSetting, long date, int offset) {
+        LongSparseArray<DayForecast> days = mForecasts.get(locationSetting);
+        if (null == days) {
+            return null;
+        }
+        int index = days.indexOfKey(date);
+        if (index < 0 || index + offset < 0 || index + offset >= days.size()) {
+            return null;
+        }
+        return days.valueAt(index + offset);
+    }
+
+    /**
+     * Replaces the rows held for a location with the contents of a cursor using the
+     * {@link ForecastFragment} projection, then tells the listeners.
+     */
+    public void publish(String locationSetting, Cursor data) {
+        LongSparseArray<DayForecast> days = new LongSparseArray<DayForecast>(data.getCount());
+        for (int i = 0; i < data.getCount(); i++) {
+            data.moveToPosition(i);
+            long date = data.getLong(ForecastFragment.COL_WEATHER_DATE);
+            days.put(date, new DayForecast(
+                    date,
+                    data.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID),
+                    data.getString(ForecastFragment.COL_WEATHER_DESC),
+                    data.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP),
+                    data.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP),
+                    data.getFloat(ForecastFragment.COL_WEATHER_HUMIDITY),
+                    data.getFloat(ForecastFragment.COL_WEATHER_PRESSURE),
+                    data.getFloat(ForecastFragment.COL_WEATHER_WIND_SPEED),
+                    data.getFloat(ForecastFragment.COL_WEATHER_DEGREES)));
+        }
+        mForecasts.put(locationSetting, days);
+        for (int i = mListeners.size() - 1; i >= 0; i--) {
+            mListeners.get(i).onForecastChanged(locationSetting);
+        }
+    }
+
+    public void addListener(Listener listener) {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A tiny serialized copy of the rows shown by {@link ForecastFragment}, written after each
+ * successful sync.  Reading it only touches a few hundred bytes in the files directory, so the
+ * list can be drawn on the very first frame instead of waiting for the database to open and the
+ * weather/location join to run.  The live cursor replaces it as soon as the loader delivers.
+ */
+public class ForecastSnapshot {
+    private static final String LOG_TAG = ForecastSnapshot.class.getSimpleName();
+
+    private static final String FILE_NAME = "forecast_snapshot";
+    // Bump this whenever the file layout below changes; older files are simply ignored.
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * Writes the rows of a completed sync to disk.  The file is written to a temporary name and
+     * renamed into place so a reader never sees a partially written snapshot.
+     *
+     * @param context Context used to find the files directory
+     * @param locationSetting The location the rows belong to
+     * @param lat the latitude of the location
+     * @param lon the longitude of the location
+     * @param days The weather rows, ordered by date, as inserted into the provider
+     */
+    public static void write(Context context, String locationSetting, double lat, double lon,
+                             ContentValues[] days) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        File tmpFile = new File(context.getFilesDir(), FILE_NAME + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(locationSetting);
+            out.writeDouble(lat);
+            out.writeDouble(lon);
+            out.writeInt(days.length);
+            for (ContentValues day : days) {
+                out.writeLong(day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+                out.writeInt(day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID));
+                out.writeUTF(day.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC));
+                out.writeDouble(day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP));
+                out.writeDouble(day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
+                out.writeFloat(day.getAsFloat(WeatherContract.WeatherEntry.COLUMN_HUMIDITY));
+                out.writeFloat(day.getAsFloat(WeatherContract.WeatherEntry.COLUMN_PRESSURE));
+                out.writeFloat(day.getAsFloat(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED));
+                out.writeFloat(day.getAsFloat(WeatherContract.WeatherEntry.COLUMN_DEGREES));
+            }
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(file)) {
+                Log.w(LOG_TAG, "Unable to move forecast snapshot into place");
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing forecast snapshot", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing forecast snapshot", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the last snapshot back as a cursor laid out like the {@link ForecastFragment}
+     * projection, so the {@link ForecastAdapter} can bind it without knowing the difference.
+     *
+     * @param context Context used to find the files directory
+     * @param locationSetting The location currently preferred by the user
+     * @return a cursor of today's and future rows, or null if there is no usable snapshot
+     */
+    public static Cursor read(Context context, String locationSetting) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            String snapshotLocation = in.readUTF();
+            if (!snapshotLocation.equals(locationSetting)) {
+                return null;
+            }
+            double lat = in.readDouble();
+            double lon = in.readDouble();
+            int count = in.readInt();
+
+            // Only show current and future dates, just like the loader's query does.
+            long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+            MatrixCursor cursor = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS, count);
+            for (int i = 0; i < count; i++) {
+                long date = in.readLong();
+                int weatherId = in.readInt();
+                String desc = in.readUTF();
+                double high = in.readDouble();
+                double low = in.readDouble();
+                float humidity = in.readFloat();
+                float pressure = in.readFloat();
+                float windSpeed = in.readFloat();
+                float degrees = in.readFloat();
+                if (date < today) {
+                    continue;
+                }
+                Object[] row = new Object[ForecastFragment.FORECAST_COLUMNS.length];
+                // There is no row id until the data is in the database; the date is unique
+                // per location so it serves just as well.
+                row[ForecastFragment.COL_WEATHER_ID] = date;
+                row[ForecastFragment.COL_WEATHER_DATE] = date;
+                row[ForecastFragment.COL_WEATHER_DESC] = desc;
+                row[ForecastFragment.COL_WEATHER_MAX_TEMP] = high;
+                row[ForecastFragment.COL_WEATHER_MIN_TEMP] = low;
+                row[ForecastFragment.COL_LOCATION_SETTING] = snapshotLocation;
+                row[ForecastFragment.COL_WEATHER_CONDITION_ID] = weatherId;
+                row[ForecastFragment.COL_COORD_LAT] = lat;
+                row[ForecastFragment.COL_COORD_LONG] = lon;
+                row[ForecastFragment.COL_WEATHER_HUMIDITY] = humidity;
+                row[ForecastFragment.COL_WEATHER_PRESSURE] = pressure;
+                row[ForecastFragment.COL_WEATHER_WIND_SPEED] = windSpeed;
+                row[ForecastFragment.COL_WEATHER_DEGREES] = degrees;
+                cursor.addRow(row);
+            }
+            if (cursor.getCount() == 0) {
+                cursor.close();
+                return null;
+            }
+            return cursor;
+        } catch (FileNotFoundException e) {
+            // No sync has completed yet.
+            return null;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading forecast snapshot", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing forecast snapshot", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the snapshot, e.g. so a test can measure a cold start without it.
+     */
+    public static void clear(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (file.exists() && !file.delete()) {
+            Log.w(LOG_TAG, "Unable to delete forecast snapshot");
+        }
+    }
+}
@@ -169,7 +169,13 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
 
     @Override
     public void onItemSelected(Uri contentUri, ForecastAdapter.ForecastAdapterViewHolder vh) {
-        if (mTwoPane) {
+        DetailFragment df = mTwoPane ? (DetailFragment)getSupportFragmentManager()
+                .findFragmentByTag(DETAILFRAGMENT_TAG) : null;
+        if ( null != df && null != df.getView() ) {
+            // Reuse the detail fragment we already have; it keeps the neighbouring days bound
+            // so moving through the list doesn't inflate or query anything.
+            df.showUri(contentUri);
+        } else if (mTwoPane) {
             // In two-pane mode, show the detail view in this activity by
             // adding or replacing the detail fragment using a
             // fragment transaction.
@@ -131,6 +131,9 @@ public class SettingsActivity extends PreferenceActivity
     // start our synchronization here
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        // Listeners run in no particular order, so make sure the settings snapshot is current
+        // before anything below reads it.
+        SunshineSettings.refresh(this);
         if ( key.equals(getString(R.string.pref_location_key)) ) {
             // we've changed the location
             // first clear locationStatus
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.text.format.Time;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats temperatures and dates for display, caching the results.  A forecast only ever shows a
+ * few dozen distinct temperatures and two weeks of days, so after the first bind nearly every
+ * call is an array read.
+ *
+ * Safe to call from any thread: caches only ever hold immutable Strings, and the date formatters
+ * are confined to the thread using them.
+ */
+public final class SunshineFormatter {
+
+    // Temperatures (in the display unit, rounded) that get a cache slot.
+    private static final int MIN_CACHED_TEMPERATURE = -100;
+    private static final int MAX_CACHED_TEMPERATURE = 150;
+
+    // Days, counting from today, that get a cache slot.
+    private static final int CACHED_DAYS = 16;
+
+    private static volatile TemperatureStrings sTemperatureStrings;
+    private static volatile DayStrings sDayStrings;
+
+    private static final ThreadLocal<DateFormats> sDateFormats = new ThreadLocal<DateFormats>();
+
+    private static final class TemperatureStrings {
+        final Locale locale;
+        final String[] strings = new String[MAX_CACHED_TEMPERATURE - MIN_CACHED_TEMPERATURE + 1];
+
+        TemperatureStrings(Locale locale) {
+            this.locale = locale;
+        }
+    }
+
+    // The day strings are only good for one day in one locale; a new set replaces them after
+    // midnight or when the locale changes.
+    private static final class DayStrings {
+        final int todayJulianDay;
+        final Locale locale;
+        final String[] friendly = new String[CACHED_DAYS];
+        final String[] friendlyLongToday = new String[CACHED_DAYS];
+        final String[] fullFriendly = new String[CACHED_DAYS];
+
+        DayStrings(int todayJulianDay, Locale locale) {
+            this.todayJulianDay = todayJulianDay;
+            this.locale = locale;
+        }
+    }
+
+    private static final class DateFormats {
+        final Locale locale;
+        final String timeZoneId;
+        final SimpleDateFormat shortened;
+        final SimpleDateFormat dayName;
+        final SimpleDateFormat monthDay;
+
+        DateFormats(Locale locale, TimeZone timeZone) {
+            this.locale = locale;
+            this.timeZoneId = timeZone.getID();
+            shortened = new SimpleDateFormat("EEE MMM dd", locale);
+            dayName = new SimpleDateFormat("EEEE", locale);
+            monthDay = new SimpleDateFormat("MMMM dd", locale);
+            shortened.setTimeZone(timeZone);
+            dayName.setTimeZone(timeZone);
+            monthDay.setTimeZone(timeZone);
+        }
+    }
+
+    private SunshineFormatter() {
+    }
+
+    /**
+     * Formats a temperature stored in Celsius in the user's preferred unit, e.g. "21°".
+     */
+    public static String formatTemperature(Context context, double temperature) {
+        // Data stored in Celsius by default.  If user prefers to see in Fahrenheit, convert
+        // the values here.
+        if (!Utility.isMetric(context)) {
+            temperature = (temperature * 1.8) + 32;
+        }
+
+        // For presentation, assume the user doesn't care about tenths of a degree.  Round half
+        // away from zero like the %.0f the format uses; rounding first also means something like
+        // -0.3 shows as "0°" rather than "-0°".
+        int rounded = roundHalfAwayFromZero(temperature);
+        if (rounded < MIN_CACHED_TEMPERATURE || rounded > MAX_CACHED_TEMPERATURE) {
+            return String.format(context.getString(R.string.format_temperature), (double) rounded);
+        }
+
+        Locale locale = Locale.getDefault();
+        TemperatureStrings cache = sTemperatureStrings;
+        if (null == cache || !cache.locale.equals(locale)) {
+            cache = new TemperatureStrings(locale);
+            sTemperatureStrings = cache;
+        }
+        int index = rounded - MIN_CACHED_TEMPERATURE;
+        String formatted = cache.strings[index];
+        if (null == formatted) {
+            formatted = String.format(locale, context.getString(R.string.format_temperature),
+                    (double) rounded);
+            cache.strings[index] = formatted;
+        }
+        return formatted;
+    }
+
+    private static int roundHalfAwayFromZero(double value) {
+        // Split off the fraction instead of adding 0.5, which can round up values just below .5.
+        double magnitude = Math.abs(value);
+        double whole = Math.floor(magnitude);
+        int rounded = (int) (magnitude - whole >= 0.5 ? whole + 1 : whole);
+        return value < 0 ? -rounded : rounded;
+    }
+
+    /**
+     * @see Utility#getFriendlyDayString(Context, long, boolean)
+     */
+    public static String getFriendlyDayString(Context context, long dateInMillis,
+                                              boolean displayLongToday) {
+        DayStrings cache = currentDayStrings();
+        int offset = getJulianDay(dateInMillis) - cache.todayJulianDay;
+        boolean cached = offset >= 0 && offset < CACHED_DAYS;
+        String[] strings = displayLongToday ? cache.friendlyLongToday : cache.friendly;
+        if (cached && null != strings[offset]) {
+            return strings[offset];
+        }
+
+        String friendly;
+        if (displayLongToday && offset == 0) {
+            // If the date we're building the String for is today's date, the format
+            // is "Today, June 24"
+            friendly = context.getString(R.string.format_full_friendly_date,
+                    context.getString(R.string.today), getFormattedMonthDay(dateInMillis));
+        } else if (offset < 7) {
+            // If the input date is less than a week in the future, just return the day name.
+            friendly = getDayName(context, dateInMillis, offset);
+        } else {
+            // Otherwise, use the form "Mon Jun 3"
+            friendly = getDateFormats().shortened.format(dateInMillis);
+        }
+        if (cached) {
+            strings[offset] = friendly;
+        }
+        return friendly;
+    }
+
+    /**
+     * @see Utility#getFullFriendlyDayString(Context, long)
+     */
+    public static String getFullFriendlyDayString(Context context, long dateInMillis) {
+        DayStrings cache = currentDayStrings();
+        int offset = getJulianDay(dateInMillis) - cache.todayJulianDay;
+        boolean cached = offset >= 0 && offset < CACHED_DAYS;
+        if (cached && null != cache.fullFriendly[offset]) {
+            return cache.fullFriendly[offset];
+        }
+        String fullFriendly = context.getString(R.string.format_full_friendly_date,
+                getDayName(context, dateInMillis, offset), getFormattedMonthDay(dateInMillis));
+        if (cached) {
+            cache.fullFriendly[offset] = fullFriendly;
+        }
+        return fullFriendly;
+    }
+
+    /**
+     * @see Utility#getDayName(Context, long)
+     */
+    public static String getDayName(Context context, long dateInMillis) {
+        return getDayName(context, dateInMillis,
+                getJulianDay(dateInMillis) - currentDayStrings().todayJulianDay);
+    }
+
+    private static String getDayName(Context context, long dateInMillis, int offset) {
+        if (offset == 0) {
+            return context.getString(R.string.today);
+        } else if (offset == 1) {
+            return context.getString(R.string.tomorrow);
+        }
+        // Otherwise, the format is just the day of the week (e.g "Wednesday").
+        return getDateFormats().dayName.format(dateInMillis);
+    }
+
+    /**
+     * @return The day in the form of a string formatted "December 06"
+     */
+    public static String getFormattedMonthDay(long dateInMillis) {
+        return getDateFormats().monthDay.format(dateInMillis);
+    }
+
+    private static DayStrings currentDayStrings() {
+        int today = getJulianDay(System.currentTimeMillis());
+        Locale locale = Locale.getDefault();
+        DayStrings cache = sDayStrings;
+        if (null == cache || cache.todayJulianDay != today || !cache.locale.equals(locale)) {
+            cache = new DayStrings(today, locale);
+            sDayStrings = cache;
+        }
+        return cache;
+    }
+
+    // Like the old code, both dates are converted using the current UTC offset.
+    private static int getJulianDay(long millis) {
+        int gmtoffSeconds = TimeZone.getDefault().getOffset(System.currentTimeMillis()) / 1000;
+        return Time.getJulianDay(millis, gmtoffSeconds);
+    }
+
+    private static DateFormats getDateFormats() {
+        Locale locale = Locale.getDefault();
+        TimeZone timeZone = TimeZone.getDefault();
+        DateFormats formats = sDateFormats.get();
+        if (null == formats || !formats.locale.equals(locale)
+                || !formats.timeZoneId.equals(timeZone.getID())) {
+            formats = new DateFormats(locale, timeZone);
+            sDateFormats.set(formats);
+        }
+        return formats;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+/**
+ * An immutable snapshot of the user's settings.  The current snapshot is published through a
+ * volatile reference and replaced whenever the preferences change, so code that runs per row
+ * bind, per widget item or per notification can read settings without touching SharedPreferences.
+ */
+public final class SunshineSettings {
+
+    public final String locationSetting;
+    public final boolean isMetric;
+    // The art pack url format, with a %s for the condition name.
+    public final String artPackFormat;
+    public final boolean usingLocalGraphics;
+    @SunshineSyncAdapter.LocationStatus
+    public final int locationStatus;
+
+    private static volatile SunshineSettings sCurrent;
+
+    // SharedPreferences only keeps weak references to its listeners, so hold on to ours here.
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    private SunshineSettings(String locationSetting, boolean isMetric, String artPackFormat,
+                             boolean usingLocalGraphics, int locationStatus) {
+        this.locationSetting = locationSetting;
+        this.isMetric = isMetric;
+        this.artPackFormat = artPackFormat;
+        this.usingLocalGraphics = usingLocalGraphics;
+        this.locationStatus = locationStatus;
+    }
+
+    /**
+     * @return the current settings.  The first call reads the preferences and starts listening
+     * for changes; after that this is a single volatile read.
+     */
+    public static SunshineSettings get(Context context) {
+        SunshineSettings settings = sCurrent;
+        if (null == settings) {
+            settings = initialize(context);
+        }
+        return settings;
+    }
+
+    /**
+     * Re-reads the preferences.  The change listener is only called on the main thread, so code
+     * that writes a preference and reads it back right away (e.g. from the sync thread) calls
+     * this after writing.  If nothing has read the settings yet, this starts listening for
+     * changes too.
+     */
+    public static void refresh(Context context) {
+        Context appContext = context.getApplicationContext();
+        synchronized (SunshineSettings.class) {
+            if (null == sListener) {
+                initialize(appContext);
+            } else {
+                sCurrent = read(appContext,
+                        PreferenceManager.getDefaultSharedPreferences(appContext));
+            }
+        }
+    }
+
+    private static synchronized SunshineSettings initialize(Context context) {
+        if (null == sListener) {
+            final Context appContext = context.getApplicationContext();
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+            sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                      String key) {
+                    refresh(appContext);
+                }
+            };
+            prefs.registerOnSharedPreferenceChangeListener(sListener);
+            sCurrent = read(appContext, prefs);
+        }
+        return sCurrent;
+    }
+
+    @SuppressWarnings("ResourceType")
+    private static SunshineSettings read(Context context, SharedPreferences prefs) {
+        String metric = context.getString(R.string.pref_units_metric);
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        String artPackFormat = prefs.getString(context.getString(R.string.pref_art_pack_key),
+                sunshineArtPack);
+        return new SunshineSettings(
+                prefs.getString(context.getString(R.string.pref_location_key),
+                        context.getString(R.string.pref_location_default)),
+                prefs.getString(context.getString(R.string.pref_units_key), metric).equals(metric),
+                artPackFormat,
+                artPackFormat.equals(sunshineArtPack),
+                prefs.getInt(context.getString(R.string.pref_location_status_key),
+                        SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN));
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.FutureTarget;
+import com.bumptech.glide.request.animation.GlideAnimation;
+import com.bumptech.glide.request.target.SimpleTarget;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Process-wide cache of decoded weather art, keyed by art url and the size it was decoded at.
+ * There are only about a dozen distinct conditions, so once the images for the current forecast
+ * have been decoded at the size of the views showing them, binding never has to decode again.
+ */
+public class WeatherArtCache {
+    private static final String LOG_TAG = WeatherArtCache.class.getSimpleName();
+
+    // Decoded art may use up to this fraction of the heap.
+    private static final int MEMORY_FRACTION = 16;
+
+    private static WeatherArtCache sInstance;
+
+    private final LruCache<String, Bitmap> mBitmaps;
+    private final Set<String> mPendingKeys = new HashSet<String>();
+
+    public static synchronized WeatherArtCache getInstance() {
+        if (null == sInstance) {
+            int maxBytes = (int) (Runtime.getRuntime().maxMemory() / MEMORY_FRACTION);
+            sInstance = new WeatherArtCache(maxBytes);
+        }
+        return sInstance;
+    }
+
+    private WeatherArtCache(int maxBytes) {
+        mBitmaps = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getRowBytes() * value.getHeight();
+            }
+        };
+    }
+
+    private static String key(String url, int width, int height) {
+        return url + '@' + width + 'x' + height;
+    }
+
+    /**
+     * @return the art for url decoded at width x height, or null if it hasn't been loaded yet.
+     */
+    public Bitmap get(String url, int width, int height) {
+        return mBitmaps.get(key(url, width, height));
+    }
+
+    public void put(String url, int width, int height, Bitmap bitmap) {
+        mBitmaps.put(key(url, width, height), bitmap);
+    }
+
+    /**
+     * Starts decoding the art for url at width x height in the background, unless it is already
+     * cached or on its way.  The request is made against the application context so that it is
+     * not cancelled when the screen that asked for it goes away.  Must be called on the main
+     * thread.
+     */
+    public void preload(Context context, final String url, final int width, final int height) {
+        if (null == url) {
+            return;
+        }
+        final String key = key(url, width, height);
+        synchronized (mPendingKeys) {
+            if (null != mBitmaps.get(key) || !mPendingKeys.add(key)) {
+                return;
+            }
+        }
+        Glide.with(context.getApplicationContext())
+                .load(url)
+                .asBitmap()
+                .into(new SimpleTarget<Bitmap>(width, height) {
+                    @Override
+                    public void onResourceReady(Bitmap resource,
+                                                GlideAnimation<? super Bitmap> glideAnimation) {
+                        mBitmaps.put(key, copyOf(resource));
+                        synchronized (mPendingKeys) {
+                            mPendingKeys.remove(key);
+                        }
+                    }
+
+                    @Override
+                    public void onLoadFailed(Exception e, Drawable errorDrawable) {
+                        synchronized (mPendingKeys) {
+                            mPendingKeys.remove(key);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Makes sure the art for each of the urls is cached at width x height, decoding the missing
+     * ones in parallel and blocking until they are all done.  Failed loads are logged and skipped,
+     * leaving callers to fall back to the local resources.  If the thread is interrupted, it
+     * stops waiting and returns with the interrupt still set.  Must not be called on the main
+     * thread.
+     */
+    public void loadAll(Context context, Collection<String> urls, int width, int height) {
+        Context appContext = context.getApplicationContext();
+        List<String> missingUrls = new ArrayList<String>();
+        List<FutureTarget<Bitmap>> futures = new ArrayList<FutureTarget<Bitmap>>();
+        // Start every request before waiting on any, so Glide decodes them side by side.
+        for (String url : urls) {
+            if (null == url || null != get(url, width, height)) {
+                continue;
+            }
+            missingUrls.add(url);
+            futures.add(Glide.with(appContext)
+                    .load(url)
+                    .asBitmap()
+                    .into(width, height));
+        }
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); i++) {
+            FutureTarget<Bitmap> future = futures.get(i);
+            try {
+                if (!interrupted) {
+                    put(missingUrls.get(i), width, height, copyOf(future.get()));
+                }
+            } catch (InterruptedException e) {
+                // Stop waiting, but let the caller see the interrupt.
+                interrupted = true;
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Error retrieving weather art from " + missingUrls.get(i), e);
+            } finally {
+                // Also cancels the requests left after an interrupt.
+                Glide.clear(future);
+            }
+        }
+    }
+
+    // Glide may recycle the bitmaps it hands out into its pool, so the cache keeps copies.
+    private static Bitmap copyOf(Bitmap bitmap) {
+        Bitmap.Config config = bitmap.getConfig();
+        return bitmap.copy(null != config ? config : Bitmap.Config.ARGB_8888, false);
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The results of the provider's per-location queries, kept as plain rows so a repeated query is
+ * answered without touching the database.  Entries are dropped when a change is notified for
+ * anything they were read from: a change to a table drops everything read from it, a change
+ * under one location only what was read for that location, and a change to the locations
+ * drops everything, since every cached query joins them.
+ *
+ * Copying needs {@link Cursor#getType}, so the provider only keeps one of these on Honeycomb
+ * and up.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+class QueryCache {
+
+    // Budget, in cells; a two week forecast with every column is a couple of hundred.
+    private static final int MAX_CELLS = 4096;
+    // Bigger results, like a year of archive, are passed through rather than crowding out the
+    // rest.
+    static final int MAX_ROWS = 64;
+
+    // The path segments that scope a result: the table, then the location setting.
+    private static final int SCOPE_SEGMENTS = 2;
+
+    /**
+     * A copied result.  Never changed once built, so one can back any number of cursors.
+     */
+    static final class RowSet {
+        final List<String> scope;
+        final String[] columns;
+        final Object[][] rows;
+
+        RowSet(List<String> scope, String[] columns, Object[][] rows) {
+            this.scope = scope;
+            this.columns = columns;
+            this.rows = rows;
+        }
+
+        Cursor newCursor() {
+            MatrixCursor cursor = new MatrixCursor(columns, rows.length);
+            for (Object[] row : rows) {
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+    }
+
+    private final LruCache<String, RowSet> mRowSets = new LruCache<String, RowSet>(MAX_CELLS) {
+        @Override
+        protected int sizeOf(String key, RowSet value) {
+            // Count empty results as a cell so there is a limit to how many are kept.
+            return Math.max(1, value.rows.length * value.columns.length);
+        }
+    };
+
+    private static final String[] COUNTER_COLUMNS = {
+            WeatherContract.DiagnosticsEntry.COLUMN_CACHE_HITS,
+            WeatherContract.DiagnosticsEntry.COLUMN_CACHE_MISSES,
+            WeatherContract.DiagnosticsEntry.COLUMN_CACHE_EVICTIONS,
+            WeatherContract.DiagnosticsEntry.COLUMN_CACHE_INVALIDATIONS,
+            WeatherContract.DiagnosticsEntry.COLUMN_CACHE_ENTRIES
+    };
+
+    // Bumped by every invalidation, so a query that was running when its data changed doesn't
+    // put the result it read from before the change.
+    private long mGeneration;
+    private long mInvalidations;
+
+    static String key(int match, Uri uri, String[] projection, String sortOrder) {
+        return match + "\u0000" + uri.getEncodedPath() + '?' + uri.getEncodedQuery() + "\u0000" +
+                Arrays.toString(projection) + "\u0000" + sortOrder;
+    }
+
+    /**
+     * @return a new cursor over the cached result for key, or null if there isn't one.
+     */
+    Cursor get(String key) {
+        RowSet rowSet = mRowSets.get(key);
+        return null == rowSet ? null : rowSet.newCursor();
+    }
+
+    /**
+     * @return the generation to hand to {@link #put} for a query about to start.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Copies cursor into the cache, unless something has been invalidated since generation or
+     * it has more than {@link #MAX_ROWS} rows.
+     *
+     * @return the cursor to hand back: cursor itself if it wasn't copied, otherwise a new one
+     * over the copy, cursor having been closed.
+     */
+    Cursor put(String key, Uri uri, long generation, Cursor cursor) {
+        int count = cursor.getCount();
+        if (count > MAX_ROWS) {
+            return cursor;
+        }
+        String[] columns = cursor.getColumnNames();
+        Object[][] rows = new Object[count][];
+        try {
+            for (int row = 0; cursor.moveToNext(); row++) {
+                rows[row] = copyRow(cursor, columns.length);
+            }
+        } finally {
+            cursor.close();
+        }
+        List<String> segments = uri.getPathSegments();
+        RowSet rowSet = new RowSet(
+                segments.subList(0, Math.min(SCOPE_SEGMENTS, segments.size())), columns, rows);
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mRowSets.put(key, rowSet);
+            }
+        }
+        return rowSet.newCursor();
+    }
+
+    private static Object[] copyRow(Cursor cursor, int columnCount) {
+        Object[] row = new Object[columnCount];
+        for (int column = 0; column < columnCount; column++) {
+            switch (cursor.getType(column)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    row[column] = cursor.getLong(column);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    row[column] = cursor.getDouble(column);
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    row[column] = cursor.getString(column);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    row[column] = cursor.getBlob(column);
+                    break;
+                default:
+                    row[column] = null;
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Drops every result that a change to uri could have made stale.  Call it once the change
+     * has been committed.
+     */
+    synchronized void invalidate(Uri uri) {
+        mGeneration++;
+        List<String> changed = uri.getPathSegments();
+        boolean all = changed.isEmpty() ||
+                WeatherContract.PATH_LOCATION.equals(changed.get(0));
+        for (Map.Entry<String, RowSet> entry : mRowSets.snapshot().entrySet()) {
+            if (all || overlaps(changed, entry.getValue().scope)) {
+                mRowSets.remove(entry.getKey());
+                mInvalidations++;
+            }
+        }
+    }
+
+    // Whether the change is to the result's table, or to its location within that table.
+    private static boolean overlaps(List<String> changed, List<String> scope) {
+        int common = Math.min(SCOPE_SEGMENTS, Math.min(changed.size(), scope.size()));
+        for (int i = 0; i < common; i++) {
+            if (!changed.get(i).equals(scope.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a single row of the {@link WeatherContract.DiagnosticsEntry} cache columns in
+     * projection, or all of them if it is null.
+     */
+    synchronized Cursor queryCounters(String[] projection) {
+        return newCountersCursor(projection, mRowSets.hitCount(), mRowSets.missCount(),
+                mRowSets.evictionCount(), mInvalidations, mRowSets.snapshot().size());
+    }
+
+    /**
+     * The counters of a provider that keeps no cache: all zero.
+     */
+    static Cursor queryEmptyCounters(String[] projection) {
+        return newCountersCursor(projection, 0, 0, 0, 0, 0);
+    }
+
+    private static Cursor newCountersCursor(String[] projection, long hits, long misses,
+                                            long evictions, long invalidations, long entries) {
+        if (null == projection) {
+            projection = COUNTER_COLUMNS;
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        MatrixCursor.RowBuilder row = cursor.newRow();
+        for (String column : projection) {
+            if (WeatherContract.DiagnosticsEntry.COLUMN_CACHE_HITS.equals(column)) {
+                row.add(hits);
+            } else if (WeatherContract.DiagnosticsEntry.COLUMN_CACHE_MISSES.equals(column)) {
+                row.add(misses);
+            } else if (WeatherContract.DiagnosticsEntry.COLUMN_CACHE_EVICTIONS.equals(column)) {
+                row.add(evictions);
+            } else if (WeatherContract.DiagnosticsEntry.COLUMN_CACHE_INVALIDATIONS.equals(column)) {
+                row.add(invalidations);
+            } else if (WeatherContract.DiagnosticsEntry.COLUMN_CACHE_ENTRIES.equals(column)) {
+                row.add(entries);
+            } else {
+                throw new IllegalArgumentException("Unknown column: " + column);
+            }
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.SparseIntArray;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.TimeZone;
+
+/**
+ * The SQL behind {@link ArchiveEntry}: copying days into the archive as they leave the forecast,
+ * and compacting it.  Used by {@link WeatherProvider}, which owns the database.
+ */
+final class WeatherArchive {
+
+    private static final String sArchiveDaysSql = "INSERT INTO " + ArchiveEntry.TABLE_NAME + " (" +
+            ArchiveEntry.COLUMN_LOC_KEY + ", " +
+            ArchiveEntry.COLUMN_DATE + ", " +
+            ArchiveEntry.COLUMN_DAYS + ", " +
+            ArchiveEntry.COLUMN_SAMPLES + ", " +
+            ArchiveEntry.COLUMN_WEATHER_ID + ", " +
+            ArchiveEntry.COLUMN_MIN_TEMP + ", " +
+            ArchiveEntry.COLUMN_MAX_TEMP + ", " +
+            ArchiveEntry.COLUMN_AVG_MIN_TEMP + ", " +
+            ArchiveEntry.COLUMN_AVG_MAX_TEMP + ", " +
+            ArchiveEntry.COLUMN_HUMIDITY + ", " +
+            ArchiveEntry.COLUMN_PRESSURE + ", " +
+            ArchiveEntry.COLUMN_WIND_SPEED + ") SELECT " +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", 1, 1, " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            // a day's low and high are their own averages
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + " FROM " + WeatherEntry.TABLE_NAME + " WHERE ";
+
+    private static final String[] WEEK_COLUMNS = {
+            ArchiveEntry.COLUMN_SAMPLES,
+            ArchiveEntry.COLUMN_WEATHER_ID,
+            ArchiveEntry.COLUMN_MIN_TEMP,
+            ArchiveEntry.COLUMN_MAX_TEMP,
+            ArchiveEntry.COLUMN_AVG_MIN_TEMP,
+            ArchiveEntry.COLUMN_AVG_MAX_TEMP,
+            ArchiveEntry.COLUMN_HUMIDITY,
+            ArchiveEntry.COLUMN_PRESSURE,
+            ArchiveEntry.COLUMN_WIND_SPEED
+    };
+    private static final int COL_SAMPLES = 0;
+    private static final int COL_WEATHER_ID = 1;
+    private static final int COL_MIN_TEMP = 2;
+    private static final int COL_MAX_TEMP = 3;
+    private static final int COL_AVG_MIN_TEMP = 4;
+    private static final int COL_AVG_MAX_TEMP = 5;
+    private static final int COL_HUMIDITY = 6;
+    private static final int COL_PRESSURE = 7;
+    private static final int COL_WIND_SPEED = 8;
+
+    private WeatherArchive() {
+    }
+
+    /**
+     * Copies the weather rows matching selection that are dated before today into the archive,
+     * replacing what it had for those days.  Meant to run in the transaction that deletes them.
+     *
+     * @return how many days were archived
+     */
+    static int archivePastDays(SQLiteDatabase db, String selection, String[] selectionArgs,
+                               long today) {
+        int argCount = null == selectionArgs ? 0 : selectionArgs.length;
+        Object[] bindArgs = new Object[argCount + 1];
+        for (int i = 0; i < argCount; i++) {
+            bindArgs[i] = selectionArgs[i];
+        }
+        bindArgs[argCount] = today;
+        db.execSQL(sArchiveDaysSql + "(" + selection + ") AND " +
+                WeatherEntry.COLUMN_DATE + " < ?", bindArgs);
+        return (int) DatabaseUtils.longForQuery(db, "SELECT changes()", null);
+    }
+
+    /**
+     * Drops up to maxWeeks weeks' worth of rows past {@link ArchiveEntry#RETENTION_DAYS} as of
+     * now.  Bounding the batch bounds how long the write lock is held.
+     *
+     * @return how many rows were dropped; 0 once there is nothing left to do.
+     */
+    static int expire(SQLiteDatabase db, long now, TimeZone timeZone, int maxWeeks) {
+        long expireBefore = WeatherContract.getStartOfJulianDay(
+                WeatherContract.getJulianDay(now, timeZone) - ArchiveEntry.RETENTION_DAYS,
+                timeZone);
+        return db.delete(ArchiveEntry.TABLE_NAME,
+                ArchiveEntry._ID + " IN (SELECT " + ArchiveEntry._ID + " FROM " +
+                        ArchiveEntry.TABLE_NAME + " WHERE " +
+                        ArchiveEntry.COLUMN_DATE + " < ? LIMIT ?)",
+                new String[]{Long.toString(expireBefore),
+                        Integer.toString(maxWeeks * ArchiveEntry.WEEK_DAYS)});
+    }
+
+    /**
+     * Folds the daily rows of up to maxWeeks weeks that are entirely past
+     * {@link ArchiveEntry#DAILY_RETENTION_DAYS} as of now into weekly ones, oldest first, in a
+     * transaction of its own.  Bounding the batch bounds how long the write lock is held.
+     *
+     * @return how many rows were folded; 0 once there is nothing left to do.
+     */
+    static int foldWeeks(SQLiteDatabase db, long now, TimeZone timeZone, int maxWeeks) {
+        // Only whole weeks are folded, so days stay on their own until their week is past.
+        long foldBefore = WeatherContract.getStartOfJulianDay(
+                getStartOfWeek(WeatherContract.getJulianDay(now, timeZone) -
+                        ArchiveEntry.DAILY_RETENTION_DAYS),
+                timeZone);
+
+        int folded = 0;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < maxWeeks; i++) {
+                long locationId;
+                long oldestDay;
+                Cursor cursor = db.query(ArchiveEntry.TABLE_NAME,
+                        new String[]{ArchiveEntry.COLUMN_LOC_KEY, ArchiveEntry.COLUMN_DATE},
+                        ArchiveEntry.COLUMN_DAYS + " = 1 AND " +
+                                ArchiveEntry.COLUMN_DATE + " < ?",
+                        new String[]{Long.toString(foldBefore)},
+                        null, null, ArchiveEntry.COLUMN_DATE + " ASC", "1");
+                try {
+                    if (!cursor.moveToFirst()) {
+                        break;
+                    }
+                    locationId = cursor.getLong(0);
+                    oldestDay = cursor.getLong(1);
+                } finally {
+                    cursor.close();
+                }
+                folded += foldWeek(db, locationId,
+                        getStartOfWeek(WeatherContract.getJulianDay(oldestDay, timeZone)),
+                        timeZone);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return folded;
+    }
+
+    /*
+        Replaces every row the location has in the week starting on julianWeekStart, days and an
+        earlier weekly row alike, with one weekly row.  Returns how many rows were replaced.
+     */
+    private static int foldWeek(SQLiteDatabase db, long locationId, int julianWeekStart,
+                                TimeZone timeZone) {
+        long weekStart = WeatherContract.getStartOfJulianDay(julianWeekStart, timeZone);
+        long weekEnd = WeatherContract.getStartOfJulianDay(
+                julianWeekStart + ArchiveEntry.WEEK_DAYS, timeZone);
+        String selection = ArchiveEntry.COLUMN_LOC_KEY + " = ? AND " +
+                ArchiveEntry.COLUMN_DATE + " >= ? AND " +
+                ArchiveEntry.COLUMN_DATE + " < ?";
+        String[] selectionArgs = new String[]{Long.toString(locationId),
+                Long.toString(weekStart), Long.toString(weekEnd)};
+
+        int samples = 0;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        double lows = 0;
+        double highs = 0;
+        double humidity = 0;
+        double pressure = 0;
+        double windSpeed = 0;
+        // Days seen of each condition
+        SparseIntArray conditions = new SparseIntArray();
+        Cursor cursor = db.query(ArchiveEntry.TABLE_NAME, WEEK_COLUMNS, selection, selectionArgs,
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                int rowSamples = cursor.getInt(COL_SAMPLES);
+                int weatherId = cursor.getInt(COL_WEATHER_ID);
+                samples += rowSamples;
+                min = Math.min(min, cursor.getDouble(COL_MIN_TEMP));
+                max = Math.max(max, cursor.getDouble(COL_MAX_TEMP));
+                lows += cursor.getDouble(COL_AVG_MIN_TEMP) * rowSamples;
+                highs += cursor.getDouble(COL_AVG_MAX_TEMP) * rowSamples;
+                humidity += cursor.getDouble(COL_HUMIDITY) * rowSamples;
+                pressure += cursor.getDouble(COL_PRESSURE) * rowSamples;
+                windSpeed += cursor.getDouble(COL_WIND_SPEED) * rowSamples;
+                conditions.put(weatherId, conditions.get(weatherId) + rowSamples);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // The condition of the most days; ties go to the lower id, the more severe weather.
+        // SparseIntArray keeps its keys in ascending order.
+        int weatherId = conditions.keyAt(0);
+        for (int i = 1; i < conditions.size(); i++) {
+            if (conditions.valueAt(i) > conditions.get(weatherId)) {
+                weatherId = conditions.keyAt(i);
+            }
+        }
+
+        int folded = db.delete(ArchiveEntry.TABLE_NAME, selection, selectionArgs);
+        ContentValues week = new ContentValues();
+        week.put(ArchiveEntry.COLUMN_LOC_KEY, locationId);
+        week.put(ArchiveEntry.COLUMN_DATE, weekStart);
+        week.put(ArchiveEntry.COLUMN_DAYS, ArchiveEntry.WEEK_DAYS);
+        week.put(ArchiveEntry.COLUMN_SAMPLES, samples);
+        week.put(ArchiveEntry.COLUMN_WEATHER_ID, weatherId);
+        week.put(ArchiveEntry.COLUMN_MIN_TEMP, min);
+        week.put(ArchiveEntry.COLUMN_MAX_TEMP, max);
+        week.put(ArchiveEntry.COLUMN_AVG_MIN_TEMP, lows / samples);
+        week.put(ArchiveEntry.COLUMN_AVG_MAX_TEMP, highs / samples);
+        week.put(ArchiveEntry.COLUMN_HUMIDITY, humidity / samples);
+        week.put(ArchiveEntry.COLUMN_PRESSURE, pressure / samples);
+        week.put(ArchiveEntry.COLUMN_WIND_SPEED, windSpeed / samples);
+        db.insert(ArchiveEntry.TABLE_NAME, null, week);
+        return folded;
+    }
+
+    // Julian day 0 was a Monday, so weeks start on the multiples of 7.
+    static int getStartOfWeek(int julianDay) {
+        return julianDay - julianDay % ArchiveEntry.WEEK_DAYS;
+    }
+}
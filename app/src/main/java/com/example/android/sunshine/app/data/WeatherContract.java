@@ -19,7 +19,8 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
+
+import java.util.TimeZone;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +44,68 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_DIAGNOSTICS = "diagnostics";
+    public static final String PATH_WEATHER_HOURLY = "weather_hourly";
+    public static final String PATH_ARCHIVE = "archive";
+    // Appended to a location's weather or archive path for aggregates over it, see StatsEntry.
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_CONDITIONS = "conditions";
+    // Appended to the archive path for compacting it, see ArchiveEntry.buildCompactionUri.
+    public static final String PATH_COMPACT = "compact";
+    // Appended to the diagnostics path for the provider's query cache counters.
+    public static final String PATH_CACHE = "cache";
+
+    // Julian day number of 1970-01-01, the same value android.text.format.Time uses.
+    public static final int EPOCH_JULIAN_DAY = 2440588;
+
+    private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
 
     // To make it easy to query for the exact date, we normalize all dates that go into
-    // the database to the start of the the Julian day at UTC.
+    // the database to the start of the the Julian day.  Despite the name, this has always been
+    // the start of the day in the device's time zone, not UTC; existing rows depend on that.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return normalizeDate(startDate, TimeZone.getDefault());
+    }
+
+    /**
+     * Like {@link #normalizeDate(long)}, for callers normalizing many dates.  TimeZone.getDefault()
+     * hands out a new copy of the zone on every call, so look it up once and pass it to each of
+     * them, and to {@link #getJulianDay} and {@link #getStartOfJulianDay} alongside.  Pure
+     * arithmetic; nothing is allocated.
+     */
+    public static long normalizeDate(long startDate, TimeZone timeZone) {
+        return getStartOfJulianDay(getJulianDay(startDate, timeZone), timeZone);
+    }
+
+    /**
+     * @return the Julian day number of the day containing millis, in the given time zone.
+     */
+    public static int getJulianDay(long millis, TimeZone timeZone) {
+        long localMillis = millis + timeZone.getOffset(millis);
+        // Floor rather than truncate so times before 1970 land on the right day.
+        long localDays = localMillis / DAY_IN_MILLIS;
+        if (localMillis < 0 && localDays * DAY_IN_MILLIS != localMillis) {
+            localDays--;
+        }
+        return (int) localDays + EPOCH_JULIAN_DAY;
+    }
+
+    /**
+     * @return the millis of midnight at the start of the given Julian day, in the given time zone.
+     */
+    public static long getStartOfJulianDay(int julianDay, TimeZone timeZone) {
+        long localMidnight = (julianDay - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS;
+        // The offset to use is the one in effect at midnight itself, which can differ from the
+        // one at our first guess when a DST change happens close to it.
+        int offset = timeZone.getOffset(localMidnight - timeZone.getOffset(localMidnight));
+        long midnight = localMidnight - offset;
+        int actualOffset = timeZone.getOffset(midnight);
+        if (actualOffset != offset) {
+            // The clocks jumped forward over midnight, so the day starts at the jump, which is
+            // midnight measured with the earlier offset.
+            midnight = localMidnight - Math.min(offset, actualOffset);
+        }
+        return midnight;
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -81,12 +135,23 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // The server's version of the forecast for this location, as last announced by a push
+        // message.  0 until the first push arrives.
+        public static final String COLUMN_VERSION = "version";
+
+        // When a sync last wrote this location's forecast, in milliseconds since the epoch.
+        // 0 if it never has.
+        public static final String COLUMN_LAST_SYNC = "last_sync";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
     }
 
-    /* Inner class that defines the table contents of the weather table */
+    /*
+        Inner class that defines the table contents of the weather table.  Deleting days that have
+        gone by copies them into the archive first; see ArchiveEntry.
+     */
     public static final class WeatherEntry implements BaseColumns {
 
         public static final Uri CONTENT_URI =
@@ -98,6 +163,8 @@ public class WeatherContract {
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEATHER;
 
         public static final String TABLE_NAME = "weather";
+        // Index on (location_id, date), for ranges of a location's days
+        public static final String INDEX_LOCATION_DATE = "weather_location_date";
 
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
@@ -126,6 +193,9 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // The version a delta was computed from, as a query parameter of a delta's uri.
+        public static final String PARAM_BASE_VERSION = "base_version";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -149,6 +219,19 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        /*
+            A delta for one day of the forecast, computed by the server from baseVersion of the
+            location's forecast and bringing it to version.  Updating through this uri only
+            applies on top of baseVersion.
+         */
+        public static Uri buildWeatherLocationWithDateAndVersion(
+                String locationSetting, long date, long baseVersion, long version) {
+            return buildWeatherLocationWithDate(locationSetting, date).buildUpon()
+                    .appendQueryParameter(PARAM_BASE_VERSION, Long.toString(baseVersion))
+                    .appendQueryParameter(LocationEntry.COLUMN_VERSION, Long.toString(version))
+                    .build();
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
@@ -164,5 +247,368 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        public static long getBaseVersionFromUri(Uri uri) {
+            String versionString = uri.getQueryParameter(PARAM_BASE_VERSION);
+            if (null != versionString && versionString.length() > 0)
+                return Long.parseLong(versionString);
+            else
+                return 0;
+        }
+
+        public static long getVersionFromUri(Uri uri) {
+            String versionString = uri.getQueryParameter(LocationEntry.COLUMN_VERSION);
+            if (null != versionString && versionString.length() > 0)
+                return Long.parseLong(versionString);
+            else
+                return 0;
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the hourly weather table: the forecast in
+        3-hour steps, nearly three times as many rows as the daily one.  To keep the rows small
+        everything is stored as an integer, temperatures and wind speeds scaled up so they keep a
+        decimal place; use the scale and unscale helpers to convert.
+     */
+    public static final class HourlyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_WEATHER_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEATHER_HOURLY;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEATHER_HOURLY;
+
+        public static final String TABLE_NAME = "weather_hourly";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Start of the step, in milliseconds since the epoch
+        public static final String COLUMN_TIME = "time";
+        // Celsius times TEMPERATURE_SCALE
+        public static final String COLUMN_TEMP = "temp";
+        // Weather id as returned by the API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Percent
+        public static final String COLUMN_HUMIDITY = "humidity";
+        // Wind speed as the server reports it, times WIND_SCALE
+        public static final String COLUMN_WIND_SPEED = "wind";
+        // Meteorological degrees, rounded
+        public static final String COLUMN_DEGREES = "degrees";
+
+        public static final int TEMPERATURE_SCALE = 10;
+        public static final int WIND_SCALE = 10;
+
+        // Query parameters bounding a time window: steps starting at or after start, and before
+        // end.
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
+        public static int scaleTemperature(double celsius) {
+            return (int) Math.round(celsius * TEMPERATURE_SCALE);
+        }
+
+        public static double unscaleTemperature(int scaled) {
+            return (double) scaled / TEMPERATURE_SCALE;
+        }
+
+        public static int scaleWindSpeed(double speed) {
+            return (int) Math.round(speed * WIND_SCALE);
+        }
+
+        public static double unscaleWindSpeed(int scaled) {
+            return (double) scaled / WIND_SCALE;
+        }
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHourlyLocationWithWindow(String locationSetting, long start,
+                                                        long end) {
+            return buildHourlyLocation(locationSetting).buildUpon()
+                    .appendQueryParameter(PARAM_START, Long.toString(start))
+                    .appendQueryParameter(PARAM_END, Long.toString(end)).build();
+        }
+
+        public static Uri buildHourlyLocationWithTime(String locationSetting, long time) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(Long.toString(time)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getTimeFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(2));
+        }
+
+        // 0 if the uri has no start
+        public static long getStartFromUri(Uri uri) {
+            String startString = uri.getQueryParameter(PARAM_START);
+            if (null != startString && startString.length() > 0)
+                return Long.parseLong(startString);
+            else
+                return 0;
+        }
+
+        // Long.MAX_VALUE if the uri has no end
+        public static long getEndFromUri(Uri uri) {
+            String endString = uri.getQueryParameter(PARAM_END);
+            if (null != endString && endString.length() > 0)
+                return Long.parseLong(endString);
+            else
+                return Long.MAX_VALUE;
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the weather archive: what the forecast
+        said about each day once the day has gone by, kept for a year so trends can be shown.
+        Days are archived by the provider as the sync prunes them from the weather table.  The
+        last 30 days are kept one row per day; older ones are folded into one row per week by a
+        compaction the sync runs in small batches, and rows older than a year are dropped.
+     */
+    public static final class ArchiveEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ARCHIVE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        public static final String TABLE_NAME = "weather_archive";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // The first day the row covers, normalized like WeatherEntry.COLUMN_DATE.  Weeks start on
+        // Mondays.
+        public static final String COLUMN_DATE = "date";
+        // How many days the row covers: 1 for a day, WEEK_DAYS for a week
+        public static final String COLUMN_DAYS = "days";
+        // How many of those days were archived, which is what the averages are over
+        public static final String COLUMN_SAMPLES = "samples";
+        // The condition seen on the most days
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // The lowest and highest temperatures over the days
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        // The averages of the days' lows and highs.  Weeks folded before these were kept have
+        // the week's lowest and highest here instead.
+        public static final String COLUMN_AVG_MIN_TEMP = "avg_min";
+        public static final String COLUMN_AVG_MAX_TEMP = "avg_max";
+        // Averages over the days
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+
+        public static final int WEEK_DAYS = 7;
+        // Days younger than this keep a row of their own.
+        public static final int DAILY_RETENTION_DAYS = 30;
+        // Rows older than this are dropped.
+        public static final int RETENTION_DAYS = 365;
+
+        // Query parameters bounding a range of dates: rows starting at or after from, and before
+        // to.
+        public static final String PARAM_FROM = "from";
+        public static final String PARAM_TO = "to";
+        // Query parameters of a compaction, see buildCompactionUri.
+        public static final String PARAM_COMPACT_AT = "compact_at";
+        public static final String PARAM_LIMIT = "limit";
+
+        public static Uri buildArchiveLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildArchiveLocationWithRange(String locationSetting, long from,
+                                                        long to) {
+            return buildArchiveLocation(locationSetting).buildUpon()
+                    .appendQueryParameter(PARAM_FROM, Long.toString(from))
+                    .appendQueryParameter(PARAM_TO, Long.toString(to)).build();
+        }
+
+        /*
+            A batch of compaction as of now, each half in one short transaction and neither
+            taking a selection.  Deleting through this uri drops up to maxWeeks weeks' worth of
+            rows past RETENTION_DAYS and returns how many.  Updating through it, with no values,
+            folds the daily rows of up to maxWeeks weeks past DAILY_RETENTION_DAYS into weekly
+            ones and returns how many rows were folded; no day is lost that way.  Run both again
+            until they return 0.
+         */
+        public static Uri buildCompactionUri(long now, int maxWeeks) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_COMPACT)
+                    .appendQueryParameter(PARAM_COMPACT_AT, Long.toString(now))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(maxWeeks)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        // 0 if the uri has no from
+        public static long getFromFromUri(Uri uri) {
+            String fromString = uri.getQueryParameter(PARAM_FROM);
+            if (null != fromString && fromString.length() > 0)
+                return Long.parseLong(fromString);
+            else
+                return 0;
+        }
+
+        // Long.MAX_VALUE if the uri has no to
+        public static long getToFromUri(Uri uri) {
+            String toString = uri.getQueryParameter(PARAM_TO);
+            if (null != toString && toString.length() > 0)
+                return Long.parseLong(toString);
+            else
+                return Long.MAX_VALUE;
+        }
+
+        public static long getCompactAtFromUri(Uri uri) {
+            return Long.parseLong(uri.getQueryParameter(PARAM_COMPACT_AT));
+        }
+
+        public static int getLimitFromUri(Uri uri) {
+            return Integer.parseInt(uri.getQueryParameter(PARAM_LIMIT));
+        }
+    }
+
+    /*
+        Read-only aggregates over a range of a location's weather or archive, computed by SQLite
+        so a summary is one small cursor rather than every row.  A stats uri returns exactly one
+        row with the COLUMN_ columns below; with no days in the range COLUMN_DAYS is 0 and the
+        others are null.  A conditions uri returns the histogram of conditions, one row per
+        weather id with COLUMN_WEATHER_ID and COLUMN_DAYS, most frequent first.  Archived weeks
+        count for the days they hold and keep what the stats need of them, so compaction doesn't
+        change the stats.  It does change the conditions: a week keeps only the condition seen on
+        most of its days, and counts all of them for it.
+     */
+    public static final class StatsEntry {
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+        public static final String CONDITIONS_CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CONDITIONS;
+
+        // How many days the aggregates are over
+        public static final String COLUMN_DAYS = "days";
+        // The lowest low and highest high, and the averages of the lows and highs
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        public static final String COLUMN_AVG_MIN_TEMP = "avg_min";
+        public static final String COLUMN_AVG_MAX_TEMP = "avg_max";
+        public static final String COLUMN_MIN_HUMIDITY = "min_humidity";
+        public static final String COLUMN_MAX_HUMIDITY = "max_humidity";
+        public static final String COLUMN_AVG_HUMIDITY = "avg_humidity";
+        public static final String COLUMN_MIN_PRESSURE = "min_pressure";
+        public static final String COLUMN_MAX_PRESSURE = "max_pressure";
+        public static final String COLUMN_AVG_PRESSURE = "avg_pressure";
+        // Conditions only
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+
+        // Query parameters bounding the range of dates: days at or after from, and before to.
+        public static final String PARAM_FROM = "from";
+        public static final String PARAM_TO = "to";
+
+        public static Uri buildWeatherStats(String locationSetting, long from, long to) {
+            return withRange(WeatherEntry.buildWeatherLocation(locationSetting), PATH_STATS,
+                    from, to);
+        }
+
+        public static Uri buildWeatherConditions(String locationSetting, long from, long to) {
+            return withRange(WeatherEntry.buildWeatherLocation(locationSetting), PATH_CONDITIONS,
+                    from, to);
+        }
+
+        public static Uri buildArchiveStats(String locationSetting, long from, long to) {
+            return withRange(ArchiveEntry.buildArchiveLocation(locationSetting), PATH_STATS,
+                    from, to);
+        }
+
+        public static Uri buildArchiveConditions(String locationSetting, long from, long to) {
+            return withRange(ArchiveEntry.buildArchiveLocation(locationSetting), PATH_CONDITIONS,
+                    from, to);
+        }
+
+        private static Uri withRange(Uri locationUri, String path, long from, long to) {
+            return locationUri.buildUpon().appendPath(path)
+                    .appendQueryParameter(PARAM_FROM, Long.toString(from))
+                    .appendQueryParameter(PARAM_TO, Long.toString(to)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        // 0 if the uri has no from
+        public static long getFromFromUri(Uri uri) {
+            String fromString = uri.getQueryParameter(PARAM_FROM);
+            if (null != fromString && fromString.length() > 0)
+                return Long.parseLong(fromString);
+            else
+                return 0;
+        }
+
+        // Long.MAX_VALUE if the uri has no to
+        public static long getToFromUri(Uri uri) {
+            String toString = uri.getQueryParameter(PARAM_TO);
+            if (null != toString && toString.length() > 0)
+                return Long.parseLong(toString);
+            else
+                return Long.MAX_VALUE;
+        }
+    }
+
+    /*
+        Read-only view of the timings of the most recent syncs, newest first.  Not backed by a
+        table: the sync adapter keeps them in memory, so they only cover the current process.
+        All durations are in milliseconds.  CACHE_URI reads the provider's query cache counters
+        the same way.
+     */
+    public static final class DiagnosticsEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_DIAGNOSTICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DIAGNOSTICS;
+
+        // When the sync started, in milliseconds since the epoch
+        public static final String COLUMN_STARTED = "started";
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+        // The location status the sync finished with, see SunshineSyncAdapter.LocationStatus
+        public static final String COLUMN_LOCATION_STATUS = "location_status";
+        public static final String COLUMN_TOTAL_MILLIS = "total_millis";
+
+        // Where the time went.  Phases the sync didn't reach are 0.
+        public static final String COLUMN_CONNECT_MILLIS = "connect_millis";
+        public static final String COLUMN_DOWNLOAD_MILLIS = "download_millis";
+        public static final String COLUMN_PARSE_MILLIS = "parse_millis";
+        // Writing the location, the new days and pruning the old ones, all in one transaction
+        public static final String COLUMN_COMMIT_MILLIS = "commit_millis";
+        public static final String COLUMN_WIDGETS_MILLIS = "widgets_millis";
+        public static final String COLUMN_MUZEI_MILLIS = "muzei_millis";
+        public static final String COLUMN_NOTIFICATION_MILLIS = "notification_millis";
+        public static final String COLUMN_WEAR_MILLIS = "wear_millis";
+
+        public static final String COLUMN_ROWS_INSERTED = "rows_inserted";
+        public static final String COLUMN_ROWS_DELETED = "rows_deleted";
+
+        // The provider's query cache: a single row of counters since the process started.
+        public static final Uri CACHE_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_CACHE).build();
+
+        public static final String CACHE_CONTENT_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DIAGNOSTICS + "/" + PATH_CACHE;
+
+        public static final String COLUMN_CACHE_HITS = "cache_hits";
+        public static final String COLUMN_CACHE_MISSES = "cache_misses";
+        // Results dropped to make room, and dropped because something they were read from changed
+        public static final String COLUMN_CACHE_EVICTIONS = "cache_evictions";
+        public static final String COLUMN_CACHE_INVALIDATIONS = "cache_invalidations";
+        // Results kept right now
+        public static final String COLUMN_CACHE_ENTRIES = "cache_entries";
     }
 }
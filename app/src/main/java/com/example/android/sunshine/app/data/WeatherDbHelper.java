@@ -19,6 +19,8 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -28,10 +30,38 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 8;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // The UNIQUE constraint's index on (location_id, date) also serves the range queries.
+    private static final String SQL_CREATE_ARCHIVE_TABLE = "CREATE TABLE " + ArchiveEntry.TABLE_NAME + " (" +
+            ArchiveEntry._ID + " INTEGER PRIMARY KEY," +
+            ArchiveEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_SAMPLES + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_AVG_MIN_TEMP + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_AVG_MAX_TEMP + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+
+            " FOREIGN KEY (" + ArchiveEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+            " UNIQUE (" + ArchiveEntry.COLUMN_LOC_KEY + ", " +
+            ArchiveEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+    // The weather table's UNIQUE constraint is on (date, location_id), which doesn't help
+    // finding a range of dates for a location, as the stats and every list query do.
+    private static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX =
+            "CREATE INDEX " + WeatherEntry.INDEX_LOCATION_DATE + " ON " + WeatherEntry.TABLE_NAME +
+            " (" + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");";
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
@@ -45,7 +75,9 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 0, " +
+                LocationEntry.COLUMN_LAST_SYNC + " INTEGER NOT NULL DEFAULT 0 " +
                 " );";
 
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
@@ -79,20 +111,63 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
+        // Everything is an integer to keep the rows small; see HourlyEntry.  The UNIQUE
+        // constraint's index on (location_id, time) also serves the time window queries.
+        final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                HourlyEntry._ID + " INTEGER PRIMARY KEY," +
+                HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_TIME + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_TEMP + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_DEGREES + " INTEGER NOT NULL, " +
+
+                " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+                HourlyEntry.COLUMN_TIME + ") ON CONFLICT REPLACE);";
+
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_ARCHIVE_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < 5) {
+            // Until the archive this database was only a cache for online data, so its upgrade
+            // policy was to simply to discard the data and start over
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+
+        // The archive holds history that can't be downloaded again, so from here on every
+        // version gets a step that migrates the schema in place.  Never drop a table below.
+        if (oldVersion < 6) {
+            sqLiteDatabase.execSQL(SQL_CREATE_ARCHIVE_TABLE);
+        }
+        if (oldVersion < 7) {
+            sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        }
+        if (oldVersion >= 6 && oldVersion < 8) {
+            // An archive created above already has the averages.  Days are their own averages;
+            // for weeks already folded the extremes are all that is left.
+            sqLiteDatabase.execSQL("ALTER TABLE " + ArchiveEntry.TABLE_NAME + " ADD COLUMN " +
+                    ArchiveEntry.COLUMN_AVG_MIN_TEMP + " REAL NOT NULL DEFAULT 0");
+            sqLiteDatabase.execSQL("ALTER TABLE " + ArchiveEntry.TABLE_NAME + " ADD COLUMN " +
+                    ArchiveEntry.COLUMN_AVG_MAX_TEMP + " REAL NOT NULL DEFAULT 0");
+            sqLiteDatabase.execSQL("UPDATE " + ArchiveEntry.TABLE_NAME + " SET " +
+                    ArchiveEntry.COLUMN_AVG_MIN_TEMP + " = " + ArchiveEntry.COLUMN_MIN_TEMP + ", " +
+                    ArchiveEntry.COLUMN_AVG_MAX_TEMP + " = " + ArchiveEntry.COLUMN_MAX_TEMP);
+        }
     }
 }
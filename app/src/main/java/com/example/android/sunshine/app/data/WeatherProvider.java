@@ -17,25 +17,67 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+
+import com.example.android.sunshine.app.sync.SyncDiagnostics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TimeZone;
 
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    // Null below Honeycomb, where every query goes to the database.
+    private QueryCache mQueryCache;
+
+    // Set while applyBatch runs on a thread, so the operations it applies share its transaction
+    // and leave the notifying to it.
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<Batch>();
+
+    private static final class Batch {
+        final TimeZone timeZone = TimeZone.getDefault();
+        final Set<Uri> changedUris = new HashSet<Uri>();
+    }
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_STATS = 103;
+    static final int WEATHER_CONDITIONS = 104;
     static final int LOCATION = 300;
+    static final int DIAGNOSTICS = 400;
+    static final int DIAGNOSTICS_CACHE = 401;
+    static final int HOURLY = 500;
+    static final int HOURLY_WITH_LOCATION = 501;
+    static final int HOURLY_WITH_LOCATION_AND_TIME = 502;
+    static final int ARCHIVE = 600;
+    static final int ARCHIVE_WITH_LOCATION = 601;
+    static final int ARCHIVE_STATS = 602;
+    static final int ARCHIVE_CONDITIONS = 603;
+    static final int ARCHIVE_COMPACT = 604;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sHourlyByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sArchiveByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sWeatherStatsQueryBuilder;
+    private static final SQLiteQueryBuilder sWeatherConditionsQueryBuilder;
+    private static final SQLiteQueryBuilder sArchiveStatsQueryBuilder;
+    private static final SQLiteQueryBuilder sArchiveConditionsQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -49,8 +91,130 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        //weather_hourly INNER JOIN location ON weather_hourly.location_id = location._id
+        sHourlyByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sHourlyByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HourlyEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HourlyEntry.TABLE_NAME +
+                        "." + WeatherContract.HourlyEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+
+        //weather_archive INNER JOIN location ON weather_archive.location_id = location._id
+        sArchiveByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sArchiveByLocationSettingQueryBuilder.setTables(
+                WeatherContract.ArchiveEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.ArchiveEntry.TABLE_NAME +
+                        "." + WeatherContract.ArchiveEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+
+        // Each weather row is one day; an archive row is as many days as it has samples.
+        sWeatherStatsQueryBuilder = buildAggregateQueryBuilder(
+                WeatherContract.WeatherEntry.TABLE_NAME,
+                buildStatsProjectionMap(WeatherContract.WeatherEntry.TABLE_NAME, "1",
+                        WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                        WeatherContract.WeatherEntry.COLUMN_MAX_TEMP));
+        sWeatherConditionsQueryBuilder = buildAggregateQueryBuilder(
+                WeatherContract.WeatherEntry.TABLE_NAME,
+                buildConditionsProjectionMap(WeatherContract.WeatherEntry.TABLE_NAME, "1"));
+        sArchiveStatsQueryBuilder = buildAggregateQueryBuilder(
+                WeatherContract.ArchiveEntry.TABLE_NAME,
+                buildStatsProjectionMap(WeatherContract.ArchiveEntry.TABLE_NAME,
+                        WeatherContract.ArchiveEntry.COLUMN_SAMPLES,
+                        WeatherContract.ArchiveEntry.COLUMN_AVG_MIN_TEMP,
+                        WeatherContract.ArchiveEntry.COLUMN_AVG_MAX_TEMP));
+        sArchiveConditionsQueryBuilder = buildAggregateQueryBuilder(
+                WeatherContract.ArchiveEntry.TABLE_NAME,
+                buildConditionsProjectionMap(WeatherContract.ArchiveEntry.TABLE_NAME,
+                        WeatherContract.ArchiveEntry.COLUMN_SAMPLES));
     }
 
+    //table INNER JOIN location ON table.location_id = location._id, for the weather and archive
+    //tables, whose columns have the same names.  Only the StatsEntry columns can be projected.
+    private static SQLiteQueryBuilder buildAggregateQueryBuilder(
+            String table, HashMap<String, String> projectionMap) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(
+                table + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + table +
+                        "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+        builder.setProjectionMap(projectionMap);
+        return builder;
+    }
+
+    // Aggregates over rows that each stand for weight days, whose lows and highs average to
+    // lowColumn and highColumn.
+    private static HashMap<String, String> buildStatsProjectionMap(String table, String weight,
+                                                                   String lowColumn,
+                                                                   String highColumn) {
+        HashMap<String, String> map = new HashMap<String, String>();
+        putAggregate(map, WeatherContract.StatsEntry.COLUMN_DAYS,
+                "IFNULL(SUM(" + weight + "), 0)");
+        putAggregate(map, WeatherContract.StatsEntry.COLUMN_MIN_TEMP,
+                "MIN(" + table + "." + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ")");
+        putAggregate(map, WeatherContract.StatsEntry.COLUMN_MAX_TEMP,
+                "MAX(" + table + "." + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ")");
+        putAggregate(map, WeatherContract.StatsEntry.COLUMN_AVG_MIN_TEMP,
+                weightedAverage(table, lowColumn, weight));
+        putAggregate(map, WeatherContract.StatsEntry.COLUMN_AVG_MAX_TEMP,
+                weightedAverage(table, highColumn, weight));
+        putAggregate(map, WeatherContract.StatsEntry.COLUMN_MIN_HUMIDITY,
+                "MIN(" + table + "." + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ")");
+        putAggregate(map, WeatherContract.StatsEntry.COLUMN_MAX_HUMIDITY,
+                "MAX(" + table + "." + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ")");
+        putAggregate(map, WeatherContract.StatsEntry.COLUMN_AVG_HUMIDITY,
+                weightedAverage(table, WeatherContract.WeatherEntry.COLUMN_HUMIDITY, weight));
+        putAggregate(map, WeatherContract.StatsEntry.COLUMN_MIN_PRESSURE,
+                "MIN(" + table + "." + WeatherContract.WeatherEntry.COLUMN_PRESSURE + ")");
+        putAggregate(map, WeatherContract.StatsEntry.COLUMN_MAX_PRESSURE,
+                "MAX(" + table + "." + WeatherContract.WeatherEntry.COLUMN_PRESSURE + ")");
+        putAggregate(map, WeatherContract.StatsEntry.COLUMN_AVG_PRESSURE,
+                weightedAverage(table, WeatherContract.WeatherEntry.COLUMN_PRESSURE, weight));
+        return map;
+    }
+
+    // The histogram: how many days of each condition.
+    private static HashMap<String, String> buildConditionsProjectionMap(String table,
+                                                                        String weight) {
+        HashMap<String, String> map = new HashMap<String, String>();
+        putAggregate(map, WeatherContract.StatsEntry.COLUMN_WEATHER_ID,
+                table + "." + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        putAggregate(map, WeatherContract.StatsEntry.COLUMN_DAYS, "SUM(" + weight + ")");
+        return map;
+    }
+
+    private static String weightedAverage(String table, String column, String weight) {
+        return "SUM(" + table + "." + column + " * " + weight + ") / SUM(" + weight + ")";
+    }
+
+    private static void putAggregate(HashMap<String, String> map, String column,
+                                     String expression) {
+        map.put(column, expression + " AS " + column);
+    }
+
+    // The hourly rows are written with this compiled statement rather than through insert(),
+    // which would build a ContentValues-backed statement for each of them.
+    private static final String sInsertHourlySql = "INSERT INTO " +
+            WeatherContract.HourlyEntry.TABLE_NAME + " (" +
+            WeatherContract.HourlyEntry.COLUMN_LOC_KEY + ", " +
+            WeatherContract.HourlyEntry.COLUMN_TIME + ", " +
+            WeatherContract.HourlyEntry.COLUMN_TEMP + ", " +
+            WeatherContract.HourlyEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherContract.HourlyEntry.COLUMN_HUMIDITY + ", " +
+            WeatherContract.HourlyEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherContract.HourlyEntry.COLUMN_DEGREES + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    //location_setting = ?
+    private static final String sLocationSettingOnlySelection =
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
+
     //location.location_setting = ?
     private static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
@@ -93,6 +257,107 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    //location.location_setting = ? AND time >= ? AND time < ?
+    private static final String sLocationSettingWithTimeWindowSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " >= ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " < ? ";
+
+    //location.location_setting = ? AND time = ?
+    private static final String sLocationSettingAndTimeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " = ? ";
+
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        long start = WeatherContract.HourlyEntry.getStartFromUri(uri);
+        long end = WeatherContract.HourlyEntry.getEndFromUri(uri);
+
+        return sHourlyByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingWithTimeWindowSelection,
+                new String[]{locationSetting, Long.toString(start), Long.toString(end)},
+                null,
+                null,
+                null == sortOrder ? WeatherContract.HourlyEntry.COLUMN_TIME + " ASC" : sortOrder
+        );
+    }
+
+    private Cursor getHourlyByLocationSettingAndTime(
+            Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        long time = WeatherContract.HourlyEntry.getTimeFromUri(uri);
+
+        return sHourlyByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingAndTimeSelection,
+                new String[]{locationSetting, Long.toString(time)},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    //location.location_setting = ? AND table.date >= ? AND table.date < ?
+    private static String buildRangeSelection(String table) {
+        return WeatherContract.LocationEntry.TABLE_NAME +
+                "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                table + "." + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                table + "." + WeatherContract.WeatherEntry.COLUMN_DATE + " < ? ";
+    }
+
+    private static final String sWeatherRangeSelection =
+            buildRangeSelection(WeatherContract.WeatherEntry.TABLE_NAME);
+
+    private static final String sArchiveRangeSelection =
+            buildRangeSelection(WeatherContract.ArchiveEntry.TABLE_NAME);
+
+    private Cursor getArchiveByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.ArchiveEntry.getLocationSettingFromUri(uri);
+        long from = WeatherContract.ArchiveEntry.getFromFromUri(uri);
+        long to = WeatherContract.ArchiveEntry.getToFromUri(uri);
+
+        return sArchiveByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sArchiveRangeSelection,
+                new String[]{locationSetting, Long.toString(from), Long.toString(to)},
+                null,
+                null,
+                null == sortOrder ? WeatherContract.ArchiveEntry.COLUMN_DATE + " ASC" : sortOrder
+        );
+    }
+
+    /*
+        Runs one of the aggregate query builders over the range in uri.  Conditions are grouped
+        by weather id; stats are a single group, so they always come back as exactly one row.
+     */
+    private Cursor getAggregate(SQLiteQueryBuilder builder, String rangeSelection, String table,
+                                boolean conditions, Uri uri, String[] projection,
+                                String sortOrder) {
+        String locationSetting = WeatherContract.StatsEntry.getLocationSettingFromUri(uri);
+        long from = WeatherContract.StatsEntry.getFromFromUri(uri);
+        long to = WeatherContract.StatsEntry.getToFromUri(uri);
+
+        String groupBy = null;
+        if (conditions) {
+            groupBy = table + "." + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID;
+            if (null == sortOrder) {
+                sortOrder = WeatherContract.StatsEntry.COLUMN_DAYS + " DESC, " +
+                        WeatherContract.StatsEntry.COLUMN_WEATHER_ID + " ASC";
+            }
+        }
+        return builder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                rangeSelection,
+                new String[]{locationSetting, Long.toString(from), Long.toString(to)},
+                groupBy,
+                null,
+                sortOrder
+        );
+    }
+
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
@@ -128,8 +393,35 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_STATS,
+                WEATHER_STATS);
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_CONDITIONS,
+                WEATHER_CONDITIONS);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_DIAGNOSTICS, DIAGNOSTICS);
+        matcher.addURI(authority,
+                WeatherContract.PATH_DIAGNOSTICS + "/" + WeatherContract.PATH_CACHE,
+                DIAGNOSTICS_CACHE);
+
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_HOURLY + "/*", HOURLY_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_HOURLY + "/*/#",
+                HOURLY_WITH_LOCATION_AND_TIME);
+
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE, ARCHIVE);
+        // Added before the location wildcard, which would match it too.
+        matcher.addURI(authority,
+                WeatherContract.PATH_ARCHIVE + "/" + WeatherContract.PATH_COMPACT,
+                ARCHIVE_COMPACT);
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE + "/*", ARCHIVE_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE + "/*/" + WeatherContract.PATH_STATS,
+                ARCHIVE_STATS);
+        matcher.addURI(authority,
+                WeatherContract.PATH_ARCHIVE + "/*/" + WeatherContract.PATH_CONDITIONS,
+                ARCHIVE_CONDITIONS);
         return matcher;
     }
 
@@ -140,6 +432,9 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            mQueryCache = new QueryCache();
+        }
         return true;
     }
 
@@ -164,6 +459,25 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case DIAGNOSTICS:
+                return WeatherContract.DiagnosticsEntry.CONTENT_TYPE;
+            case DIAGNOSTICS_CACHE:
+                return WeatherContract.DiagnosticsEntry.CACHE_CONTENT_TYPE;
+            case HOURLY_WITH_LOCATION_AND_TIME:
+                return WeatherContract.HourlyEntry.CONTENT_ITEM_TYPE;
+            case HOURLY_WITH_LOCATION:
+            case HOURLY:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case ARCHIVE_WITH_LOCATION:
+            case ARCHIVE:
+            case ARCHIVE_COMPACT:
+                return WeatherContract.ArchiveEntry.CONTENT_TYPE;
+            case WEATHER_STATS:
+            case ARCHIVE_STATS:
+                return WeatherContract.StatsEntry.CONTENT_TYPE;
+            case WEATHER_CONDITIONS:
+            case ARCHIVE_CONDITIONS:
+                return WeatherContract.StatsEntry.CONDITIONS_CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -172,10 +486,27 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        final int match = sUriMatcher.match(uri);
+
+        // The per-location queries only depend on the uri, so they can be answered from the
+        // cache until something they read from changes.  Not inside a batch, which could still
+        // roll back what it lets its own queries see.
+        String cacheKey = null;
+        long cacheGeneration = 0;
+        if (null != mQueryCache && null == mBatch.get() && isCacheable(match)) {
+            cacheKey = QueryCache.key(match, uri, projection, sortOrder);
+            cacheGeneration = mQueryCache.getGeneration();
+            Cursor cached = mQueryCache.get(cacheKey);
+            if (null != cached) {
+                cached.setNotificationUri(getContext().getContentResolver(), uri);
+                return cached;
+            }
+        }
+
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
@@ -213,14 +544,115 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "diagnostics"
+            case DIAGNOSTICS: {
+                retCursor = SyncDiagnostics.query(projection);
+                break;
+            }
+            // "diagnostics/cache"
+            case DIAGNOSTICS_CACHE: {
+                retCursor = null == mQueryCache ? QueryCache.queryEmptyCounters(projection)
+                        : mQueryCache.queryCounters(projection);
+                break;
+            }
+            // "weather_hourly/*/*"
+            case HOURLY_WITH_LOCATION_AND_TIME: {
+                retCursor = getHourlyByLocationSettingAndTime(uri, projection, sortOrder);
+                break;
+            }
+            // "weather_hourly/*"
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "weather_hourly"
+            case HOURLY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "weather/*/stats"
+            case WEATHER_STATS: {
+                retCursor = getAggregate(sWeatherStatsQueryBuilder, sWeatherRangeSelection,
+                        WeatherContract.WeatherEntry.TABLE_NAME, false, uri, projection,
+                        sortOrder);
+                break;
+            }
+            // "weather/*/conditions"
+            case WEATHER_CONDITIONS: {
+                retCursor = getAggregate(sWeatherConditionsQueryBuilder, sWeatherRangeSelection,
+                        WeatherContract.WeatherEntry.TABLE_NAME, true, uri, projection,
+                        sortOrder);
+                break;
+            }
+            // "archive/*/stats"
+            case ARCHIVE_STATS: {
+                retCursor = getAggregate(sArchiveStatsQueryBuilder, sArchiveRangeSelection,
+                        WeatherContract.ArchiveEntry.TABLE_NAME, false, uri, projection,
+                        sortOrder);
+                break;
+            }
+            // "archive/*/conditions"
+            case ARCHIVE_CONDITIONS: {
+                retCursor = getAggregate(sArchiveConditionsQueryBuilder, sArchiveRangeSelection,
+                        WeatherContract.ArchiveEntry.TABLE_NAME, true, uri, projection,
+                        sortOrder);
+                break;
+            }
+            // "archive/*"
+            case ARCHIVE_WITH_LOCATION: {
+                retCursor = getArchiveByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "archive"
+            case ARCHIVE: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.ArchiveEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
+        if (null != cacheKey) {
+            retCursor = mQueryCache.put(cacheKey, uri, cacheGeneration, retCursor);
+        }
         retCursor.setNotificationUri(getContext().getContentResolver(), uri);
         return retCursor;
     }
 
+    // The queries that ignore the selection and take everything from the uri.
+    private static boolean isCacheable(int match) {
+        switch (match) {
+            case WEATHER_WITH_LOCATION:
+            case WEATHER_WITH_LOCATION_AND_DATE:
+            case WEATHER_STATS:
+            case WEATHER_CONDITIONS:
+            case HOURLY_WITH_LOCATION:
+            case HOURLY_WITH_LOCATION_AND_TIME:
+            case ARCHIVE_WITH_LOCATION:
+            case ARCHIVE_STATS:
+            case ARCHIVE_CONDITIONS:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     /*
         Student: Add the ability to insert Locations to the implementation of this function.
      */
@@ -232,7 +664,8 @@ public class WeatherProvider extends ContentProvider {
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
+                Batch batch = mBatch.get();
+                normalizeDate(values, null == batch ? TimeZone.getDefault() : batch.timeZone);
                 long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
@@ -241,7 +674,7 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
             case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                long _id = upsertLocation(db, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
@@ -251,41 +684,139 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
+    /*
+        A location setting only ever has one row, so inserting one that is already there updates
+        it in place and keeps its _id, which the weather rows refer to.  That makes a sync safe to
+        apply twice.
+     */
+    private long upsertLocation(SQLiteDatabase db, ContentValues values) {
+        String locationSetting =
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        db.beginTransaction();
+        try {
+            long _id = -1;
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry._ID},
+                    sLocationSettingOnlySelection,
+                    new String[]{locationSetting},
+                    null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    _id = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+            if (_id > 0) {
+                db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                        WeatherContract.LocationEntry._ID + " = ?",
+                        new String[]{Long.toString(_id)});
+            } else {
+                _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+            return _id;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
+        if (ARCHIVE_COMPACT == match) {
+            return compactArchive(db, uri, selection, true);
+        }
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = deleteWeather(db, selection, selectionArgs);
                 break;
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case HOURLY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case ARCHIVE:
+                rowsDeleted = db.delete(
+                        WeatherContract.ArchiveEntry.TABLE_NAME, selection, selectionArgs);
+                break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
+        }
+        return rowsDeleted;
+    }
+
+    /*
+        Runs half a batch of compaction, see ArchiveEntry.buildCompactionUri: dropping the rows
+        past retention if expire is set, otherwise folding old days into weeks.  Either way the
+        rows come from the uri alone, so a selection is refused rather than ignored.
+     */
+    private int compactArchive(SQLiteDatabase db, Uri uri, String selection, boolean expire) {
+        if (null != selection) {
+            throw new IllegalArgumentException("Compaction takes no selection: " + uri);
+        }
+        long now = WeatherContract.ArchiveEntry.getCompactAtFromUri(uri);
+        int maxWeeks = WeatherContract.ArchiveEntry.getLimitFromUri(uri);
+        int rows = expire
+                ? WeatherArchive.expire(db, now, TimeZone.getDefault(), maxWeeks)
+                : WeatherArchive.foldWeeks(db, now, TimeZone.getDefault(), maxWeeks);
+        // The compaction uri isn't a location's, so notify for the whole archive.
+        if (rows != 0) {
+            notifyChange(WeatherContract.ArchiveEntry.CONTENT_URI);
+        }
+        return rows;
+    }
+
+    /*
+        Days that have gone by are copied into the archive before they are deleted, in the same
+        transaction, so the sync's pruning of old days is what fills the archive.
+     */
+    private int deleteWeather(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Batch batch = mBatch.get();
+        TimeZone timeZone = null == batch ? TimeZone.getDefault() : batch.timeZone;
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis(), timeZone);
+        int archived;
+        int rowsDeleted;
+        db.beginTransaction();
+        try {
+            archived = WeatherArchive.archivePastDays(db, selection, selectionArgs, today);
+            rowsDeleted = db.delete(
+                    WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (archived != 0) {
+            notifyChange(WeatherContract.ArchiveEntry.CONTENT_URI);
         }
         return rowsDeleted;
     }
 
     private void normalizeDate(ContentValues values) {
+        normalizeDate(values, TimeZone.getDefault());
+    }
+
+    private void normalizeDate(ContentValues values, TimeZone timeZone) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
             long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
+            values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    WeatherContract.normalizeDate(dateValue, timeZone));
         }
     }
 
@@ -302,19 +833,86 @@ public class WeatherProvider extends ContentProvider {
                 rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
                         selectionArgs);
                 break;
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                rowsUpdated = applyDayDelta(db, uri, values);
+                // It moved the location's version on as well.
+                if (rowsUpdated != 0) {
+                    notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+                }
+                break;
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
                 break;
+            case ARCHIVE_COMPACT:
+                if (null != values && values.size() > 0) {
+                    throw new IllegalArgumentException("Compaction takes no values: " + uri);
+                }
+                return compactArchive(db, uri, selection, false);
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
 
+    /*
+        Applies a delta to one day of a location's forecast, the uri carrying the version it was
+        computed from and the one it brings the forecast to.  It only applies on top of its base
+        version: if the stored forecast is at any other version, or has no such day, nothing is
+        written and 0 is returned so the caller can fetch the whole forecast instead.  The day and
+        the location's new version are written together.
+     */
+    private int applyDayDelta(SQLiteDatabase db, Uri uri, ContentValues values) {
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+        long baseVersion = WeatherContract.WeatherEntry.getBaseVersionFromUri(uri);
+        long version = WeatherContract.WeatherEntry.getVersionFromUri(uri);
+        if (baseVersion <= 0 || version <= baseVersion) {
+            throw new IllegalArgumentException("Invalid delta versions in " + uri);
+        }
+
+        db.beginTransaction();
+        try {
+            long locationId = -1;
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry._ID},
+                    sLocationSettingOnlySelection + " AND " +
+                            WeatherContract.LocationEntry.COLUMN_VERSION + " = ?",
+                    new String[]{locationSetting, Long.toString(baseVersion)},
+                    null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    locationId = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+            if (locationId <= 0) {
+                return 0;
+            }
+
+            String id = Long.toString(locationId);
+            int rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                            WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
+                    new String[]{id, Long.toString(date)});
+            if (rowsUpdated == 0) {
+                return 0;
+            }
+            ContentValues versionValues = new ContentValues();
+            versionValues.put(WeatherContract.LocationEntry.COLUMN_VERSION, version);
+            db.update(WeatherContract.LocationEntry.TABLE_NAME, versionValues,
+                    WeatherContract.LocationEntry._ID + " = ?", new String[]{id});
+            db.setTransactionSuccessful();
+            return rowsUpdated;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
@@ -323,9 +921,10 @@ public class WeatherProvider extends ContentProvider {
             case WEATHER:
                 db.beginTransaction();
                 int returnCount = 0;
+                TimeZone timeZone = TimeZone.getDefault();
                 try {
                     for (ContentValues value : values) {
-                        normalizeDate(value);
+                        normalizeDate(value, timeZone);
                         long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
                         if (_id != -1) {
                             returnCount++;
@@ -335,13 +934,127 @@ public class WeatherProvider extends ContentProvider {
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChange(uri);
                 return returnCount;
+            case HOURLY_WITH_LOCATION: {
+                int hourlyCount = replaceHourly(db, uri, values);
+                if (hourlyCount > 0) {
+                    notifyChange(uri);
+                }
+                return hourlyCount;
+            }
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /*
+        Replaces a location's hourly forecast with values, in one transaction.  The location must
+        already be stored; if it isn't nothing is written and 0 is returned.  Every column of
+        HourlyEntry other than the location key is required.
+     */
+    private int replaceHourly(SQLiteDatabase db, Uri uri, ContentValues[] values) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        int returnCount = 0;
+        db.beginTransaction();
+        try {
+            long locationId = -1;
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry._ID},
+                    sLocationSettingOnlySelection,
+                    new String[]{locationSetting},
+                    null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    locationId = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+            if (locationId <= 0) {
+                return 0;
+            }
+
+            db.delete(WeatherContract.HourlyEntry.TABLE_NAME,
+                    WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = ?",
+                    new String[]{Long.toString(locationId)});
+            SQLiteStatement insert = db.compileStatement(sInsertHourlySql);
+            try {
+                for (ContentValues value : values) {
+                    insert.bindLong(1, locationId);
+                    insert.bindLong(2, value.getAsLong(WeatherContract.HourlyEntry.COLUMN_TIME));
+                    insert.bindLong(3, value.getAsLong(WeatherContract.HourlyEntry.COLUMN_TEMP));
+                    insert.bindLong(4,
+                            value.getAsLong(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID));
+                    insert.bindLong(5,
+                            value.getAsLong(WeatherContract.HourlyEntry.COLUMN_HUMIDITY));
+                    insert.bindLong(6,
+                            value.getAsLong(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED));
+                    insert.bindLong(7, value.getAsLong(WeatherContract.HourlyEntry.COLUMN_DEGREES));
+                    if (insert.executeInsert() != -1) {
+                        returnCount++;
+                    }
+                }
+            } finally {
+                insert.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return returnCount;
+    }
+
+    /**
+     * Applies the operations in one transaction, so they land together or not at all, and sends
+     * a single change notification once they have.  The sync commits a whole forecast this way.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Batch batch = new Batch();
+        ContentProviderResult[] results;
+        mBatch.set(batch);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatch.remove();
+        }
+        if (null != mQueryCache) {
+            for (Uri uri : batch.changedUris) {
+                mQueryCache.invalidate(uri);
+            }
+        }
+
+        // One notification covering everything that changed: the uri itself if only one was
+        // touched, otherwise the root, which reaches every observer of this provider.
+        if (batch.changedUris.size() == 1) {
+            getContext().getContentResolver().notifyChange(
+                    batch.changedUris.iterator().next(), null);
+        } else if (batch.changedUris.size() > 1) {
+            getContext().getContentResolver().notifyChange(WeatherContract.BASE_CONTENT_URI, null);
+        }
+        return results;
+    }
+
+    private void notifyChange(Uri uri) {
+        Batch batch = mBatch.get();
+        if (null != batch) {
+            batch.changedUris.add(uri);
+        } else {
+            // Every write has committed by the time it notifies, so nothing can refill the
+            // cache with what was there before.
+            if (null != mQueryCache) {
+                mQueryCache.invalidate(uri);
+            }
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -20,15 +20,22 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.net.Uri;
 import android.os.Bundle;
+import android.preference.PreferenceManager;
 import android.support.v4.app.NotificationCompat;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.ForecastPublisher;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.gcm.GcmListenerService;
 
 import org.json.JSONException;
@@ -44,6 +51,11 @@ public class MyGcmListenerService extends GcmListenerService {
 
     public static final int NOTIFICATION_ID = 1;
 
+    // What became of a delta; see applyDelta.
+    static final int DELTA_APPLIED = 0;
+    static final int DELTA_STALE = 1;
+    static final int DELTA_GAP = 2;
+
     /**
      * Called when message is received.
      *
@@ -62,42 +74,131 @@ public class MyGcmListenerService extends GcmListenerService {
             }
             // Not a bad idea to check that the message is coming from your server.
             if ((senderId).equals(from)) {
-                // Process message and then post a notification of the received message.
-                try {
-                    JSONObject jsonObject = new JSONObject(data.getString(EXTRA_DATA));
-                    String weather = jsonObject.getString(EXTRA_WEATHER);
-                    String location = jsonObject.getString(EXTRA_LOCATION);
-                    String alert =
-                            String.format(getString(R.string.gcm_weather_alert), weather, location);
-                    sendNotification(alert);
-                } catch (JSONException e) {
-                    // JSON parsing failed, so we just let this message go, since GCM is not one
-                    // of our critical features.
-                }
+                handleMessage(this, data);
             }
             Log.i(TAG, "Received: " + data.toString());
         }
     }
 
+    /**
+     * Acts on a message known to come from our server.  Separate from onMessageReceived so that
+     * message bundles can be fed in directly.
+     */
+    static void handleMessage(Context context, Bundle data) {
+        // A forecast changed on the server: fetch it now instead of waiting for the next poll.
+        WeatherPushMessage push = WeatherPushMessage.fromBundle(data);
+        if (null != push) {
+            onForecastChanged(context, push);
+        }
+
+        if (data.containsKey(EXTRA_DATA)) {
+            // Process message and then post a notification of the received message.
+            try {
+                JSONObject jsonObject = new JSONObject(data.getString(EXTRA_DATA));
+                String weather = jsonObject.getString(EXTRA_WEATHER);
+                String location = jsonObject.getString(EXTRA_LOCATION);
+                String alert =
+                        String.format(context.getString(R.string.gcm_weather_alert), weather, location);
+                sendNotification(context, alert);
+            } catch (JSONException e) {
+                // JSON parsing failed, so we just let this message go, since GCM is not one
+                // of our critical features.
+            }
+        }
+    }
+
+    private static void onForecastChanged(Context context, WeatherPushMessage push) {
+        // Pushes arriving lets the periodic sync be stretched out; see SyncScheduler.
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putLong(context.getString(R.string.pref_last_push), System.currentTimeMillis())
+                .apply();
+
+        if (!push.locationSetting.equals(Utility.getPreferredLocation(context))) {
+            // Left over from a location the user has moved away from.
+            return;
+        }
+        if (push.isDelta()) {
+            switch (applyDelta(context, push)) {
+                case DELTA_APPLIED:
+                    // The provider has told the list; everything else is told what a sync
+                    // would have told it.
+                    new ForecastPublisher().publishStored(context, push.locationSetting);
+                    return;
+                case DELTA_STALE:
+                    return;
+                default:
+                    // A message in between went missing; only the whole forecast will do.
+                    Log.d(TAG, "Missing deltas before version " + push.version + " of "
+                            + push.locationSetting + ", syncing");
+            }
+        } else if (!push.isNewerThan(getStoredVersion(context, push.locationSetting))) {
+            Log.d(TAG, "Already have version " + push.version + " of " + push.locationSetting);
+            return;
+        }
+        SunshineSyncAdapter.syncLocation(context, push.locationSetting, push.version);
+    }
+
+    /**
+     * Applies a delta to the stored forecast.
+     *
+     * @return {@link #DELTA_APPLIED} if the forecast is now at the delta's version,
+     * {@link #DELTA_STALE} if it was already there or past it, so the delta is a duplicate or
+     * arrived late, or {@link #DELTA_GAP} if it is behind the delta's base version, or lacks the
+     * day, and needs a full sync.
+     */
+    static int applyDelta(Context context, WeatherPushMessage push) {
+        if (!push.isNewerThan(getStoredVersion(context, push.locationSetting))) {
+            return DELTA_STALE;
+        }
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationWithDateAndVersion(
+                push.locationSetting, push.date, push.baseVersion, push.version);
+        if (context.getContentResolver().update(uri, push.changes, null, null) > 0) {
+            return DELTA_APPLIED;
+        }
+        // A sync may have landed in between.
+        return push.isNewerThan(getStoredVersion(context, push.locationSetting))
+                ? DELTA_GAP : DELTA_STALE;
+    }
+
+    /**
+     * @return the version of the forecast stored for locationSetting, 0 if there is none.
+     */
+    static long getStoredVersion(Context context, String locationSetting) {
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_VERSION},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (null == cursor) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
     /**
      *  Put the message into a notification and post it.
      *  This is just one simple example of what you might choose to do with a GCM message.
      *
      * @param message The alert message to be posted.
      */
-    private void sendNotification(String message) {
+    private static void sendNotification(Context context, String message) {
         NotificationManager mNotificationManager =
-                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
         PendingIntent contentIntent =
-                PendingIntent.getActivity(this, 0, new Intent(this, MainActivity.class), 0);
+                PendingIntent.getActivity(context, 0, new Intent(context, MainActivity.class), 0);
 
         // Notifications using both a large and a small icon (which yours should!) need the large
         // icon as a bitmap. So we need to create that here from the resource ID, and pass the
         // object along in our notification builder. Generally, you want to use the app icon as the
         // small icon, so that users understand what app is triggering this notification.
-        Bitmap largeIcon = BitmapFactory.decodeResource(this.getResources(), R.drawable.art_storm);
+        Bitmap largeIcon = BitmapFactory.decodeResource(context.getResources(), R.drawable.art_storm);
         NotificationCompat.Builder mBuilder =
-                new NotificationCompat.Builder(this)
+                new NotificationCompat.Builder(context)
                         .setSmallIcon(R.drawable.art_clear)
                         .setLargeIcon(largeIcon)
                         .setContentTitle("Weather Alert!")
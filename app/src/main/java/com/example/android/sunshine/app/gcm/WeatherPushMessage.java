@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.gcm;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * A forecast change announced by the server: the forecast for locationSetting is now at
+ * version.  GCM delivers every value as a String, so they are parsed here; a message without a
+ * usable location or version isn't a change announcement and parses to null.
+ *
+ * When the change is small the server can carry it inline as a delta: the fields of one day that
+ * changed, keyed by their weather column names, and the version the delta was computed from.
+ * A delta applies without fetching anything, but only on top of its base version.
+ */
+public final class WeatherPushMessage {
+    static final String EXTRA_LOCATION_SETTING = "location_setting";
+    static final String EXTRA_VERSION = "version";
+    static final String EXTRA_BASE_VERSION = "base_version";
+    static final String EXTRA_DATE = "date";
+
+    // The weather columns a delta may change, and their types.
+    private static final String[] DELTA_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    private static final int TYPE_TEXT = 0;
+    private static final int TYPE_INTEGER = 1;
+    private static final int TYPE_REAL = 2;
+    private static final int[] DELTA_COLUMN_TYPES = {
+            TYPE_INTEGER, TYPE_TEXT, TYPE_REAL, TYPE_REAL, TYPE_REAL, TYPE_REAL, TYPE_REAL, TYPE_REAL
+    };
+
+    public final String locationSetting;
+    public final long version;
+    // For a delta, the version it applies on top of, the day it changes and the changed fields.
+    // Otherwise 0, 0 and null.
+    public final long baseVersion;
+    public final long date;
+    public final ContentValues changes;
+
+    WeatherPushMessage(String locationSetting, long version) {
+        this(locationSetting, version, 0, 0, null);
+    }
+
+    WeatherPushMessage(String locationSetting, long version, long baseVersion, long date,
+                       ContentValues changes) {
+        this.locationSetting = locationSetting;
+        this.version = version;
+        this.baseVersion = baseVersion;
+        this.date = date;
+        this.changes = changes;
+    }
+
+    /**
+     * @return the change announced by a GCM data bundle, or null if it doesn't announce one.
+     */
+    public static WeatherPushMessage fromBundle(Bundle data) {
+        String locationSetting = data.getString(EXTRA_LOCATION_SETTING);
+        long version = parseLong(data.getString(EXTRA_VERSION));
+        if (null == locationSetting || locationSetting.length() == 0 || version <= 0) {
+            return null;
+        }
+        if (!data.containsKey(EXTRA_BASE_VERSION)) {
+            return new WeatherPushMessage(locationSetting, version);
+        }
+
+        long baseVersion = parseLong(data.getString(EXTRA_BASE_VERSION));
+        long date = parseLong(data.getString(EXTRA_DATE));
+        if (baseVersion <= 0 || baseVersion >= version || date <= 0) {
+            return null;
+        }
+        ContentValues changes = new ContentValues();
+        for (int i = 0; i < DELTA_COLUMNS.length; i++) {
+            String value = data.getString(DELTA_COLUMNS[i]);
+            if (null == value) {
+                continue;
+            }
+            try {
+                switch (DELTA_COLUMN_TYPES[i]) {
+                    case TYPE_INTEGER:
+                        changes.put(DELTA_COLUMNS[i], Integer.parseInt(value));
+                        break;
+                    case TYPE_REAL:
+                        changes.put(DELTA_COLUMNS[i], Double.parseDouble(value));
+                        break;
+                    default:
+                        changes.put(DELTA_COLUMNS[i], value);
+                }
+            } catch (NumberFormatException e) {
+                // Half a delta would leave the day wrong at the new version.
+                return null;
+            }
+        }
+        if (changes.size() == 0) {
+            return null;
+        }
+        return new WeatherPushMessage(locationSetting, version, baseVersion, date, changes);
+    }
+
+    /**
+     * @return whether this carries the change itself rather than only announcing it.
+     */
+    public boolean isDelta() {
+        return null != changes;
+    }
+
+    /**
+     * @return whether this announces something newer than storedVersion.  Messages can arrive
+     * twice or out of order; anything else has already been seen.
+     */
+    public boolean isNewerThan(long storedVersion) {
+        return version > storedVersion;
+    }
+
+    static long parseLong(String value) {
+        if (null == value) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.muzei;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * Read-only provider serving the weather images WeatherMuzeiSource has downloaded ahead of time,
+ * so Muzei can load them without going to the network.  It is exported because Muzei reads the
+ * image from its own process; only files in the art directory can be opened, and only for
+ * reading.
+ */
+public class WeatherArtProvider extends ContentProvider {
+    public static final String AUTHORITY = "com.example.android.sunshine.app.muzei";
+
+    private static final String ART_DIRECTORY = "muzei";
+
+    /**
+     * @return the directory the downloaded images are kept in.
+     */
+    static File getArtDirectory(Context context) {
+        return new File(context.getCacheDir(), ART_DIRECTORY);
+    }
+
+    /**
+     * @return the Uri Muzei can read the image in the art directory called fileName from.
+     */
+    static Uri buildArtUri(String fileName) {
+        return new Uri.Builder()
+                .scheme("content")
+                .authority(AUTHORITY)
+                .appendPath(fileName)
+                .build();
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new SecurityException("Weather art is read-only: " + uri);
+        }
+        String fileName = uri.getLastPathSegment();
+        if (null == fileName || uri.getPathSegments().size() != 1) {
+            throw new FileNotFoundException("Unknown weather art: " + uri);
+        }
+        File file;
+        File artDirectory;
+        try {
+            // Resolved, so that names like ".." or "." can't reach outside the art directory
+            // or open a directory.
+            file = new File(getArtDirectory(getContext()), fileName).getCanonicalFile();
+            artDirectory = getArtDirectory(getContext()).getCanonicalFile();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Unknown weather art: " + uri);
+        }
+        if (!artDirectory.equals(file.getParentFile()) || !file.isFile()) {
+            throw new FileNotFoundException("Unknown weather art: " + uri);
+        }
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return "image/jpeg";
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Weather art is read-only: " + uri);
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Weather art is read-only: " + uri);
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Weather art is read-only: " + uri);
+    }
+}
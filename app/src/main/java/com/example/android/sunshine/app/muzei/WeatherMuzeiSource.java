@@ -16,8 +16,11 @@
 package com.example.android.sunshine.app.muzei;
 
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Log;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.Utility;
@@ -26,10 +29,25 @@ import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.apps.muzei.api.Artwork;
 import com.google.android.apps.muzei.api.MuzeiArtSource;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
 /**
  * Muzei source that changes your background based on the current weather conditions
+ *
+ * The images are large, so Muzei is only handed a new one when the condition, location or title
+ * actually changes, and the image for tomorrow's condition is downloaded ahead of time so that
+ * the switch at the end of the day is served from local storage.
  */
 public class WeatherMuzeiSource extends MuzeiArtSource {
+    private static final String LOG_TAG = WeatherMuzeiSource.class.getSimpleName();
+
     private static final String[] FORECAST_COLUMNS = new String[]{
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
             WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
@@ -38,6 +56,16 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
     private static final int INDEX_WEATHER_ID = 0;
     private static final int INDEX_SHORT_DESC = 1;
 
+    // What was last handed to Muzei.  The image url is the remote one even when Muzei was given
+    // the local copy, so that switching to the copy doesn't count as a change.
+    private static final String PREFS_NAME = "weather_muzei_source";
+    private static final String PREF_PUBLISHED_URL = "published_url";
+    private static final String PREF_PUBLISHED_LOCATION = "published_location";
+    private static final String PREF_PUBLISHED_TITLE = "published_title";
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+
     public WeatherMuzeiSource() {
         super("WeatherMuzeiSource");
     }
@@ -59,21 +87,149 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
                 location, System.currentTimeMillis());
         Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
                 null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            String desc = cursor.getString(INDEX_SHORT_DESC);
-
-            String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
-            // Only publish a new wallpaper if we have a valid image
-            if (imageUrl != null) {
-                publishArtwork(new Artwork.Builder()
-                        .imageUri(Uri.parse(imageUrl))
-                        .title(desc)
-                        .byline(location)
-                        .viewIntent(new Intent(this, MainActivity.class))
-                        .build());
+        if (null == cursor) {
+            return;
+        }
+        String todayUrl = null;
+        String tomorrowUrl = null;
+        try {
+            if (cursor.moveToFirst()) {
+                int weatherId = cursor.getInt(INDEX_WEATHER_ID);
+                String desc = cursor.getString(INDEX_SHORT_DESC);
+
+                todayUrl = Utility.getImageUrlForWeatherCondition(weatherId);
+                // Only publish a new wallpaper if we have a valid image
+                if (todayUrl != null) {
+                    publishIfChanged(todayUrl, location, desc);
+                }
+            }
+            if (cursor.moveToNext()) {
+                tomorrowUrl = Utility.getImageUrlForWeatherCondition(
+                        cursor.getInt(INDEX_WEATHER_ID));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // Muzei makes its own copy when it is given an image, so all that needs to be kept is
+        // today's, in case Muzei asks for it again, and tomorrow's.
+        if (tomorrowUrl != null) {
+            download(tomorrowUrl);
+        }
+        pruneArt(todayUrl, tomorrowUrl);
+    }
+
+    private void publishIfChanged(String imageUrl, String location, String title) {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        boolean unchanged = imageUrl.equals(prefs.getString(PREF_PUBLISHED_URL, null))
+                && TextUtils.equals(location, prefs.getString(PREF_PUBLISHED_LOCATION, null))
+                && TextUtils.equals(title, prefs.getString(PREF_PUBLISHED_TITLE, null));
+        // Muzei forgets our artwork if the user picks another source in between.
+        if (unchanged && null != getCurrentArtwork()) {
+            return;
+        }
+
+        File localCopy = getArtFile(imageUrl);
+        Uri imageUri = localCopy.exists()
+                ? WeatherArtProvider.buildArtUri(localCopy.getName())
+                : Uri.parse(imageUrl);
+        publishArtwork(new Artwork.Builder()
+                .imageUri(imageUri)
+                .title(title)
+                .byline(location)
+                .viewIntent(new Intent(this, MainActivity.class))
+                .build());
+        prefs.edit()
+                .putString(PREF_PUBLISHED_URL, imageUrl)
+                .putString(PREF_PUBLISHED_LOCATION, location)
+                .putString(PREF_PUBLISHED_TITLE, title)
+                .apply();
+    }
+
+    private File getArtFile(String imageUrl) {
+        // The last segment of the Wikimedia url is the image's file name, which is unique.
+        return new File(WeatherArtProvider.getArtDirectory(this),
+                Uri.parse(imageUrl).getLastPathSegment());
+    }
+
+    /**
+     * Downloads imageUrl into the art directory, unless it is already there.  Runs on the
+     * source's worker thread.
+     */
+    private void download(String imageUrl) {
+        File file = getArtFile(imageUrl);
+        if (file.exists()) {
+            return;
+        }
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(LOG_TAG, "Couldn't create " + directory);
+            return;
+        }
+        // Written under a temporary name so a partial download is never served.
+        File partial = new File(directory, file.getName() + ".partial");
+        HttpURLConnection urlConnection = null;
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            urlConnection = (HttpURLConnection) new URL(imageUrl).openConnection();
+            urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            if (urlConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                Log.w(LOG_TAG, "Couldn't download " + imageUrl + ": "
+                        + urlConnection.getResponseCode());
+                return;
+            }
+            in = urlConnection.getInputStream();
+            out = new FileOutputStream(partial);
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            out.close();
+            out = null;
+            if (!partial.renameTo(file)) {
+                Log.e(LOG_TAG, "Couldn't move " + partial + " to " + file);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error downloading " + imageUrl, e);
+        } finally {
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            closeQuietly(in);
+            closeQuietly(out);
+            partial.delete();
+        }
+    }
+
+    private void pruneArt(String... keepUrls) {
+        File[] files = WeatherArtProvider.getArtDirectory(this).listFiles();
+        if (null == files) {
+            return;
+        }
+        for (File file : files) {
+            boolean keep = false;
+            for (String url : keepUrls) {
+                if (null != url && file.equals(getArtFile(url))) {
+                    keep = true;
+                    break;
+                }
+            }
+            if (!keep) {
+                file.delete();
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing more to do with it
             }
         }
-        cursor.close();
     }
 }
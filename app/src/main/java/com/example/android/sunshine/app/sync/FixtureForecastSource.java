@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Serves forecasts from memory instead of the network, for tests and load generation.  Fixtures
+ * are OpenWeatherMap responses, recorded or made up with {@link #generateJson} and
+ * {@link #generateHourlyJson}, and go through the same parser as real ones.  Locations without a
+ * fixture are unknown.
+ *
+ * Fixtures are meant to be added before the source is handed to a sync; it isn't thread safe.
+ */
+public class FixtureForecastSource implements ForecastSource {
+
+    // A few codes from each kind of weather, so generated forecasts exercise every art bucket.
+    private static final int[] WEATHER_IDS = {200, 300, 500, 511, 600, 701, 800, 801, 803, 900};
+    private static final String[] DESCRIPTIONS = {
+            "Thunderstorm", "Drizzle", "Rain", "Rain", "Snow", "Mist", "Clear", "Clouds",
+            "Clouds", "Extreme"};
+
+    // Steps of the 3-hour forecast.
+    private static final long HOURLY_STEP_MILLIS = 3 * 60 * 60 * 1000;
+
+    private final Map<String, String> mFixtures = new HashMap<String, String>();
+    private final Map<String, String> mHourlyFixtures = new HashMap<String, String>();
+
+    /**
+     * Serves json as the forecast for locationSetting, without hours.
+     */
+    public FixtureForecastSource put(String locationSetting, String json) {
+        return put(locationSetting, json, null);
+    }
+
+    /**
+     * Serves dailyJson and hourlyJson as the forecasts for locationSetting.
+     */
+    public FixtureForecastSource put(String locationSetting, String dailyJson,
+                                     String hourlyJson) {
+        mFixtures.put(locationSetting, dailyJson);
+        if (null == hourlyJson) {
+            mHourlyFixtures.remove(locationSetting);
+        } else {
+            mHourlyFixtures.put(locationSetting, hourlyJson);
+        }
+        return this;
+    }
+
+    @Override
+    public Forecast fetch(String locationSetting, SyncDiagnostics.Recorder recorder)
+            throws IOException, JSONException {
+        String json = mFixtures.get(locationSetting);
+        recorder.mark(SyncDiagnostics.PHASE_DOWNLOAD);
+        if (null == json) {
+            return null;
+        }
+        Forecast forecast = OwmForecastParser.parse(json, System.currentTimeMillis(),
+                TimeZone.getDefault());
+        String hourlyJson = mHourlyFixtures.get(locationSetting);
+        if (null != forecast && null != hourlyJson) {
+            forecast = new Forecast(forecast.cityName, forecast.lat, forecast.lon, forecast.days,
+                    OwmForecastParser.parseHourly(hourlyJson));
+        }
+        recorder.mark(SyncDiagnostics.PHASE_PARSE);
+        return forecast;
+    }
+
+    /**
+     * @return a made up forecast of days days in OpenWeatherMap's format, the same for the same
+     * random seed.
+     */
+    public static String generateJson(String cityName, double lat, double lon, int days,
+                                      Random random) {
+        try {
+            JSONObject coord = new JSONObject()
+                    .put("lat", lat)
+                    .put("lon", lon);
+            JSONObject city = new JSONObject()
+                    .put("name", cityName)
+                    .put("coord", coord);
+
+            JSONArray list = new JSONArray();
+            for (int i = 0; i < days; i++) {
+                double low = Math.round((random.nextDouble() * 30 - 10) * 100) / 100.0;
+                double high = Math.round((low + random.nextDouble() * 15) * 100) / 100.0;
+                int kind = random.nextInt(WEATHER_IDS.length);
+                JSONObject weather = new JSONObject()
+                        .put("id", WEATHER_IDS[kind])
+                        .put("main", DESCRIPTIONS[kind]);
+                JSONObject day = new JSONObject()
+                        .put("temp", new JSONObject().put("min", low).put("max", high))
+                        .put("pressure", 990 + random.nextInt(40))
+                        .put("humidity", random.nextInt(101))
+                        .put("speed", Math.round(random.nextDouble() * 2000) / 100.0)
+                        .put("deg", random.nextInt(360))
+                        .put("weather", new JSONArray().put(weather));
+                list.put(day);
+            }
+
+            return new JSONObject()
+                    .put("cod", "200")
+                    .put("city", city)
+                    .put("cnt", days)
+                    .put("list", list)
+                    .toString();
+        } catch (JSONException e) {
+            // Only thrown for non-finite numbers, which aren't made here.
+            throw new IllegalStateException("Couldn't build a forecast for " + cityName, e);
+        }
+    }
+
+    /**
+     * @return a made up 3-hour forecast of steps steps, starting at start, in OpenWeatherMap's
+     * format, the same for the same random seed.
+     */
+    public static String generateHourlyJson(long start, int steps, Random random) {
+        try {
+            JSONArray list = new JSONArray();
+            for (int i = 0; i < steps; i++) {
+                int kind = random.nextInt(WEATHER_IDS.length);
+                JSONObject weather = new JSONObject()
+                        .put("id", WEATHER_IDS[kind])
+                        .put("main", DESCRIPTIONS[kind]);
+                JSONObject main = new JSONObject()
+                        .put("temp", Math.round((random.nextDouble() * 40 - 10) * 100) / 100.0)
+                        .put("humidity", random.nextInt(101));
+                JSONObject wind = new JSONObject()
+                        .put("speed", Math.round(random.nextDouble() * 2000) / 100.0)
+                        .put("deg", random.nextInt(360));
+                JSONObject step = new JSONObject()
+                        // OWM sends seconds.
+                        .put("dt", (start + i * HOURLY_STEP_MILLIS) / 1000)
+                        .put("main", main)
+                        .put("wind", wind)
+                        .put("weather", new JSONArray().put(weather));
+                list.put(step);
+            }
+
+            return new JSONObject()
+                    .put("cod", "200")
+                    .put("cnt", steps)
+                    .put("list", list)
+                    .toString();
+        } catch (JSONException e) {
+            // Only thrown for non-finite numbers, which aren't made here.
+            throw new IllegalStateException("Couldn't build an hourly forecast", e);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.os.Build;
+
+import com.example.android.sunshine.app.ForecastSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
+
+/**
+ * Tells everything that shows the forecast outside the app's own loaders that it has changed:
+ * the launch snapshot, the widgets, Muzei, today's notification and the watch.  The sync calls
+ * it after each commit and the push handler after applying a delta, so both leave them showing
+ * the same thing.  Tests subclass it to keep a benchmark from doing any of this.
+ */
+public class ForecastPublisher {
+
+    private static final String[] PUBLISH_PROJECTION = new String[] {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_COORD_LAT = 9;
+    private static final int INDEX_COORD_LONG = 10;
+
+    /**
+     * Publishes a forecast that has just been committed, marking the phases on recorder.
+     *
+     * @param days the weather rows, starting today, as they were inserted
+     */
+    public void publish(Context context, String locationSetting, double lat, double lon,
+                        ContentValues[] days, SyncDiagnostics.Recorder recorder) {
+        // keep a copy of what the list will show so the next launch can draw it at once
+        ForecastSnapshot.write(context, locationSetting, lat, lon, days);
+        recorder.skip();
+
+        updateWidgets(context);
+        recorder.mark(SyncDiagnostics.PHASE_WIDGETS);
+        updateMuzei(context);
+        recorder.mark(SyncDiagnostics.PHASE_MUZEI);
+        // the first row is today; the notification is built off the calling thread
+        WeatherNotificationService.notifyWeather(context, days[0]);
+        recorder.mark(SyncDiagnostics.PHASE_NOTIFICATION);
+        SunshineSyncAdapter.sendToWearable(context);
+        recorder.mark(SyncDiagnostics.PHASE_WEAR);
+    }
+
+    /**
+     * Publishes the forecast stored for locationSetting from today on, after it was changed
+     * outside a sync.  Nothing is published if there is no row for today or later.  Must not be
+     * called on the main thread.
+     */
+    public void publishStored(Context context, String locationSetting) {
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, System.currentTimeMillis()),
+                PUBLISH_PROJECTION, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (null == cursor) {
+            return;
+        }
+        ContentValues[] days;
+        double lat;
+        double lon;
+        try {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            lat = cursor.getDouble(INDEX_COORD_LAT);
+            lon = cursor.getDouble(INDEX_COORD_LONG);
+            days = new ContentValues[cursor.getCount()];
+            for (int i = 0; i < days.length; i++, cursor.moveToNext()) {
+                days[i] = new ContentValues();
+                DatabaseUtils.cursorRowToContentValues(cursor, days[i]);
+                days[i].remove(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
+                days[i].remove(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
+            }
+        } finally {
+            cursor.close();
+        }
+        // Not a sync, so the timings aren't kept.
+        publish(context, locationSetting, lat, lon, days,
+                SyncDiagnostics.start(locationSetting));
+    }
+
+    private static void updateWidgets(Context context) {
+        // Setting the package ensures that only components in our app will receive the broadcast
+        Intent dataUpdatedIntent = new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                .setPackage(context.getPackageName());
+        context.sendBroadcast(dataUpdatedIntent);
+    }
+
+    private static void updateMuzei(Context context) {
+        // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
+        // Muzei background on lower API level devices
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            context.startService(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                    .setClass(context, WeatherMuzeiSource.class));
+        }
+    }
+}
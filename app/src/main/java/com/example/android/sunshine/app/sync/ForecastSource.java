@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+
+/**
+ * Where the sync adapter gets forecasts from.  The app uses {@link OwmForecastSource}; tests and
+ * benchmarks use {@link FixtureForecastSource}, or point an OwmForecastSource at a local server,
+ * so the whole sync can run without the network.
+ */
+public interface ForecastSource {
+
+    /**
+     * A parsed forecast, ready to be written.
+     */
+    final class Forecast {
+        public final String cityName;
+        public final double lat;
+        public final double lon;
+        // One row per day, starting today, keyed by WeatherEntry columns; no location key yet.
+        public final ContentValues[] days;
+        // One row per 3-hour step, keyed by HourlyEntry columns, already scaled; no location key
+        // yet.  Empty if the source has no hourly forecast.
+        public final ContentValues[] hours;
+
+        public Forecast(String cityName, double lat, double lon, ContentValues[] days) {
+            this(cityName, lat, lon, days, new ContentValues[0]);
+        }
+
+        public Forecast(String cityName, double lat, double lon, ContentValues[] days,
+                        ContentValues[] hours) {
+            this.cityName = cityName;
+            this.lat = lat;
+            this.lon = lon;
+            this.days = days;
+            this.hours = hours;
+        }
+    }
+
+    /**
+     * Fetches the forecast for a location, marking the {@link SyncDiagnostics} phases it goes
+     * through on recorder.
+     *
+     * @return the forecast, or null if the source doesn't know the location.
+     * @throws IOException if the source couldn't be reached or reported an error
+     * @throws JSONException if what came back wasn't a forecast
+     */
+    Forecast fetch(String locationSetting, SyncDiagnostics.Recorder recorder)
+            throws IOException, JSONException;
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.TimeZone;
+
+/**
+ * Parses OpenWeatherMap's daily and 3-hour forecast JSON.  Shared by every source that serves
+ * that format.
+ */
+public final class OwmForecastParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // The 3-hour forecast keeps its values under different names.
+    private static final String OWM_TIME = "dt";
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_WIND = "wind";
+
+    private OwmForecastParser() {
+    }
+
+    /**
+     * Take the String representing the complete forecast in JSON Format and
+     * pull out the data we need to construct the Strings needed for the wireframes.
+     *
+     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
+     * into an Object hierarchy for us.
+     *
+     * @param now the current time, which decides the date of the first day
+     * @return the forecast, or null if the server doesn't know the location.
+     * @throws IOException if the server answered with an error
+     */
+    public static ForecastSource.Forecast parse(String forecastJsonStr, long now,
+                                                TimeZone timeZone)
+            throws IOException, JSONException {
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
+            int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+
+            switch (errorCode) {
+                case HttpURLConnection.HTTP_OK:
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    return null;
+                default:
+                    throw new IOException("Forecast server returned " + errorCode);
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        String cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+        double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+
+        ContentValues[] days = new ContentValues[weatherArray.length()];
+
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        int julianStartDay = WeatherContract.getJulianDay(now, timeZone);
+
+        for(int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            long dateTime = WeatherContract.getStartOfJulianDay(julianStartDay+i, timeZone);
+
+            double pressure = dayForecast.getDouble(OWM_PRESSURE);
+            int humidity = dayForecast.getInt(OWM_HUMIDITY);
+            double windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
+            double windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+            String description = weatherObject.getString(OWM_DESCRIPTION);
+            int weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+            double high = temperatureObject.getDouble(OWM_MAX);
+            double low = temperatureObject.getDouble(OWM_MIN);
+
+            ContentValues weatherValues = new ContentValues();
+
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+
+            days[i] = weatherValues;
+        }
+        return new ForecastSource.Forecast(cityName, cityLatitude, cityLongitude, days);
+    }
+
+    /**
+     * Parses OpenWeatherMap's 3-hour forecast JSON into HourlyEntry rows.
+     *
+     * @return the steps, in the order the server sent them; none if the server doesn't know the
+     * location.
+     * @throws IOException if the server answered with an error
+     */
+    public static ContentValues[] parseHourly(String forecastJsonStr)
+            throws IOException, JSONException {
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
+            int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+
+            switch (errorCode) {
+                case HttpURLConnection.HTTP_OK:
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    return new ContentValues[0];
+                default:
+                    throw new IOException("Forecast server returned " + errorCode);
+            }
+        }
+
+        JSONArray stepArray = forecastJson.getJSONArray(OWM_LIST);
+        ContentValues[] steps = new ContentValues[stepArray.length()];
+        for (int i = 0; i < stepArray.length(); i++) {
+            JSONObject stepForecast = stepArray.getJSONObject(i);
+            JSONObject main = stepForecast.getJSONObject(OWM_MAIN);
+            JSONObject wind = stepForecast.getJSONObject(OWM_WIND);
+            JSONObject weatherObject =
+                    stepForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+
+            ContentValues stepValues = new ContentValues();
+            // The server sends seconds.
+            stepValues.put(WeatherContract.HourlyEntry.COLUMN_TIME,
+                    stepForecast.getLong(OWM_TIME) * 1000);
+            stepValues.put(WeatherContract.HourlyEntry.COLUMN_TEMP,
+                    WeatherContract.HourlyEntry.scaleTemperature(main.getDouble(OWM_TEMPERATURE)));
+            stepValues.put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID,
+                    weatherObject.getInt(OWM_WEATHER_ID));
+            stepValues.put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY, main.getInt(OWM_HUMIDITY));
+            stepValues.put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED,
+                    WeatherContract.HourlyEntry.scaleWindSpeed(wind.getDouble(OWM_WINDSPEED)));
+            stepValues.put(WeatherContract.HourlyEntry.COLUMN_DEGREES,
+                    (int) Math.round(wind.getDouble(OWM_WIND_DIRECTION)));
+            steps[i] = stepValues;
+        }
+        return steps;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Fetches forecasts from OpenWeatherMap's daily and 3-hour forecast APIs, or from anything else
+ * that speaks them, such as a local server in a benchmark.  Both are requested at once.  The
+ * daily forecast is the one that matters: if the 3-hour one fails, the forecast comes back
+ * without hours rather than not at all.
+ */
+public class OwmForecastSource implements ForecastSource {
+    private static final String LOG_TAG = OwmForecastSource.class.getSimpleName();
+
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    public static final String API_BASE_URL = "http://api.openweathermap.org/data/2.5/";
+    private static final String DAILY_PATH = "forecast/daily";
+    // Steps of 3 hours, the finest the free API offers, for the next five days.
+    private static final String HOURLY_PATH = "forecast";
+    private static final String QUERY_PARAM = "q";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int NUM_DAYS = 14;
+
+    // How long a connection may take to open, or go without sending anything, before the
+    // request is given up.
+    private static final int NETWORK_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(15);
+    // How long to wait for the 3-hour forecast once the daily one is in.
+    private static final long HOURLY_TIMEOUT_MILLIS = NETWORK_TIMEOUT_MILLIS;
+
+    private final String mBaseUrl;
+    private final String mApiKey;
+
+    public OwmForecastSource() {
+        this(API_BASE_URL, BuildConfig.OPEN_WEATHER_MAP_API_KEY);
+    }
+
+    /**
+     * @param baseUrl where the API lives; the forecast paths are appended to it.
+     */
+    public OwmForecastSource(String baseUrl, String apiKey) {
+        mBaseUrl = baseUrl;
+        mApiKey = apiKey;
+    }
+
+    @Override
+    public Forecast fetch(String locationSetting, SyncDiagnostics.Recorder recorder)
+            throws IOException, JSONException {
+        HourlyDownload hourlyDownload = new HourlyDownload(buildUri(HOURLY_PATH, locationSetting));
+        new Thread(hourlyDownload, LOG_TAG).start();
+
+        Uri dailyUri = buildUri(DAILY_PATH, locationSetting).buildUpon()
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                .build();
+        Forecast daily = null;
+        try {
+            daily = OwmForecastParser.parse(download(dailyUri, recorder),
+                    System.currentTimeMillis(), TimeZone.getDefault());
+            recorder.mark(SyncDiagnostics.PHASE_PARSE);
+        } finally {
+            if (null == daily) {
+                // The hours of a forecast that won't be written aren't worth waiting for.
+                hourlyDownload.cancel(true);
+            }
+        }
+        if (null == daily) {
+            return null;
+        }
+        return new Forecast(daily.cityName, daily.lat, daily.lon, daily.days,
+                awaitHours(hourlyDownload, recorder));
+    }
+
+    /**
+     * Waits for the 3-hour forecast and parses it, charging the wait to the download phase.
+     *
+     * @return the steps, or none if the download or the parse failed or took too long.
+     */
+    private ContentValues[] awaitHours(HourlyDownload download,
+                                       SyncDiagnostics.Recorder recorder) {
+        try {
+            String json = download.get(HOURLY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            recorder.mark(SyncDiagnostics.PHASE_DOWNLOAD);
+            ContentValues[] hours = OwmForecastParser.parseHourly(json);
+            recorder.mark(SyncDiagnostics.PHASE_PARSE);
+            return hours;
+        } catch (ExecutionException e) {
+            Log.w(LOG_TAG, "Couldn't download the 3-hour forecast", e.getCause());
+        } catch (TimeoutException e) {
+            Log.w(LOG_TAG, "The 3-hour forecast took too long");
+            download.cancel(true);
+        } catch (InterruptedException e) {
+            download.cancel(true);
+            Thread.currentThread().interrupt();
+        } catch (IOException | JSONException e) {
+            Log.w(LOG_TAG, "Couldn't parse the 3-hour forecast", e);
+        }
+        recorder.mark(SyncDiagnostics.PHASE_DOWNLOAD);
+        return new ContentValues[0];
+    }
+
+    private Uri buildUri(String path, String locationSetting) {
+        return Uri.parse(mBaseUrl).buildUpon()
+                .appendEncodedPath(path)
+                .appendQueryParameter(QUERY_PARAM, locationSetting)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(APPID_PARAM, mApiKey)
+                .build();
+    }
+
+    // Creates the request to OpenWeatherMap, without connecting yet.
+    private static HttpURLConnection openConnection(Uri uri) throws IOException {
+        URL url = new URL(uri.toString());
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setRequestMethod("GET");
+        urlConnection.setConnectTimeout(NETWORK_TIMEOUT_MILLIS);
+        urlConnection.setReadTimeout(NETWORK_TIMEOUT_MILLIS);
+        return urlConnection;
+    }
+
+    private String download(Uri uri, SyncDiagnostics.Recorder recorder) throws IOException {
+        return download(openConnection(uri), recorder);
+    }
+
+    // Reads the whole response to urlConnection and disconnects it, marking the connect and
+    // download phases on recorder unless it is null.  Only the sync thread may pass one.
+    private String download(HttpURLConnection urlConnection, SyncDiagnostics.Recorder recorder)
+            throws IOException {
+        // This needs to be declared outside the try/catch
+        // so that it can be closed in the finally block.
+        BufferedReader reader = null;
+
+        try {
+            urlConnection.connect();
+            if (null != recorder) {
+                recorder.mark(SyncDiagnostics.PHASE_CONNECT);
+            }
+
+            // Read the input stream into a String
+            InputStream inputStream = urlConnection.getInputStream();
+            StringBuilder buffer = new StringBuilder();
+            if (inputStream == null) {
+                throw new IOException("No response from " + mBaseUrl);
+            }
+            reader = new BufferedReader(new InputStreamReader(inputStream));
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
+                // But it does make debugging a *lot* easier if you print out the completed
+                // buffer for debugging.
+                buffer.append(line).append('\n');
+            }
+
+            if (null != recorder) {
+                recorder.mark(SyncDiagnostics.PHASE_DOWNLOAD);
+            }
+            if (buffer.length() == 0) {
+                // Stream was empty.  No point in parsing.
+                throw new IOException("Empty response from " + mBaseUrl);
+            }
+            return buffer.toString();
+        } finally {
+            urlConnection.disconnect();
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * The 3-hour forecast, downloaded on a thread of its own.  Cancelling it also disconnects
+     * the request, since interrupting the thread wouldn't stop a blocked read.
+     */
+    private class HourlyDownload extends FutureTask<String> {
+        private final HourlyRequest mRequest;
+
+        HourlyDownload(Uri uri) {
+            this(new HourlyRequest(uri));
+        }
+
+        private HourlyDownload(HourlyRequest request) {
+            super(request);
+            mRequest = request;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                mRequest.cancel();
+            }
+            return cancelled;
+        }
+    }
+
+    private class HourlyRequest implements Callable<String> {
+        private final Uri mUri;
+        private HttpURLConnection mConnection;
+        private boolean mCancelled;
+
+        HourlyRequest(Uri uri) {
+            mUri = uri;
+        }
+
+        @Override
+        public String call() throws IOException {
+            HttpURLConnection connection = openConnection(mUri);
+            synchronized (this) {
+                if (mCancelled) {
+                    throw new IOException("Cancelled");
+                }
+                mConnection = connection;
+            }
+            return download(connection, null);
+        }
+
+        synchronized void cancel() {
+            mCancelled = true;
+            if (null != mConnection) {
+                mConnection.disconnect();
+            }
+        }
+    }
+}
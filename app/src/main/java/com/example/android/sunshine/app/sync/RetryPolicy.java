@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.util.Random;
+
+/**
+ * Decides when the forecast server may be called again after it has failed.
+ *
+ * Each failure in a row doubles the wait before the next attempt, with jitter so that devices
+ * that failed together don't all come back together.  After {@link #FAILURE_THRESHOLD} failures
+ * in a row the circuit opens: no attempts for {@link #OPEN_MILLIS}, then a single trial attempt
+ * (half open) that either closes it again or reopens it.  Any success closes it.
+ *
+ * Plain Java with no Android dependencies, and the time comes from a {@link Clock}, so a test
+ * can drive it through an outage.  The sync adapter keeps its state in preferences between
+ * syncs.
+ */
+public final class RetryPolicy {
+
+    public static final int STATE_CLOSED = 0;
+    public static final int STATE_OPEN = 1;
+    public static final int STATE_HALF_OPEN = 2;
+
+    // The wait after the first failure, and the most any backoff waits, in milliseconds.
+    static final long BASE_BACKOFF_MILLIS = 30 * 1000;
+    static final long MAX_BACKOFF_MILLIS = 30 * 60 * 1000;
+
+    // Failures in a row that open the circuit, and how long it then stays open.
+    static final int FAILURE_THRESHOLD = 5;
+    static final long OPEN_MILLIS = 60 * 60 * 1000;
+
+    /**
+     * The time, in milliseconds since the epoch.
+     */
+    public interface Clock {
+        long currentTimeMillis();
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    private final Clock mClock;
+    private final Random mRandom;
+    private int mFailures;
+    private long mNextAttemptMillis;
+
+    /**
+     * @param failures the failures in a row so far, 0 for none
+     * @param nextAttemptMillis the earliest time the server may be called, 0 for any time
+     */
+    public RetryPolicy(Clock clock, Random random, int failures, long nextAttemptMillis) {
+        mClock = clock;
+        mRandom = random;
+        mFailures = Math.max(0, failures);
+        mNextAttemptMillis = nextAttemptMillis;
+    }
+
+    public int getFailures() {
+        return mFailures;
+    }
+
+    public long getNextAttemptMillis() {
+        return mNextAttemptMillis;
+    }
+
+    public int getState() {
+        if (mFailures < FAILURE_THRESHOLD) {
+            return STATE_CLOSED;
+        }
+        return allowRequest() ? STATE_HALF_OPEN : STATE_OPEN;
+    }
+
+    /**
+     * @return whether the server may be called now.
+     */
+    public boolean allowRequest() {
+        return mClock.currentTimeMillis() >= mNextAttemptMillis;
+    }
+
+    public void onSuccess() {
+        mFailures = 0;
+        mNextAttemptMillis = 0;
+    }
+
+    /**
+     * Records a failed call.
+     *
+     * @return how long to wait before the next attempt, in milliseconds.
+     */
+    public long onFailure() {
+        mFailures++;
+        long delay = mFailures >= FAILURE_THRESHOLD ? OPEN_MILLIS : jitter(backoff(mFailures));
+        mNextAttemptMillis = mClock.currentTimeMillis() + delay;
+        return delay;
+    }
+
+    // The un-jittered wait after failures in a row.
+    static long backoff(int failures) {
+        // Shifting past the maximum would overflow long before it mattered.
+        int doublings = Math.min(failures - 1, 20);
+        return Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << doublings);
+    }
+
+    // Somewhere between half of backoff and all of it.
+    private long jitter(long backoff) {
+        long half = backoff / 2;
+        return half + (long) (mRandom.nextDouble() * (backoff - half));
+    }
+}
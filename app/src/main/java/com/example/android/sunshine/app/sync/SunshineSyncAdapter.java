@@ -2,40 +2,36 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
-import android.content.res.Resources;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.database.SQLException;
+import android.net.ConnectivityManager;
 import android.net.Uri;
+import android.os.BatteryManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
-import android.support.v4.app.NotificationCompat;
-import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
+import android.support.v4.net.ConnectivityManagerCompat;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
-import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SunshineSettings;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
-import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.wearable.DataMap;
@@ -43,20 +39,15 @@ import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
-import java.util.concurrent.ExecutionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
@@ -66,13 +57,40 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
 
-    // Interval at which to sync with the weather, in seconds.
+    // Sync extras for a sync requested by a push message: the location whose forecast changed,
+    // and the server's version of it, stored with the location once the sync has written it.
+    public static final String EXTRA_LOCATION_SETTING = "location_setting";
+    public static final String EXTRA_VERSION = "version";
+
+    // Sync extra to fetch the forecast even if the stored one is fresh.
+    public static final String EXTRA_FORCE = "force";
+
+    // A forecast synced less than this long ago is fresh enough: requests to sync it again are
+    // dropped unless forced.  Several callers request a sync for the same event (a new account,
+    // a location change), and a periodic sync can fall right after one of them.
+    private static final long FRESHNESS_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    // Interval at which to start syncing with the weather, in seconds.
     // 60 seconds (1 minute) * 60 = 1 hours
-    public static final int SYNC_INTERVAL = 60 * 60;
+    // After each sync SyncScheduler adapts it to how quickly the forecast is changing.
+    public static final int SYNC_INTERVAL = (int) SyncScheduler.BASE_INTERVAL;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
 
-    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
-    private static final int WEATHER_NOTIFICATION_ID = 3004;
+    // Below this charge, while unplugged, syncs are spread out.
+    private static final int LOW_BATTERY_PERCENT = 15;
+
+    // The archive is compacted after each sync in batches of this many weeks, each its own
+    // short transaction, and at most this many batches; whatever is left waits for the next sync.
+    private static final int COMPACTION_BATCH_WEEKS = 4;
+    private static final int MAX_COMPACTION_BATCHES = 13;
+
+    private static final String[] SCHEDULER_PROJECTION = new String[] {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+    };
+
 
     private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
@@ -103,8 +121,22 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    private final ForecastSource mForecastSource;
+    private final ForecastPublisher mPublisher;
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
+        this(context, autoInitialize, new OwmForecastSource(), new ForecastPublisher());
+    }
+
+    /**
+     * @param forecastSource where forecasts come from; tests pass one that needs no network
+     * @param publisher what is told about a committed forecast; tests pass one that does nothing
+     */
+    public SunshineSyncAdapter(Context context, boolean autoInitialize,
+                               ForecastSource forecastSource, ForecastPublisher publisher) {
         super(context, autoInitialize);
+        mForecastSource = forecastSource;
+        mPublisher = publisher;
     }
 
     @Override
@@ -112,393 +144,232 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         Log.d(LOG_TAG, "Starting sync");
 
         String locationQuery = Utility.getPreferredLocation(getContext());
+        String requestedLocation = extras.getString(EXTRA_LOCATION_SETTING);
+        if (null != requestedLocation && !requestedLocation.equals(locationQuery)) {
+            // Requested for a location the user has since moved away from.
+            Log.d(LOG_TAG, "Skipping sync of " + requestedLocation);
+            return;
+        }
+        long version = extras.getLong(EXTRA_VERSION, 0);
+        if (!extras.getBoolean(EXTRA_FORCE, false) && isFresh(locationQuery)) {
+            Log.d(LOG_TAG, "Skipping sync of " + locationQuery + ", synced recently");
+            // A location change resets the status before asking for this sync; the stored
+            // forecast shows the location is valid.
+            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+            return;
+        }
+        RetryPolicy retryPolicy = getRetryPolicy(getContext());
+        if (!retryPolicy.allowRequest()) {
+            // The server has been failing; even a forced sync waits for the backoff, since that
+            // is exactly when a burst of requests hurts most.
+            Log.d(LOG_TAG, "Skipping sync of " + locationQuery + ", backing off until "
+                    + retryPolicy.getNextAttemptMillis());
+            syncResult.delayUntil = TimeUnit.MILLISECONDS.toSeconds(
+                    retryPolicy.getNextAttemptMillis());
+            // A location change may have reset the status since the last failure.
+            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            return;
+        }
+        fetchForecast(locationQuery, version, syncResult);
+        recordServerResult(retryPolicy, syncResult);
+    }
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+    private static RetryPolicy getRetryPolicy(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return new RetryPolicy(RetryPolicy.SYSTEM_CLOCK, new Random(),
+                prefs.getInt(context.getString(R.string.pref_retry_failures), 0),
+                prefs.getLong(context.getString(R.string.pref_retry_next_attempt), 0));
+    }
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+    /**
+     * Feeds the outcome of a sync to the retry policy and passes its backoff on to the sync
+     * manager, so that it doesn't retry any sooner either.  An unreachable server or an answer
+     * that doesn't parse counts as a failure; an unknown location doesn't, the server was fine.
+     */
+    private void recordServerResult(RetryPolicy retryPolicy, SyncResult syncResult) {
+        int failuresBefore = retryPolicy.getFailures();
+        if (syncResult.stats.numIoExceptions > 0 || syncResult.stats.numParseExceptions > 0) {
+            long delay = retryPolicy.onFailure();
+            syncResult.delayUntil = TimeUnit.MILLISECONDS.toSeconds(
+                    retryPolicy.getNextAttemptMillis());
+            if (RetryPolicy.STATE_OPEN == retryPolicy.getState()) {
+                Log.w(LOG_TAG, retryPolicy.getFailures() + " failed syncs in a row, not calling "
+                        + "the server for " + TimeUnit.MILLISECONDS.toMinutes(delay) + " minutes");
+            }
+        } else if (failuresBefore > 0) {
+            retryPolicy.onSuccess();
+        } else {
+            // Nothing changed, nothing to write.
+            return;
+        }
+        Context context = getContext();
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putInt(context.getString(R.string.pref_retry_failures),
+                        retryPolicy.getFailures())
+                .putLong(context.getString(R.string.pref_retry_next_attempt),
+                        retryPolicy.getNextAttemptMillis())
+                .commit();
+    }
 
+    /**
+     * @return whether the forecast stored for locationSetting was synced within the freshness
+     * window.
+     */
+    private boolean isFresh(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LAST_SYNC},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (null == cursor) {
+            return false;
+        }
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            if (!cursor.moveToFirst()) {
+                return false;
             }
+            long age = System.currentTimeMillis() - cursor.getLong(0);
+            // A negative age means the clock was set back; don't trust it.
+            return age >= 0 && age < FRESHNESS_WINDOW_MILLIS;
+        } finally {
+            cursor.close();
+        }
+    }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+    private void fetchForecast(String locationQuery, long version, SyncResult syncResult) {
+        SyncDiagnostics.Recorder recorder = SyncDiagnostics.start(locationQuery);
+        try {
+            ForecastSource.Forecast forecast = mForecastSource.fetch(locationQuery, recorder);
+            if (null == forecast) {
+                setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
                 return;
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+            storeForecast(locationQuery, version, forecast, recorder, syncResult);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
+            // to parse it.  Counting it as an IO error lets the sync manager back off.
+            syncResult.stats.numIoExceptions++;
             setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
+            syncResult.stats.numParseExceptions++;
             setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
-            }
+            recorder.finish(SunshineSettings.get(getContext()).locationStatus);
+            getContext().getContentResolver().notifyChange(
+                    WeatherContract.DiagnosticsEntry.CONTENT_URI, null);
         }
-
-        return;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Writes a fetched forecast and lets everything that shows it know.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        final String OWM_MESSAGE_CODE = "cod";
-
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
-                }
+    private void storeForecast(String locationSetting, long version,
+                               ForecastSource.Forecast forecast,
+                               SyncDiagnostics.Recorder recorder, SyncResult syncResult) {
+        ContentValues[] cvArray = forecast.days;
+
+        // add to database
+        if ( cvArray.length > 0 ) {
+            TimeZone timeZone = TimeZone.getDefault();
+            int julianStartDay = WeatherContract.getJulianDay(System.currentTimeMillis(), timeZone);
+            long pruneBefore = WeatherContract.getStartOfJulianDay(julianStartDay-1, timeZone);
+            // compared before the commit replaces the days it would be compared with
+            SyncScheduler.Change change = compareWithStoredForecast(locationSetting, cvArray);
+            if (!commitForecast(locationSetting, forecast.cityName, forecast.lat, forecast.lon,
+                    version, cvArray, pruneBefore, recorder, syncResult)) {
+                return;
             }
+            commitHours(locationSetting, forecast.hours, recorder, syncResult);
+            recorder.mark(SyncDiagnostics.PHASE_COMMIT);
+            reschedule(change);
+            recorder.skip();
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+            mPublisher.publish(getContext(), locationSetting, forecast.lat, forecast.lon,
+                    cvArray, recorder);
 
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+            compactArchive(recorder, syncResult);
+            recorder.skip();
+        }
+        Log.d(LOG_TAG, "Sync Complete. " + cvArray.length + " Inserted");
+        setLocationStatus(getContext(), LOCATION_STATUS_OK);
+    }
 
-                cVVector.add(weatherValues);
-            }
+    private SyncScheduler.Change compareWithStoredForecast(String locationSetting,
+                                                           ContentValues[] days) {
+        List<SyncScheduler.Day> after = new ArrayList<SyncScheduler.Day>(days.length);
+        for (ContentValues day : days) {
+            after.add(new SyncScheduler.Day(
+                    day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE),
+                    day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                    day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP),
+                    day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID)));
+        }
 
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-                sendToWearable(getContext());
+        List<SyncScheduler.Day> before = new ArrayList<SyncScheduler.Day>();
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, System.currentTimeMillis()),
+                SCHEDULER_PROJECTION, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (null != cursor) {
+            while (cursor.moveToNext() && before.size() < SyncScheduler.COMPARED_DAYS) {
+                before.add(new SyncScheduler.Day(cursor.getLong(0), cursor.getDouble(1),
+                        cursor.getDouble(2), cursor.getInt(3)));
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
-
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            cursor.close();
         }
+        return SyncScheduler.compare(before, after);
     }
 
-    private void updateWidgets() {
+    /**
+     * Lets SyncScheduler adjust the sync interval after a sync, and reschedules the periodic
+     * sync if the result differs from what is scheduled now.
+     */
+    private void reschedule(SyncScheduler.Change change) {
         Context context = getContext();
-        // Setting the package ensures that only components in our app will receive the broadcast
-        Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
-                .setPackage(context.getPackageName());
-        context.sendBroadcast(dataUpdatedIntent);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String intervalKey = context.getString(R.string.pref_sync_interval);
+        String scheduledKey = context.getString(R.string.pref_scheduled_sync_interval);
+
+        SyncScheduler scheduler = new SyncScheduler(prefs.getLong(intervalKey, 0));
+        scheduler.onSync(change);
+        long lastPush = prefs.getLong(context.getString(R.string.pref_last_push), 0);
+        long scheduled = scheduler.getScheduledInterval(isActiveNetworkMetered(context),
+                isBatteryLow(context),
+                SyncScheduler.isPushActive(lastPush, System.currentTimeMillis()));
+
+        SharedPreferences.Editor editor = prefs.edit().putLong(intervalKey, scheduler.getInterval());
+        // Rescheduling replaces the periodic sync, so only do it when the interval moves.
+        if (scheduled != prefs.getLong(scheduledKey, SYNC_INTERVAL)) {
+            Log.d(LOG_TAG, "Sync interval now " + scheduled + "s");
+            configurePeriodicSync(context, (int) scheduled,
+                    (int) SyncScheduler.getFlexTime(scheduled));
+            editor.putLong(scheduledKey, scheduled);
+        }
+        editor.commit();
     }
 
-    private void updateMuzei() {
-        // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
-        // Muzei background on lower API level devices
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            Context context = getContext();
-            context.startService(new Intent(ACTION_DATA_UPDATED)
-                    .setClass(context, WeatherMuzeiSource.class));
-        }
+    private static boolean isActiveNetworkMetered(Context context) {
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        return ConnectivityManagerCompat.isActiveNetworkMetered(cm);
     }
 
-    private void notifyWeather() {
-        Context context = getContext();
-        //checking the last update and notify if it' the first of the day
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
-
-        if ( displayNotifications ) {
-
-            String lastNotificationKey = context.getString(R.string.pref_last_notification);
-            long lastSync = prefs.getLong(lastNotificationKey, 0);
-
-            if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
-                // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-                    NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-                    //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
-                }
-                cursor.close();
-            }
+    private static boolean isBatteryLow(Context context) {
+        // ACTION_BATTERY_CHANGED is sticky, so this reads the last broadcast without registering.
+        Intent battery = context.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (null == battery) {
+            return false;
         }
+        boolean plugged = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        return !plugged && level >= 0 && scale > 0 && level * 100 / scale <= LOW_BATTERY_PERCENT;
     }
 
     public static void sendToWearable(Context context) {
@@ -566,53 +437,105 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Writes a freshly downloaded forecast as one batch: the location, the days (replacing any
+     * already stored for those dates) and the pruning of days that have gone by.  The provider
+     * applies it in a single transaction with a single change notification, so the list never
+     * sees a half-written forecast, and applying the same forecast twice changes nothing.
      *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName A human-readable city name, e.g "Mountain View"
-     * @param lat the latitude of the city
-     * @param lon the longitude of the city
-     * @return the row ID of the added location.
+     * @param version the server's version of the forecast if a push announced it, otherwise 0,
+     *                which leaves the stored version alone
+     * @param pruneBefore days up to and including this date are deleted
+     * @return false if the batch couldn't be applied; nothing was written in that case.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
+    private boolean commitForecast(String locationSetting, String cityName, double lat,
+                                   double lon, long version, ContentValues[] days,
+                                   long pruneBefore,
+                                   SyncDiagnostics.Recorder recorder, SyncResult syncResult) {
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(days.length + 2);
+
+        // The provider turns inserting an existing location setting into an update, and returns
+        // the existing row either way.
+        ContentProviderOperation.Builder location =
+                ContentProviderOperation.newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                .withValue(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName)
+                .withValue(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting)
+                .withValue(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat)
+                .withValue(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon)
+                .withValue(WeatherContract.LocationEntry.COLUMN_LAST_SYNC,
+                        System.currentTimeMillis());
+        if (version > 0) {
+            location.withValue(WeatherContract.LocationEntry.COLUMN_VERSION, version);
+        }
+        operations.add(location.build());
+        for (ContentValues day : days) {
+            // The location id comes from the result of the first operation.
+            operations.add(ContentProviderOperation.newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(day)
+                    .withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        // delete old data so we don't build up an endless history; the provider archives the
+        // days that have gone by as it deletes them
+        operations.add(ContentProviderOperation.newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[] {Long.toString(pruneBefore)})
+                .build());
+
+        ContentProviderResult[] results;
+        try {
+            results = getContext().getContentResolver().applyBatch(
+                    WeatherContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException | SQLException e) {
+            Log.e(LOG_TAG, "Error writing the forecast", e);
+            syncResult.databaseError = true;
+            return false;
+        }
 
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
+        int deleted = results[results.length - 1].count;
+        syncResult.stats.numInserts += days.length;
+        syncResult.stats.numEntries += days.length;
+        syncResult.stats.numDeletes += deleted;
+        recorder.addRowsInserted(days.length);
+        recorder.addRowsDeleted(deleted);
+        return true;
+    }
 
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
+    /**
+     * Replaces the stored 3-hour steps of the location with hours.  Runs after the days are
+     * committed, so the location row exists; the provider writes them in one transaction.
+     */
+    private void commitHours(String locationSetting, ContentValues[] hours,
+                             SyncDiagnostics.Recorder recorder, SyncResult syncResult) {
+        if (hours.length == 0) {
+            return;
         }
+        int inserted = getContext().getContentResolver().bulkInsert(
+                WeatherContract.HourlyEntry.buildHourlyLocation(locationSetting), hours);
+        syncResult.stats.numInserts += inserted;
+        syncResult.stats.numEntries += inserted;
+        recorder.addRowsInserted(inserted);
+    }
 
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+    /**
+     * Compacts the archive the commit has just added yesterday to, a batch at a time so nothing
+     * else waits long on the database.  Rows past retention are deleted; folded days live on in
+     * their week's row, so they count as updated.
+     */
+    private void compactArchive(SyncDiagnostics.Recorder recorder, SyncResult syncResult) {
+        ContentResolver resolver = getContext().getContentResolver();
+        Uri compactionUri = WeatherContract.ArchiveEntry.buildCompactionUri(
+                System.currentTimeMillis(), COMPACTION_BATCH_WEEKS);
+        for (int i = 0; i < MAX_COMPACTION_BATCHES; i++) {
+            int expired = resolver.delete(compactionUri, null, null);
+            int folded = resolver.update(compactionUri, null, null, null);
+            if (expired == 0 && folded == 0) {
+                break;
+            }
+            syncResult.stats.numDeletes += expired;
+            syncResult.stats.numUpdates += folded;
+            recorder.addRowsDeleted(expired);
+        }
     }
 
     /**
@@ -634,6 +557,20 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
+    /**
+     * Helper method to sync a location right away because a push message announced a new
+     * version of its forecast.  The stored forecast is out of date however fresh it is.
+     */
+    public static void syncLocation(Context context, String locationSetting, long version) {
+        Bundle bundle = new Bundle();
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        bundle.putBoolean(EXTRA_FORCE, true);
+        bundle.putString(EXTRA_LOCATION_SETTING, locationSetting);
+        bundle.putLong(EXTRA_VERSION, version);
+        ContentResolver.requestSync(getSyncAccount(context),
+                context.getString(R.string.content_authority), bundle);
+    }
+
     /**
      * Helper method to have the sync adapter sync immediately
      * @param context The context used to access the account service
@@ -719,6 +656,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         SharedPreferences.Editor spe = sp.edit();
         spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
         spe.commit();
+        SunshineSettings.refresh(c);
     }
 
 
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.DiagnosticsEntry;
+
+import java.util.Locale;
+
+/**
+ * Records where the time goes in each sync, keeping the last few in memory so they can be read
+ * back through {@link DiagnosticsEntry#CONTENT_URI}.
+ *
+ * A sync starts a {@link Recorder} and marks the end of each phase as it goes; the time since
+ * the previous mark is charged to that phase.  Marking the same phase twice adds up.
+ */
+public final class SyncDiagnostics {
+    private static final String LOG_TAG = SyncDiagnostics.class.getSimpleName();
+
+    public static final int PHASE_CONNECT = 0;
+    public static final int PHASE_DOWNLOAD = 1;
+    public static final int PHASE_PARSE = 2;
+    public static final int PHASE_COMMIT = 3;
+    public static final int PHASE_WIDGETS = 4;
+    public static final int PHASE_MUZEI = 5;
+    public static final int PHASE_NOTIFICATION = 6;
+    public static final int PHASE_WEAR = 7;
+    private static final int PHASE_COUNT = 8;
+
+    // indexed by phase
+    private static final String[] PHASE_COLUMNS = {
+            DiagnosticsEntry.COLUMN_CONNECT_MILLIS,
+            DiagnosticsEntry.COLUMN_DOWNLOAD_MILLIS,
+            DiagnosticsEntry.COLUMN_PARSE_MILLIS,
+            DiagnosticsEntry.COLUMN_COMMIT_MILLIS,
+            DiagnosticsEntry.COLUMN_WIDGETS_MILLIS,
+            DiagnosticsEntry.COLUMN_MUZEI_MILLIS,
+            DiagnosticsEntry.COLUMN_NOTIFICATION_MILLIS,
+            DiagnosticsEntry.COLUMN_WEAR_MILLIS
+    };
+
+    // The columns of the diagnostics cursor when no projection is given.
+    private static final String[] ALL_COLUMNS = {
+            DiagnosticsEntry._ID,
+            DiagnosticsEntry.COLUMN_STARTED,
+            DiagnosticsEntry.COLUMN_LOCATION_SETTING,
+            DiagnosticsEntry.COLUMN_LOCATION_STATUS,
+            DiagnosticsEntry.COLUMN_TOTAL_MILLIS,
+            DiagnosticsEntry.COLUMN_CONNECT_MILLIS,
+            DiagnosticsEntry.COLUMN_DOWNLOAD_MILLIS,
+            DiagnosticsEntry.COLUMN_PARSE_MILLIS,
+            DiagnosticsEntry.COLUMN_COMMIT_MILLIS,
+            DiagnosticsEntry.COLUMN_WIDGETS_MILLIS,
+            DiagnosticsEntry.COLUMN_MUZEI_MILLIS,
+            DiagnosticsEntry.COLUMN_NOTIFICATION_MILLIS,
+            DiagnosticsEntry.COLUMN_WEAR_MILLIS,
+            DiagnosticsEntry.COLUMN_ROWS_INSERTED,
+            DiagnosticsEntry.COLUMN_ROWS_DELETED
+    };
+
+    // How many syncs are kept.  Older ones are overwritten.
+    private static final int CAPACITY = 32;
+
+    // Guarded by the class lock.  sCount is the number of syncs ever recorded, so the newest is
+    // at (sCount - 1) % CAPACITY and also serves as its _ID.
+    private static final Recorder[] sRecords = new Recorder[CAPACITY];
+    private static long sCount;
+
+    private SyncDiagnostics() {
+    }
+
+    /**
+     * The timings of one sync.  Only touched by the sync thread until {@link #finish}, and never
+     * changed after it.
+     */
+    public static final class Recorder {
+        final long started = System.currentTimeMillis();
+        final String locationSetting;
+        final long[] phaseNanos = new long[PHASE_COUNT];
+        private final long mStartNanos = System.nanoTime();
+        private long mLastMarkNanos = mStartNanos;
+        long totalNanos;
+        int locationStatus;
+        long rowsInserted;
+        long rowsDeleted;
+
+        Recorder(String locationSetting) {
+            this.locationSetting = locationSetting;
+        }
+
+        /**
+         * Charges the time since the previous mark (or the start) to phase.
+         */
+        public void mark(int phase) {
+            long now = System.nanoTime();
+            phaseNanos[phase] += now - mLastMarkNanos;
+            mLastMarkNanos = now;
+        }
+
+        /**
+         * Skips the time since the previous mark, charging it to no phase.
+         */
+        public void skip() {
+            mLastMarkNanos = System.nanoTime();
+        }
+
+        public void addRowsInserted(long count) {
+            rowsInserted += count;
+        }
+
+        public void addRowsDeleted(long count) {
+            rowsDeleted += count;
+        }
+
+        /**
+         * Stops the clock and adds this sync to the ones kept.
+         */
+        public void finish(int locationStatus) {
+            totalNanos = System.nanoTime() - mStartNanos;
+            this.locationStatus = locationStatus;
+            synchronized (SyncDiagnostics.class) {
+                sRecords[(int) (sCount % CAPACITY)] = this;
+                sCount++;
+            }
+            Log.d(LOG_TAG, toString());
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("Sync of ").append(locationSetting)
+                    .append(" took ").append(toMillis(totalNanos)).append("ms, status ")
+                    .append(locationStatus);
+            for (int phase = 0; phase < PHASE_COUNT; phase++) {
+                if (phaseNanos[phase] != 0) {
+                    builder.append(", ").append(PHASE_COLUMNS[phase]).append(' ')
+                            .append(toMillis(phaseNanos[phase]));
+                }
+            }
+            return builder.append(String.format(Locale.US, ", %d inserted, %d deleted",
+                    rowsInserted, rowsDeleted)).toString();
+        }
+    }
+
+    /**
+     * Starts timing a sync of locationSetting.
+     */
+    public static Recorder start(String locationSetting) {
+        return new Recorder(locationSetting);
+    }
+
+    /**
+     * @return the kept syncs, newest first, with the given columns of
+     * {@link DiagnosticsEntry}, or all of them if projection is null.
+     */
+    public static Cursor query(String[] projection) {
+        String[] columns = null == projection ? ALL_COLUMNS : projection;
+        Recorder[] records;
+        long count;
+        synchronized (SyncDiagnostics.class) {
+            records = sRecords.clone();
+            count = sCount;
+        }
+
+        int kept = (int) Math.min(count, CAPACITY);
+        MatrixCursor cursor = new MatrixCursor(columns, kept);
+        for (int i = 0; i < kept; i++) {
+            long id = count - 1 - i;
+            Recorder record = records[(int) (id % CAPACITY)];
+            Object[] row = new Object[columns.length];
+            for (int column = 0; column < columns.length; column++) {
+                row[column] = getColumn(id, record, columns[column]);
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private static Object getColumn(long id, Recorder record, String column) {
+        if (DiagnosticsEntry._ID.equals(column)) {
+            return id;
+        } else if (DiagnosticsEntry.COLUMN_STARTED.equals(column)) {
+            return record.started;
+        } else if (DiagnosticsEntry.COLUMN_LOCATION_SETTING.equals(column)) {
+            return record.locationSetting;
+        } else if (DiagnosticsEntry.COLUMN_LOCATION_STATUS.equals(column)) {
+            return record.locationStatus;
+        } else if (DiagnosticsEntry.COLUMN_TOTAL_MILLIS.equals(column)) {
+            return toMillis(record.totalNanos);
+        } else if (DiagnosticsEntry.COLUMN_ROWS_INSERTED.equals(column)) {
+            return record.rowsInserted;
+        } else if (DiagnosticsEntry.COLUMN_ROWS_DELETED.equals(column)) {
+            return record.rowsDeleted;
+        }
+        for (int phase = 0; phase < PHASE_COUNT; phase++) {
+            if (PHASE_COLUMNS[phase].equals(column)) {
+                return toMillis(record.phaseNanos[phase]);
+            }
+        }
+        throw new IllegalArgumentException("Unknown diagnostics column: " + column);
+    }
+
+    private static long toMillis(long nanos) {
+        return nanos / 1000000;
+    }
+}
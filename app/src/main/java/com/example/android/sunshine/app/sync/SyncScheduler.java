@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.common.WeatherConditions;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides how often to sync.  A forecast that keeps coming back unchanged is polled less and
+ * less often, one that is moving quickly is polled more often, and syncs are spread further apart
+ * while the device is on a metered network or low on battery.
+ *
+ * Plain Java with no Android dependencies, so a recorded history of syncs can be replayed through
+ * it in a test.  The sync adapter keeps the interval in preferences between syncs.
+ */
+public final class SyncScheduler {
+
+    // Interval bounds, in seconds.  BASE_INTERVAL is where a new install starts and where a
+    // forecast with ordinary changes settles.
+    public static final long MIN_INTERVAL = 30 * 60;
+    public static final long BASE_INTERVAL = 60 * 60;
+    public static final long MAX_INTERVAL = 6 * 60 * 60;
+
+    // While the server is pushing changes, polling is only a safety net for lost messages.
+    public static final long PUSH_INTERVAL = 24 * 60 * 60;
+
+    // Pushes count as arriving if the last one came in this long ago, in milliseconds.
+    static final long PUSH_ACTIVE_MILLIS = 2 * 24 * 60 * 60 * 1000L;
+
+    // Only the next few days are compared: changes further out are routine and rarely matter.
+    static final int COMPARED_DAYS = 3;
+
+    // A high or low moving this much (Celsius) between syncs, or the condition changing to a
+    // different kind of weather, counts as volatile.
+    static final double VOLATILE_TEMPERATURE_DELTA = 3.0;
+
+    // Differences smaller than this are rounding noise from the server, not a change.
+    private static final double TEMPERATURE_EPSILON = 0.05;
+
+    private long mInterval;
+
+    /**
+     * One day of a forecast, as far as scheduling cares.
+     */
+    public static final class Day {
+        public final long date;
+        public final double high;
+        public final double low;
+        public final int weatherId;
+
+        public Day(long date, double high, double low, int weatherId) {
+            this.date = date;
+            this.high = high;
+            this.low = low;
+            this.weatherId = weatherId;
+        }
+    }
+
+    /**
+     * How a new forecast differs from the one it replaces.
+     */
+    public static final class Change {
+        public static final Change NONE = new Change(false, 0, 0);
+
+        // Whether any compared day is new or differs at all.
+        public final boolean changed;
+        // The largest move of a high or low on a compared day, in Celsius.
+        public final double maxTemperatureDelta;
+        // How many compared days changed to a different kind of weather.
+        public final int conditionChanges;
+
+        public Change(boolean changed, double maxTemperatureDelta, int conditionChanges) {
+            this.changed = changed;
+            this.maxTemperatureDelta = maxTemperatureDelta;
+            this.conditionChanges = conditionChanges;
+        }
+
+        public boolean isVolatile() {
+            return maxTemperatureDelta >= VOLATILE_TEMPERATURE_DELTA || conditionChanges > 0;
+        }
+    }
+
+    /**
+     * @param interval the interval the last sync left, in seconds, or 0 for none yet
+     */
+    public SyncScheduler(long interval) {
+        mInterval = interval <= 0 ? BASE_INTERVAL : clamp(interval);
+    }
+
+    /**
+     * @return the interval following the syncs seen so far, before device state is considered.
+     */
+    public long getInterval() {
+        return mInterval;
+    }
+
+    /**
+     * Adjusts the interval after a sync that brought change:
+     * <ul>
+     *     <li>no change doubles it,</li>
+     *     <li>a volatile change halves it,</li>
+     *     <li>anything else moves it back to {@link #BASE_INTERVAL}.</li>
+     * </ul>
+     */
+    public void onSync(Change change) {
+        if (!change.changed) {
+            mInterval = clamp(mInterval * 2);
+        } else if (change.isVolatile()) {
+            mInterval = clamp(mInterval / 2);
+        } else if (mInterval > BASE_INTERVAL) {
+            mInterval = Math.max(BASE_INTERVAL, mInterval / 2);
+        } else if (mInterval < BASE_INTERVAL) {
+            mInterval = Math.min(BASE_INTERVAL, mInterval * 2);
+        }
+    }
+
+    /**
+     * @return the interval to actually schedule, in seconds: {@link #PUSH_INTERVAL} while pushes
+     * are arriving, otherwise twice the current one while on a metered network or low on battery,
+     * since a late forecast costs less than the data or the battery.
+     */
+    public long getScheduledInterval(boolean metered, boolean batteryLow, boolean pushActive) {
+        if (pushActive) {
+            return PUSH_INTERVAL;
+        }
+        return metered || batteryLow ? clamp(mInterval * 2) : mInterval;
+    }
+
+    /**
+     * @return whether pushes are arriving, given when the last one did (0 for never).
+     */
+    public static boolean isPushActive(long lastPushMillis, long nowMillis) {
+        return lastPushMillis > 0 && nowMillis - lastPushMillis < PUSH_ACTIVE_MILLIS;
+    }
+
+    /**
+     * @return the flex time to go with interval, in seconds.
+     */
+    public static long getFlexTime(long interval) {
+        return interval / 3;
+    }
+
+    /**
+     * Compares the first {@link #COMPARED_DAYS} of a new forecast to the stored one.
+     *
+     * @param before the stored days, in any order
+     * @param after the new days, starting today, in date order
+     */
+    public static Change compare(List<Day> before, List<Day> after) {
+        Map<Long, Day> previous = new HashMap<Long, Day>(before.size() * 2);
+        for (Day day : before) {
+            previous.put(day.date, day);
+        }
+
+        boolean changed = false;
+        double maxDelta = 0;
+        int conditionChanges = 0;
+        int compared = Math.min(COMPARED_DAYS, after.size());
+        for (int i = 0; i < compared; i++) {
+            Day day = after.get(i);
+            Day old = previous.get(day.date);
+            if (null == old) {
+                // A day we had nothing for; it is news, but says nothing about volatility.
+                changed = true;
+                continue;
+            }
+            double delta = Math.max(Math.abs(day.high - old.high), Math.abs(day.low - old.low));
+            maxDelta = Math.max(maxDelta, delta);
+            if (delta > TEMPERATURE_EPSILON || day.weatherId != old.weatherId) {
+                changed = true;
+            }
+            if (WeatherConditions.getBucket(day.weatherId)
+                    != WeatherConditions.getBucket(old.weatherId)) {
+                conditionChanges++;
+            }
+        }
+        return new Change(changed, maxDelta, conditionChanges);
+    }
+
+    private static long clamp(long interval) {
+        return Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.SuppressLint;
+import android.app.IntentService;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.preference.PreferenceManager;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.TaskStackBuilder;
+
+import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.WeatherArtCache;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.Collections;
+
+/**
+ * Posts the daily weather notification.  The sync hands over today's forecast as it parsed it,
+ * so neither the database nor the network is touched on the sync thread; the large icon is
+ * fetched here, through {@link WeatherArtCache} at the notification's size.
+ */
+public class WeatherNotificationService extends IntentService {
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int WEATHER_NOTIFICATION_ID = 3004;
+
+    static final String EXTRA_WEATHER_ID = "weather_id";
+    static final String EXTRA_HIGH = "high";
+    static final String EXTRA_LOW = "low";
+    static final String EXTRA_DESCRIPTION = "description";
+
+    public WeatherNotificationService() {
+        super("WeatherNotificationService");
+    }
+
+    /**
+     * Posts a notification for today's forecast if notifications are enabled and the last one
+     * went out more than a day ago.  Cheap enough to call from the sync thread: only preferences
+     * are read here, everything else happens on the service's worker thread.
+     *
+     * @param today the forecast row for today, as it was inserted into the database
+     */
+    public static void notifyWeather(Context context, ContentValues today) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        boolean displayNotifications = prefs.getBoolean(
+                context.getString(R.string.pref_enable_notifications_key),
+                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
+        if (!displayNotifications) {
+            return;
+        }
+        //checking the last update and notify if it's the first of the day
+        long lastNotification = prefs.getLong(context.getString(R.string.pref_last_notification), 0);
+        if (System.currentTimeMillis() - lastNotification < DAY_IN_MILLIS) {
+            return;
+        }
+        context.startService(new Intent(context, WeatherNotificationService.class)
+                .putExtra(EXTRA_WEATHER_ID,
+                        today.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID))
+                .putExtra(EXTRA_HIGH,
+                        today.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP))
+                .putExtra(EXTRA_LOW,
+                        today.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP))
+                .putExtra(EXTRA_DESCRIPTION,
+                        today.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC)));
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        int weatherId = intent.getIntExtra(EXTRA_WEATHER_ID, 0);
+        double high = intent.getDoubleExtra(EXTRA_HIGH, 0);
+        double low = intent.getDoubleExtra(EXTRA_LOW, 0);
+        String desc = intent.getStringExtra(EXTRA_DESCRIPTION);
+
+        Resources resources = getResources();
+        String title = getString(R.string.app_name);
+
+        // Define the text of the forecast.
+        String contentText = String.format(getString(R.string.format_notification),
+                desc,
+                Utility.formatTemperature(this, high),
+                Utility.formatTemperature(this, low));
+
+        // NotificationCompatBuilder is a very convenient way to build backward-compatible
+        // notifications.  Just throw in some data.
+        NotificationCompat.Builder builder =
+                new NotificationCompat.Builder(this)
+                        .setColor(resources.getColor(R.color.primary_light))
+                        .setSmallIcon(Utility.getIconResourceForWeatherCondition(weatherId))
+                        .setLargeIcon(getLargeIcon(weatherId))
+                        .setContentTitle(title)
+                        .setContentText(contentText);
+
+        // Make something interesting happen when the user clicks on the notification.
+        // In this case, opening the app is sufficient.
+        Intent resultIntent = new Intent(this, MainActivity.class);
+
+        // The stack builder object will contain an artificial back stack for the
+        // started Activity.
+        // This ensures that navigating backward from the Activity leads out of
+        // your application to the Home screen.
+        TaskStackBuilder stackBuilder = TaskStackBuilder.create(this);
+        stackBuilder.addNextIntent(resultIntent);
+        PendingIntent resultPendingIntent =
+                stackBuilder.getPendingIntent(
+                        0,
+                        PendingIntent.FLAG_UPDATE_CURRENT
+                );
+        builder.setContentIntent(resultPendingIntent);
+
+        NotificationManager notificationManager =
+                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
+        notificationManager.notify(WEATHER_NOTIFICATION_ID, builder.build());
+
+        //refreshing last sync
+        PreferenceManager.getDefaultSharedPreferences(this).edit()
+                .putLong(getString(R.string.pref_last_notification), System.currentTimeMillis())
+                .commit();
+    }
+
+    private Bitmap getLargeIcon(int weatherId) {
+        Resources resources = getResources();
+        // On Honeycomb and higher devices, we can retrieve the size of the large icon
+        // Prior to that, we use a fixed size
+        @SuppressLint("InlinedApi")
+        int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+        @SuppressLint("InlinedApi")
+        int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+
+        String artUrl = Utility.getArtUrlForWeatherCondition(this, weatherId);
+        if (null != artUrl) {
+            WeatherArtCache artCache = WeatherArtCache.getInstance();
+            artCache.loadAll(this, Collections.singleton(artUrl), largeIconWidth, largeIconHeight);
+            Bitmap largeIcon = artCache.get(artUrl, largeIconWidth, largeIconHeight);
+            if (null != largeIcon) {
+                return fitCenter(largeIcon, largeIconWidth, largeIconHeight);
+            }
+        }
+        return scaledArtResource(weatherId, largeIconWidth, largeIconHeight);
+    }
+
+    // Scales art to fit width x height, keeping its aspect ratio; the cache only guarantees it
+    // was decoded at least that large.  The cached bitmap itself is left alone.
+    private static Bitmap fitCenter(Bitmap art, int width, int height) {
+        float scale = Math.min((float) width / art.getWidth(), (float) height / art.getHeight());
+        int scaledWidth = Math.max(1, Math.round(art.getWidth() * scale));
+        int scaledHeight = Math.max(1, Math.round(art.getHeight() * scale));
+        if (scaledWidth == art.getWidth() && scaledHeight == art.getHeight()) {
+            return art;
+        }
+        return Bitmap.createScaledBitmap(art, scaledWidth, scaledHeight, true);
+    }
+
+    private Bitmap scaledArtResource(int weatherId, int width, int height) {
+        int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        if (artResourceId == -1) {
+            return null;
+        }
+        Bitmap art = BitmapFactory.decodeResource(getResources(), artResourceId);
+        if (null == art || (art.getWidth() == width && art.getHeight() == height)) {
+            return art;
+        }
+        // Scale here rather than leave the notification to do it every time it is drawn.
+        Bitmap scaled = Bitmap.createScaledBitmap(art, width, height, true);
+        if (scaled != art) {
+            art.recycle();
+        }
+        return scaled;
+    }
+}
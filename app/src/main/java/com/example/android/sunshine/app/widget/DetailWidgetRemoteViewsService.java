@@ -1,24 +1,24 @@
 package com.example.android.sunshine.app.widget;
 
 import android.annotation.TargetApi;
+import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
-import android.util.Log;
 import android.widget.AdapterView;
 import android.widget.RemoteViews;
 import android.widget.RemoteViewsService;
 
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.request.target.Target;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.WeatherArtCache;
 import com.example.android.sunshine.app.data.WeatherContract;
 
-import java.util.concurrent.ExecutionException;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * RemoteViewsService controlling the data being shown in the scrollable weather detail widget
@@ -42,10 +42,44 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
     static final int INDEX_WEATHER_MAX_TEMP = 4;
     static final int INDEX_WEATHER_MIN_TEMP = 5;
 
+    /*
+        One list row, fully formatted.  Built in onDataSetChanged so that the launcher's calls to
+        getViewAt and getItemId are plain array reads.
+     */
+    private static final class WidgetRow {
+        final long id;
+        final int iconResourceId;
+        // null when using local graphics
+        final String artUrl;
+        final String description;
+        final String formattedDate;
+        final String formattedMaxTemperature;
+        final String formattedMinTemperature;
+        final Uri weatherUri;
+
+        WidgetRow(long id, int iconResourceId, String artUrl, String description,
+                  String formattedDate, String formattedMaxTemperature,
+                  String formattedMinTemperature, Uri weatherUri) {
+            this.id = id;
+            this.iconResourceId = iconResourceId;
+            this.artUrl = artUrl;
+            this.description = description;
+            this.formattedDate = formattedDate;
+            this.formattedMaxTemperature = formattedMaxTemperature;
+            this.formattedMinTemperature = formattedMinTemperature;
+            this.weatherUri = weatherUri;
+        }
+    }
+
+    private static final WidgetRow[] NO_ROWS = new WidgetRow[0];
+
     @Override
     public RemoteViewsFactory onGetViewFactory(Intent intent) {
         return new RemoteViewsFactory() {
-            private Cursor data = null;
+            // Replaced as a whole, never modified, so the binder threads always see a complete set.
+            private volatile WidgetRow[] rows = NO_ROWS;
+            private final WeatherArtCache artCache = WeatherArtCache.getInstance();
+            private final int iconSize = getResources().getDimensionPixelSize(R.dimen.list_icon);
 
             @Override
             public void onCreate() {
@@ -54,92 +88,102 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
 
             @Override
             public void onDataSetChanged() {
-                if (data != null) {
-                    data.close();
-                }
                 // This method is called by the app hosting the widget (e.g., the launcher)
                 // However, our ContentProvider is not exported so it doesn't have access to the
                 // data. Therefore we need to clear (and finally restore) the calling identity so
                 // that calls use our process and permission
                 final long identityToken = Binder.clearCallingIdentity();
-                String location = Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
+                Context context = DetailWidgetRemoteViewsService.this;
+                String location = Utility.getPreferredLocation(context);
                 Uri weatherForLocationUri = WeatherContract.WeatherEntry
                         .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
-                data = getContentResolver().query(weatherForLocationUri,
+                Cursor data = getContentResolver().query(weatherForLocationUri,
                         FORECAST_COLUMNS,
                         null,
                         null,
                         WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
                 Binder.restoreCallingIdentity(identityToken);
+                if (data == null) {
+                    rows = NO_ROWS;
+                    return;
+                }
+
+                boolean localGraphics = Utility.usingLocalGraphics(context);
+                WidgetRow[] newRows = new WidgetRow[data.getCount()];
+                Set<String> artUrls = new HashSet<String>();
+                try {
+                    for (int i = 0; data.moveToPosition(i); i++) {
+                        int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
+                        String artUrl = localGraphics ? null
+                                : Utility.getArtUrlForWeatherCondition(context, weatherId);
+                        if (artUrl != null) {
+                            artUrls.add(artUrl);
+                        }
+                        long dateInMillis = data.getLong(INDEX_WEATHER_DATE);
+                        newRows[i] = new WidgetRow(
+                                data.getLong(INDEX_WEATHER_ID),
+                                Utility.getIconResourceForWeatherCondition(weatherId),
+                                artUrl,
+                                data.getString(INDEX_WEATHER_DESC),
+                                Utility.getFriendlyDayString(context, dateInMillis, false),
+                                Utility.formatTemperature(context,
+                                        data.getDouble(INDEX_WEATHER_MAX_TEMP)),
+                                Utility.formatTemperature(context,
+                                        data.getDouble(INDEX_WEATHER_MIN_TEMP)),
+                                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                                        location, dateInMillis));
+                    }
+                } finally {
+                    // Nothing needs the cursor past this point; don't hold it while the
+                    // launcher idles.
+                    data.close();
+                }
+
+                // Decode the art for every condition in the list, at the size the widget shows
+                // it, so getViewAt never waits on the network or a decoder.  There are only a
+                // few distinct conditions in a forecast and they are cached across refreshes,
+                // so usually there is nothing to do.
+                artCache.loadAll(context, artUrls, iconSize, iconSize);
+                rows = newRows;
             }
 
             @Override
             public void onDestroy() {
-                if (data != null) {
-                    data.close();
-                    data = null;
-                }
+                rows = NO_ROWS;
             }
 
             @Override
             public int getCount() {
-                return data == null ? 0 : data.getCount();
+                return rows.length;
             }
 
             @Override
             public RemoteViews getViewAt(int position) {
-                if (position == AdapterView.INVALID_POSITION ||
-                        data == null || !data.moveToPosition(position)) {
+                WidgetRow[] currentRows = rows;
+                if (position == AdapterView.INVALID_POSITION || position >= currentRows.length) {
                     return null;
                 }
+                WidgetRow row = currentRows[position];
                 RemoteViews views = new RemoteViews(getPackageName(),
                         R.layout.widget_detail_list_item);
-                int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
-                int weatherArtResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
-                Bitmap weatherArtImage = null;
-                if ( !Utility.usingLocalGraphics(DetailWidgetRemoteViewsService.this) ) {
-                    String weatherArtResourceUrl = Utility.getArtUrlForWeatherCondition(
-                            DetailWidgetRemoteViewsService.this, weatherId);
-                    try {
-                        weatherArtImage = Glide.with(DetailWidgetRemoteViewsService.this)
-                                .load(weatherArtResourceUrl)
-                                .asBitmap()
-                                .error(weatherArtResourceId)
-                                .into(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + weatherArtResourceUrl, e);
-                    }
-                }
-                String description = data.getString(INDEX_WEATHER_DESC);
-                long dateInMillis = data.getLong(INDEX_WEATHER_DATE);
-                String formattedDate = Utility.getFriendlyDayString(
-                        DetailWidgetRemoteViewsService.this, dateInMillis, false);
-                double maxTemp = data.getDouble(INDEX_WEATHER_MAX_TEMP);
-                double minTemp = data.getDouble(INDEX_WEATHER_MIN_TEMP);
-                String formattedMaxTemperature =
-                        Utility.formatTemperature(DetailWidgetRemoteViewsService.this, maxTemp);
-                String formattedMinTemperature =
-                        Utility.formatTemperature(DetailWidgetRemoteViewsService.this, minTemp);
+                // Decoded in onDataSetChanged; if that failed we fall back to the local icon.
+                Bitmap weatherArtImage = row.artUrl == null ? null
+                        : artCache.get(row.artUrl, iconSize, iconSize);
                 if (weatherArtImage != null) {
                     views.setImageViewBitmap(R.id.widget_icon, weatherArtImage);
                 } else {
-                    views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
+                    views.setImageViewResource(R.id.widget_icon, row.iconResourceId);
                 }
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
-                    setRemoteContentDescription(views, description);
+                    setRemoteContentDescription(views, row.description);
                 }
-                views.setTextViewText(R.id.widget_date, formattedDate);
-                views.setTextViewText(R.id.widget_description, description);
-                views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
-                views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
+                views.setTextViewText(R.id.widget_date, row.formattedDate);
+                views.setTextViewText(R.id.widget_description, row.description);
+                views.setTextViewText(R.id.widget_high_temperature, row.formattedMaxTemperature);
+                views.setTextViewText(R.id.widget_low_temperature, row.formattedMinTemperature);
 
                 final Intent fillInIntent = new Intent();
-                String locationSetting =
-                        Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
-                        locationSetting,
-                        dateInMillis);
-                fillInIntent.setData(weatherUri);
+                fillInIntent.setData(row.weatherUri);
                 views.setOnClickFillInIntent(R.id.widget_list_item, fillInIntent);
                 return views;
             }
@@ -161,8 +205,9 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
 
             @Override
             public long getItemId(int position) {
-                if (data.moveToPosition(position))
-                    return data.getLong(INDEX_WEATHER_ID);
+                WidgetRow[] currentRows = rows;
+                if (position >= 0 && position < currentRows.length)
+                    return currentRows[position].id;
                 return position;
             }
 
@@ -20,12 +20,16 @@ import android.app.IntentService;
 import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
 import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.DisplayMetrics;
+import android.util.SparseArray;
 import android.util.TypedValue;
 import android.widget.RemoteViews;
 
@@ -34,10 +38,58 @@ import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * IntentService which handles updating all Today widgets with the latest data
+ *
+ * Requests arriving in a burst (a sync, the Muzei and widget broadcasts, several pinned widgets)
+ * are coalesced into one pass, and widgets whose layout and data haven't changed since they
+ * were last rendered are left alone.
  */
 public class TodayWidgetIntentService extends IntentService {
+    // Widget ids in this extra are re-rendered even if nothing seems to have changed, e.g. when
+    // the widget host asks for an update.
+    static final String EXTRA_FORCE_WIDGET_IDS = "force_widget_ids";
+
+    // How long to wait for more requests before rendering.
+    private static final long COALESCE_WINDOW_MILLIS = 250;
+
+    // Set by requestUpdate() and cleared just before a pass reads the data, so that a request
+    // made after that point always gets a pass of its own.
+    private static final AtomicBoolean sUpdatePending = new AtomicBoolean(false);
+
+    // What each widget was last rendered with.  Only touched on the service's worker thread.
+    private static final SparseArray<RenderedWidget> sRenderedWidgets =
+            new SparseArray<RenderedWidget>();
+
+    private static final class RenderedWidget {
+        final int layoutId;
+        final int artResourceId;
+        final String description;
+        final String high;
+        final String low;
+
+        RenderedWidget(int layoutId, int artResourceId, String description, String high,
+                       String low) {
+            this.layoutId = layoutId;
+            this.artResourceId = artResourceId;
+            this.description = description;
+            this.high = high;
+            this.low = low;
+        }
+
+        boolean sameText(RenderedWidget other) {
+            return TextUtils.equals(description, other.description)
+                    && TextUtils.equals(high, other.high) && TextUtils.equals(low, other.low);
+        }
+
+        boolean sameAs(RenderedWidget other) {
+            return layoutId == other.layoutId && artResourceId == other.artResourceId
+                    && sameText(other);
+        }
+    }
+
     private static final String[] FORECAST_COLUMNS = {
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
             WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
@@ -54,8 +106,36 @@ public class TodayWidgetIntentService extends IntentService {
         super("TodayWidgetIntentService");
     }
 
+    /**
+     * Asks for the Today widgets to be brought up to date.  Cheap to call often: requests made
+     * while a pass is already pending are folded into it.
+     *
+     * @param forceWidgetIds widgets to re-render even if their data is unchanged, or null
+     */
+    static void requestUpdate(Context context, int[] forceWidgetIds) {
+        sUpdatePending.set(true);
+        Intent intent = new Intent(context, TodayWidgetIntentService.class);
+        if (null != forceWidgetIds) {
+            intent.putExtra(EXTRA_FORCE_WIDGET_IDS, forceWidgetIds);
+        }
+        context.startService(intent);
+    }
+
     @Override
     protected void onHandleIntent(Intent intent) {
+        int[] forceWidgetIds = intent.getIntArrayExtra(EXTRA_FORCE_WIDGET_IDS);
+        if (null != forceWidgetIds) {
+            for (int appWidgetId : forceWidgetIds) {
+                sRenderedWidgets.remove(appWidgetId);
+            }
+        } else if (!sUpdatePending.get()) {
+            // An earlier pass already covered this request.
+            return;
+        }
+        // Give the rest of a burst a moment to arrive; they'll find nothing pending.
+        SystemClock.sleep(COALESCE_WINDOW_MILLIS);
+        sUpdatePending.set(false);
+
         // Retrieve all of the Today widget ids: these are the widgets we need to update
         AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(this);
         int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new ComponentName(this,
@@ -85,12 +165,13 @@ public class TodayWidgetIntentService extends IntentService {
         String formattedMinTemperature = Utility.formatTemperature(this, minTemp);
         data.close();
 
+        int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+        int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
+
         // Perform this loop procedure for each Today widget
         for (int appWidgetId : appWidgetIds) {
             // Find the correct layout based on the widget's width
             int widgetWidth = getWidgetWidth(appWidgetManager, appWidgetId);
-            int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
-            int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
             int layoutId;
             if (widgetWidth >= largeWidth) {
                 layoutId = R.layout.widget_today_large;
@@ -99,26 +180,53 @@ public class TodayWidgetIntentService extends IntentService {
             } else {
                 layoutId = R.layout.widget_today_small;
             }
-            RemoteViews views = new RemoteViews(getPackageName(), layoutId);
 
-            // Add the data to the RemoteViews
-            views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
-            // Content Descriptions for RemoteViews were only added in ICS MR1
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
-                setRemoteContentDescription(views, description);
+            RenderedWidget rendered = new RenderedWidget(layoutId, weatherArtResourceId,
+                    description, formattedMaxTemperature, formattedMinTemperature);
+            RenderedWidget previous = sRenderedWidgets.get(appWidgetId);
+            if (null != previous && previous.sameAs(rendered)) {
+                // The widget already shows exactly this.
+                continue;
             }
-            views.setTextViewText(R.id.widget_description, description);
-            views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
-            views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
 
-            // Create an Intent to launch MainActivity
-            Intent launchIntent = new Intent(this, MainActivity.class);
-            PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, launchIntent, 0);
-            views.setOnClickPendingIntent(R.id.widget, pendingIntent);
+            RemoteViews views = new RemoteViews(getPackageName(), layoutId);
+            if (null != previous && previous.layoutId == layoutId
+                    && previous.artResourceId == weatherArtResourceId
+                    && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                // Same layout and icon: only send the text that changed.
+                setWidgetText(views, rendered);
+                partiallyUpdateAppWidget(appWidgetManager, appWidgetId, views);
+            } else {
+                // Add the data to the RemoteViews
+                views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
+                setWidgetText(views, rendered);
+
+                // Create an Intent to launch MainActivity
+                Intent launchIntent = new Intent(this, MainActivity.class);
+                PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, launchIntent, 0);
+                views.setOnClickPendingIntent(R.id.widget, pendingIntent);
+
+                // Tell the AppWidgetManager to perform an update on the current app widget
+                appWidgetManager.updateAppWidget(appWidgetId, views);
+            }
+            sRenderedWidgets.put(appWidgetId, rendered);
+        }
+    }
 
-            // Tell the AppWidgetManager to perform an update on the current app widget
-            appWidgetManager.updateAppWidget(appWidgetId, views);
+    private void setWidgetText(RemoteViews views, RenderedWidget rendered) {
+        // Content Descriptions for RemoteViews were only added in ICS MR1
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
+            setRemoteContentDescription(views, rendered.description);
         }
+        views.setTextViewText(R.id.widget_description, rendered.description);
+        views.setTextViewText(R.id.widget_high_temperature, rendered.high);
+        views.setTextViewText(R.id.widget_low_temperature, rendered.low);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void partiallyUpdateAppWidget(AppWidgetManager appWidgetManager, int appWidgetId,
+                                          RemoteViews views) {
+        appWidgetManager.partiallyUpdateAppWidget(appWidgetId, views);
     }
 
     private int getWidgetWidth(AppWidgetManager appWidgetManager, int appWidgetId) {
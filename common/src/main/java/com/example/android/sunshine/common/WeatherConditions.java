@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.common;
+
+/**
+ * Maps OpenWeatherMap condition codes to the handful of buckets Sunshine has artwork for.
+ *
+ * The table is built once, indexed directly by code, so a lookup is a bounds check and an array
+ * read.  Each module keeps its own per-bucket resource arrays (icons, art, ambient icons) indexed
+ * by the bucket returned from {@link #getBucket(int)}.
+ *
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+public final class WeatherConditions {
+
+    // Buckets.  The values index the per-bucket arrays below and in the app and wearable.
+    public static final int BUCKET_NONE = 0;
+    public static final int BUCKET_STORM = 1;
+    public static final int BUCKET_LIGHT_RAIN = 2;
+    public static final int BUCKET_RAIN = 3;
+    public static final int BUCKET_SNOW = 4;
+    public static final int BUCKET_FOG = 5;
+    // Tornado (781) shares the storm artwork but has its own Muzei image.
+    public static final int BUCKET_TORNADO = 6;
+    public static final int BUCKET_CLEAR = 7;
+    public static final int BUCKET_LIGHT_CLOUDS = 8;
+    public static final int BUCKET_CLOUDS = 9;
+    public static final int BUCKET_COUNT = 10;
+
+    public static final int MIN_CODE = 200;
+    public static final int MAX_CODE = 999;
+
+    /**
+     * The name used in art pack urls for each bucket, or null if there is no art.
+     */
+    private static final String[] ART_NAMES = {
+            null,
+            "storm",
+            "light_rain",
+            "rain",
+            "snow",
+            "fog",
+            "storm",
+            "clear",
+            "light_clouds",
+            "clouds"
+    };
+
+    /**
+     * The full screen image used by the Muzei source for each bucket, or null if there is none.
+     */
+    private static final String[] IMAGE_URLS = {
+            null,
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"
+    };
+
+    private static final byte[] BUCKETS = new byte[MAX_CODE - MIN_CODE + 1];
+
+    static {
+        fill(200, 232, BUCKET_STORM);
+        fill(300, 321, BUCKET_LIGHT_RAIN);
+        fill(500, 504, BUCKET_RAIN);
+        fill(511, 511, BUCKET_SNOW);
+        fill(520, 531, BUCKET_RAIN);
+        fill(600, 622, BUCKET_SNOW);
+        // 761 (dust) has always been drawn as fog: the 701-761 range used to be checked first.
+        fill(701, 761, BUCKET_FOG);
+        fill(781, 781, BUCKET_TORNADO);
+        fill(800, 800, BUCKET_CLEAR);
+        fill(801, 801, BUCKET_LIGHT_CLOUDS);
+        fill(802, 804, BUCKET_CLOUDS);
+    }
+
+    private static void fill(int firstCode, int lastCode, int bucket) {
+        for (int code = firstCode; code <= lastCode; code++) {
+            BUCKETS[code - MIN_CODE] = (byte) bucket;
+        }
+    }
+
+    private WeatherConditions() {
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return the bucket for the condition, {@link #BUCKET_NONE} if there is no artwork for it.
+     */
+    public static int getBucket(int weatherId) {
+        if (weatherId < MIN_CODE || weatherId > MAX_CODE) {
+            return BUCKET_NONE;
+        }
+        return BUCKETS[weatherId - MIN_CODE];
+    }
+
+    /**
+     * @return the art pack name for the condition ("storm", "rain", ...), or null if there is none.
+     */
+    public static String getArtName(int weatherId) {
+        return ART_NAMES[getBucket(weatherId)];
+    }
+
+    /**
+     * @return a url to a full screen image for the condition, or null if there is none.
+     */
+    public static String getImageUrl(int weatherId) {
+        return IMAGE_URLS[getBucket(weatherId)];
+    }
+}
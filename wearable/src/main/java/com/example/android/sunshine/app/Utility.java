@@ -1,65 +1,45 @@
 package com.example.android.sunshine.app;
 
+import com.example.android.sunshine.common.WeatherConditions;
+
 /**
  * Created by Zac on 8/5/16.
  */
 public class Utility {
 
+    // Per-bucket icons, indexed by the WeatherConditions bucket constants.
+    private static final int[] INTERACTIVE_ICONS = new int[WeatherConditions.BUCKET_COUNT];
+    private static final int[] AMBIENT_ICONS = new int[WeatherConditions.BUCKET_COUNT];
+
+    static {
+        INTERACTIVE_ICONS[WeatherConditions.BUCKET_STORM] = R.drawable.ic_storm;
+        INTERACTIVE_ICONS[WeatherConditions.BUCKET_LIGHT_RAIN] = R.drawable.ic_light_rain;
+        INTERACTIVE_ICONS[WeatherConditions.BUCKET_RAIN] = R.drawable.ic_rain;
+        INTERACTIVE_ICONS[WeatherConditions.BUCKET_SNOW] = R.drawable.ic_snow;
+        INTERACTIVE_ICONS[WeatherConditions.BUCKET_FOG] = R.drawable.ic_fog;
+        INTERACTIVE_ICONS[WeatherConditions.BUCKET_TORNADO] = R.drawable.ic_storm;
+        INTERACTIVE_ICONS[WeatherConditions.BUCKET_CLEAR] = R.drawable.ic_clear;
+        INTERACTIVE_ICONS[WeatherConditions.BUCKET_LIGHT_CLOUDS] = R.drawable.ic_light_clouds;
+        INTERACTIVE_ICONS[WeatherConditions.BUCKET_CLOUDS] = R.drawable.ic_cloudy;
+
+        AMBIENT_ICONS[WeatherConditions.BUCKET_STORM] = R.drawable.ic_storm_ambient;
+        AMBIENT_ICONS[WeatherConditions.BUCKET_LIGHT_RAIN] = R.drawable.ic_light_rain_ambient;
+        AMBIENT_ICONS[WeatherConditions.BUCKET_RAIN] = R.drawable.ic_rain_ambient;
+        AMBIENT_ICONS[WeatherConditions.BUCKET_SNOW] = R.drawable.ic_snow_ambient;
+        AMBIENT_ICONS[WeatherConditions.BUCKET_FOG] = R.drawable.ic_fog_ambient;
+        AMBIENT_ICONS[WeatherConditions.BUCKET_TORNADO] = R.drawable.ic_storm_ambient;
+        AMBIENT_ICONS[WeatherConditions.BUCKET_CLEAR] = R.drawable.ic_clear_ambient;
+        AMBIENT_ICONS[WeatherConditions.BUCKET_LIGHT_CLOUDS] = R.drawable.ic_light_clouds_ambient;
+        AMBIENT_ICONS[WeatherConditions.BUCKET_CLOUDS] = R.drawable.ic_cloudy_ambient;
+    }
+
     public static int getInteractiveIconResource(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.ic_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.ic_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.ic_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.ic_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.ic_fog;
-        } else if (weatherId == 761 || weatherId == 781) {
-            return R.drawable.ic_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.ic_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.ic_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.ic_cloudy;
-        }
-        return -1;
+        int bucket = WeatherConditions.getBucket(weatherId);
+        return bucket == WeatherConditions.BUCKET_NONE ? -1 : INTERACTIVE_ICONS[bucket];
     }
 
     public static int getAmbientIconResource(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.ic_storm_ambient;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.ic_light_rain_ambient;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.ic_rain_ambient;
-        } else if (weatherId == 511) {
-            return R.drawable.ic_snow_ambient;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.ic_rain_ambient;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.ic_snow_ambient;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.ic_fog_ambient;
-        } else if (weatherId == 761 || weatherId == 781) {
-            return R.drawable.ic_storm_ambient;
-        } else if (weatherId == 800) {
-            return R.drawable.ic_clear_ambient;
-        } else if (weatherId == 801) {
-            return R.drawable.ic_light_clouds_ambient;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.ic_cloudy_ambient;
-        }
-        return -1;
+        int bucket = WeatherConditions.getBucket(weatherId);
+        return bucket == WeatherConditions.BUCKET_NONE ? -1 : AMBIENT_ICONS[bucket];
     }
 }